@@ -10,6 +10,23 @@ public class Constants {
 	public static final int EVENT_PLUGIN_TO_PLUGIN_CALL = 6;
 	public static final int EVENT_STATISTICS = 7;
 	public static final int EVENT_JOB = 8;
+	public static final int EVENT_PLUGIN_NAME = 9;
+	public static final int EVENT_METHOD_NAME = 10;
+	public static final int EVENT_TIME = 11;
+	public static final int EVENT_PLUGIN_TO_PLUGIN_CALLS = 12;
+	public static final int EVENT_SAMPLING = 13;
+	public static final int EVENT_GOVERNOR = 14;
+	public static final int EVENT_LATENCY = 15;
+	public static final int EVENT_PLUGIN_TIMES = 16;
+	public static final int EVENT_ALLOCATIONS = 17;
+	// only used inside the agent, see cacophonia.runtime.TraceFile
+	public static final int EVENT_TRACE_ENTER = 18;
+	public static final int EVENT_TRACE_LEAVE = 19;
+	public static final int EVENT_METRICS = 20;
+	public static final int EVENT_TRANSPORT = 21;
+	public static final int EVENT_METHOD_CALLS = 22;
+	public static final int EVENT_HAND_OFFS = 23;
+	public static final int EVENT_FLAME_GRAPH = 24;
 	
 	public static final int WIDTH = 1200;
 	public static final int HEIGHT = 1000;
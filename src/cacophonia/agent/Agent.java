@@ -3,6 +3,8 @@ package cacophonia.agent;
 import java.io.File;
 import java.lang.instrument.Instrumentation;
 
+import cacophonia.runtime.Cacophonia;
+
 
 /**
   * {@link Agent} uses {@link Transformer} to implement the Java instrumentation API to 
@@ -24,7 +26,9 @@ public class Agent {
     public static void premain(String agentArgs, Instrumentation instrumentation) {
         try {
         	setup();
+        	Cacophonia.configure(agentArgs);
         	loadRemoteUI();
+        	Cacophonia.start();
         	registerTransformer(instrumentation);
         } catch (Exception e) {
         	e.printStackTrace();
@@ -1,7 +1,9 @@
 package cacophonia.agent;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.nio.file.Files;
@@ -15,16 +17,44 @@ import javassist.CannotCompileException;
 import javassist.CtClass;
 import javassist.CtMethod;
 
+import cacophonia.runtime.Cacophonia;
+
 /**
  * Transformer instruments each method with calls to the Cacopohonia runtime to inform it on enter/leave events.
+ * <p>
+ * Every instrumented method is registered with the runtime and the resulting method ID is passed to enter/leave.
+ * The cached class files contain those IDs, so the names are kept in <tt>methods.txt</tt>, in ID order, and
+ * registered again at startup to give each method the same ID in the next session.
  */
 class Transformer implements ClassFileTransformer {
 	static String HOME_DIR = System.getProperty("user.home") + "/.cacophonia";
+	static String CACHE_DIR = HOME_DIR + "/classes";
+	static String METHODS_FILE = HOME_DIR + "/methods.txt";
 	int classLoadCount;
 	HashSet<ClassLoader> classLoaders = new HashSet<ClassLoader>();
 	boolean debug = false;
 	CacophoniaClassPool classPool = new CacophoniaClassPool();
 	long startMillis = System.currentTimeMillis();
+	boolean useCache;
+	PrintWriter methodsWriter;
+	int lastMethodId = -1;
+
+	public Transformer() {
+		File methodsFile = new File(METHODS_FILE);
+		useCache = methodsFile.exists();
+		try {
+			if (useCache) {
+				for (String methodName : Files.readAllLines(methodsFile.toPath())) {
+					lastMethodId = Cacophonia.register(methodName);
+				}
+			}
+			methodsFile.getParentFile().mkdirs();
+			methodsWriter = new PrintWriter(new FileWriter(methodsFile, true));
+		} catch (IOException e) {
+			e.printStackTrace();
+			useCache = false;
+		}
+	}
 	
     @Override
     public byte[] transform(ClassLoader classLoader, String rawClassName, Class<?> classBeingRedefined,
@@ -32,14 +62,16 @@ class Transformer implements ClassFileTransformer {
         String className = rawClassName.replace("/", ".");
         trackStatistics(classLoader, className);
     	if (isInstrumentable(className)) {
+    		long start = System.nanoTime();
     		classfileBuffer = instrument(className, classfileBuffer);
+    		Cacophonia.transformed(System.nanoTime() - start);
         }
         return classfileBuffer;
     }
     
     byte[] instrument(String className, byte[] classfileBuffer) {
     	try {
-    		return getFromCache(className);
+    		if (useCache) return getFromCache(className);
     	} catch (IOException e) {
     		// not in cache
     	}
@@ -56,6 +88,7 @@ class Transformer implements ClassFileTransformer {
             }
             classfileBuffer = classDefinition.toBytecode();
             classDefinition.detach();
+            methodsWriter.flush();
         } catch (Exception e) {
             if (debug) e.printStackTrace();
         }
@@ -76,7 +109,7 @@ class Transformer implements ClassFileTransformer {
     }
     
     File getCacheFile(String className) {
-    	File file = new File(String.format("%s/%s.class", HOME_DIR, className.replace(".", "/")));
+    	File file = new File(String.format("%s/%s.class", CACHE_DIR, className.replace(".", "/")));
     	if (!file.exists()) {
     		file.getParentFile().mkdirs();
     	}
@@ -112,15 +145,55 @@ class Transformer implements ClassFileTransformer {
 				if (debug) System.out.println("Cannot instrument " + e2 + ": " + className + " " + method.getName());
 			}
         }
+		instrumentHandOff(className, method);
+	}
+
+	/**
+	 * Tags the points where Eclipse hands work to another thread, see cacophonia.runtime.HandOffs. It is inserted
+	 * after enter, so it runs first, while the plugin that hands off the work is still the one running.
+	 */
+	void instrumentHandOff(String className, CtMethod method) {
+		String call = getHandOffCall(className, method.getName(), method.getSignature());
+		if (call == null) return;
+		try {
+			method.insertBefore(call);
+		} catch (CannotCompileException e) {
+			if (debug) System.out.println("Cannot tag hand-off " + e + ": " + className + " " + method.getName());
+		}
+	}
+
+	static String getHandOffCall(String className, String methodName, String signature) {
+		switch (className + "." + methodName + signature) {
+		case "org.eclipse.core.runtime.jobs.Job.schedule()V":
+			return "cacophonia.runtime.Cacophonia.handedOff($0, 0L);";
+		case "org.eclipse.core.runtime.jobs.Job.schedule(J)V":
+			return "cacophonia.runtime.Cacophonia.handedOff($0, $1);";
+		case "org.eclipse.swt.widgets.Display.asyncExec(Ljava/lang/Runnable;)V":
+			return "cacophonia.runtime.Cacophonia.handedOff($1, 0L);";
+		}
+		if (className.equals("org.eclipse.swt.widgets.RunnableLock") && methodName.equals("run")) {
+			return "cacophonia.runtime.Cacophonia.displayRuns($0.runnable);";
+		}
+		return null;
 	}
 	
 	void instrumentEnterLeave(CtMethod method, String self) throws CannotCompileException {
-		String enter = String.format("cacophonia.runtime.Cacophonia.enter(\"%s\", %s);", method.getLongName(), self);    	
+		int methodId = getMethodId(method.getLongName());
+		String enter = String.format("cacophonia.runtime.Cacophonia.enter(%d, %s);", methodId, self);    	
 		method.insertBefore(enter);
-		String leave = String.format("cacophonia.runtime.Cacophonia.leave(\"%s\", %s);", method.getLongName(), self);    	
+		String leave = String.format("cacophonia.runtime.Cacophonia.leave(%d, %s);", methodId, self);    	
 		method.insertAfter(leave);
 	}
 
+	synchronized int getMethodId(String methodName) {
+		int methodId = Cacophonia.register(methodName);
+		if (methodId > lastMethodId) {
+			methodsWriter.println(methodName);
+			lastMethodId = methodId;
+		}
+		return methodId;
+	}
+
 	boolean isInstrumentable(String className) {
 		if (isJavaClass(className) || className.startsWith("cacophonia.")) return false;
 		if (className.startsWith("org.eclipse.osgi.")) return false;
@@ -0,0 +1,154 @@
+package cacophonia.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import cacophonia.Constants;
+import cacophonia.DetailLevel;
+import cacophonia.protocol.EventHandler;
+import cacophonia.runtime.Histogram;
+import cacophonia.ui.PluginRegistry;
+
+/**
+ * Adds up the events of a stream, or of one time range of a recording, into a call matrix and a job table.
+ * <p>
+ * Plugins are counted under their name at the chosen {@link DetailLevel}. Names recorded with an agent label,
+ * as in <tt>#2 org.eclipse.ui</tt>, are counted without it, so the agents are merged. The memory used depends on
+ * the number of plugins, edges and jobs, not on the length of the stream. Aggregators of different time ranges
+ * are combined with {@link #merge(Aggregator)}.
+ */
+class Aggregator implements EventHandler {
+	DetailLevel level;
+	String streamNames[] = new String[256];
+	int streamIndices[] = new int[256];	// the plugin index for each plugin ID of the stream, or -1
+	ArrayList<String> names = new ArrayList<String>();
+	HashMap<String,Integer> indices = new HashMap<String,Integer>();
+	CallCounts calls = new CallCounts();
+	HashMap<String,JobTimes> jobs = new HashMap<String,JobTimes>();
+	long events;
+
+	/**
+	 * The durations of the runs of one job.
+	 */
+	static class JobTimes {
+		Histogram durations = new Histogram();
+		long max;
+
+		void add(long nanos) {
+			durations.record(nanos);
+			max = Math.max(max, nanos);
+		}
+
+		void merge(JobTimes other) {
+			other.durations.addTo(durations);
+			max = Math.max(max, other.max);
+		}
+	}
+
+	Aggregator(DetailLevel level) {
+		this.level = level;
+		Arrays.fill(streamIndices, -1);
+	}
+
+	/**
+	 * Returns the index of a plugin, as shown at the detail level of this aggregator.
+	 */
+	int getIndex(String name) {
+		Integer index = indices.get(name);
+		if (index == null) {
+			index = names.size();
+			names.add(name);
+			indices.put(name, index);
+		}
+		return index;
+	}
+
+	int getStreamIndex(int pluginId) {
+		if (pluginId >= streamIndices.length) return -1;
+		int index = streamIndices[pluginId];
+		if (index == -1 && streamNames[pluginId] != null) {
+			String name = strip(streamNames[pluginId]);
+			if (level != DetailLevel.FRAGMENT) {
+				synchronized (PluginRegistry.class) {	// it adds unknown plugins to its maps
+					name = PluginRegistry.mapToDetailLevel(name, level);
+				}
+			}
+			index = streamIndices[pluginId] = getIndex(name);
+		}
+		return index;
+	}
+
+	@Override
+	public void pluginName(int pluginId, String name) {
+		if (pluginId >= streamNames.length) {
+			int oldLength = streamNames.length;
+			int length = Math.max(2 * oldLength, pluginId + 1);
+			streamNames = Arrays.copyOf(streamNames, length);
+			streamIndices = Arrays.copyOf(streamIndices, length);
+			Arrays.fill(streamIndices, oldLength, length, -1);
+		}
+		if (name.equals(streamNames[pluginId])) return;	// each chunk of a recording repeats its names
+		streamNames[pluginId] = name;
+		streamIndices[pluginId] = -1;
+	}
+
+	@Override
+	public void methodName(int methodId, String name) {
+	}
+
+	@Override
+	public void pluginCall(int fromPluginId, int toPluginId, int threadId, long time) {
+		pluginCalls(fromPluginId, toPluginId, 1, time);
+	}
+
+	@Override
+	public void pluginCalls(int fromPluginId, int toPluginId, int count, long time) {
+		events++;
+		int from = getStreamIndex(fromPluginId);
+		int to = getStreamIndex(toPluginId);
+		if (from == -1 || to == -1) return;
+		calls.add(from, to, count);
+	}
+
+	/**
+	 * Counts the finished job runs. See cacophonia.runtime.JobStatistics for the format.
+	 */
+	@Override
+	public void message(int type, String message, long time) {
+		events++;
+		if (type != Constants.EVENT_JOB) return;
+		String fields[] = message.split("\t");
+		if (fields.length < 4) return;
+		try {
+			jobs.computeIfAbsent(fields[0], name -> new JobTimes()).add(Long.parseLong(fields[3]));
+		} catch (NumberFormatException e) {
+			// not a job record
+		}
+	}
+
+	/**
+	 * Adds the counts of another aggregator to this one.
+	 */
+	void merge(Aggregator other) {
+		int mapping[] = new int[other.names.size()];
+		for (int n=0; n<mapping.length; n++) {
+			mapping[n] = getIndex(other.names.get(n));
+		}
+		other.calls.forEach((from, to, count) -> calls.add(mapping[from], mapping[to], count));
+		other.jobs.forEach((name, times) -> jobs.computeIfAbsent(name, key -> new JobTimes()).merge(times));
+		events += other.events;
+	}
+
+	/**
+	 * Returns the name without the agent label added by the UI, see cacophonia.ui.Agent.
+	 */
+	static String strip(String name) {
+		int space = name.indexOf(' ');
+		if (!name.startsWith("#") || space == -1) return name;
+		for (int n=1; n<space; n++) {
+			if (!Character.isDigit(name.charAt(n))) return name;
+		}
+		return name.substring(space + 1);
+	}
+}
@@ -0,0 +1,231 @@
+package cacophonia.analysis;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import cacophonia.Constants;
+import cacophonia.DetailLevel;
+import cacophonia.protocol.EventDecoder;
+import cacophonia.protocol.EventHandler;
+import cacophonia.protocol.MappedRing;
+import cacophonia.protocol.Protocol;
+import cacophonia.protocol.RecordingReader;
+import cacophonia.protocol.RecordingWriter;
+
+/**
+ * Analyzes a recording, or the stream of a live agent, without a UI:
+ * <pre>
+ * java -cp cacophonia.jar cacophonia.analysis.Analyzer [level=feature|plugin|fragment] [tables=matrix,edges,jobs]
+ *     [top=20] [format=csv|json] [threads=8] [duration=60] (~/.cacophonia/recordings/20201018-101500 | live)
+ * </pre>
+ * It writes the plugin-to-plugin call matrix, the edges with the most calls, and the durations of the Eclipse
+ * jobs, to standard output. The events are added up as they are decoded, so memory does not grow with the
+ * length of the recording. A recording is split into time ranges that are analyzed in parallel and then merged.
+ * <p>
+ * With <tt>live</tt>, the analyzer takes the place of the UI and waits for an agent to connect. It analyzes the
+ * agent's events until the agent goes away or <tt>duration</tt> seconds have passed.
+ */
+public class Analyzer {
+	static final int PORT = 6666;
+	static final int PARTITIONS_PER_THREAD = 4;
+
+	DetailLevel level = DetailLevel.FEATURE;
+	List<String> tables = Arrays.asList(Report.EDGES, Report.JOBS);
+	int top = 20;
+	String format = "csv";
+	int threads = Runtime.getRuntime().availableProcessors();
+	long duration;	// in seconds, 0 for as long as the agent runs
+
+	public static void main(String args[]) throws Exception {
+		Analyzer analyzer = new Analyzer();
+		String source = null;
+		try {
+			for (String arg : args) {
+				String nameValue[] = arg.split("=", 2);
+				if (nameValue.length == 2) {
+					analyzer.set(nameValue[0].trim(), nameValue[1].trim());
+				} else {
+					source = arg;
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			source = null;
+		}
+		if (source == null) {
+			System.err.println("Usage: Analyzer [level=feature|plugin|fragment] [tables=matrix,edges,jobs] [top=20] " +
+					"[format=csv|json] [threads=N] [duration=seconds] (recordingDirectory | live)");
+			System.exit(1);
+		}
+		Aggregator aggregator = source.equals("live") ? analyzer.analyzeLive() : analyzer.analyzeRecording(new File(source));
+		analyzer.write(aggregator, System.out);
+	}
+
+	void set(String name, String value) {
+		switch (name) {
+		case "level":
+			level = DetailLevel.valueOf(value.toUpperCase());
+			break;
+		case "tables":
+			tables = Arrays.asList(value.split(","));
+			for (String table : tables) {
+				if (!Arrays.asList(Report.MATRIX, Report.EDGES, Report.JOBS).contains(table)) {
+					throw new IllegalArgumentException("Unknown table " + table);
+				}
+			}
+			break;
+		case "top":
+			top = Integer.parseInt(value);
+			break;
+		case "format":
+			if (!value.equals("csv") && !value.equals("json")) throw new IllegalArgumentException("Unknown format " + value);
+			format = value;
+			break;
+		case "threads":
+			threads = Math.max(1, Integer.parseInt(value));
+			break;
+		case "duration":
+			duration = Long.parseLong(value);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown option " + name);
+		}
+	}
+
+	void write(Aggregator aggregator, PrintStream out) {
+		Report report = new Report(aggregator, top);
+		if (format.equals("json")) {
+			report.writeJson(out, tables);
+		} else {
+			report.writeCsv(out, tables);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Analyzes the time ranges of the recording on {@link #threads} threads. There are more ranges than threads,
+	 * so a busy range does not hold up the others. The ranges are merged in order, as they finish.
+	 */
+	Aggregator analyzeRecording(File directory) throws IOException, InterruptedException {
+		RecordingReader reader = new RecordingReader(directory);
+		long start = reader.getStartTime();
+		if (start == -1) throw new IOException("Nothing recorded in " + directory);
+		long end = reader.getLastChunkTime() + RecordingWriter.CHUNK_INTERVAL;
+		int partitions = (int)Math.max(1, Math.min(threads * PARTITIONS_PER_THREAD, (end - start) / RecordingWriter.CHUNK_INTERVAL));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Aggregator>> results = new ArrayList<Future<Aggregator>>();
+			for (int n=0; n<partitions; n++) {
+				long from = start + (end - start) * n / partitions;
+				long to = n == partitions - 1 ? end : start + (end - start) * (n + 1) / partitions;
+				results.add(executor.submit(() -> {
+					Aggregator aggregator = new Aggregator(level);
+					new RecordingReader(directory).read(from, to, aggregator);
+					return aggregator;
+				}));
+			}
+			Aggregator total = new Aggregator(level);
+			for (Future<Aggregator> result : results) {
+				total.merge(result.get());
+			}
+			return total;
+		} catch (ExecutionException e) {
+			throw new IOException("Cannot analyze " + directory, e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits for an agent and analyzes its stream, and its ring when it uses the shm transport.
+	 */
+	Aggregator analyzeLive() throws IOException, InterruptedException {
+		Aggregator aggregator = new Aggregator(level);
+		try (ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.bind(new InetSocketAddress("localhost", PORT));
+			System.err.println("Waiting for an agent on port " + PORT);
+			try (SocketChannel channel = server.accept()) {
+				System.err.println("Analyzing the agent at " + channel.getRemoteAddress());
+				new LiveStream(aggregator).read(channel);
+			}
+		}
+		return aggregator;
+	}
+
+	class LiveStream implements EventHandler {
+		Aggregator aggregator;
+		EventDecoder decoder = new EventDecoder(this);
+		MappedRing ring;
+		EventDecoder ringDecoder;
+
+		LiveStream(Aggregator aggregator) {
+			this.aggregator = aggregator;
+		}
+
+		void read(SocketChannel channel) throws IOException, InterruptedException {
+			channel.configureBlocking(false);
+			ByteBuffer pending = ByteBuffer.allocate(2 * Protocol.BUFFER_SIZE);
+			ByteBuffer ringPending = ByteBuffer.allocate(2 * Protocol.BUFFER_SIZE);
+			long deadline = duration == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + 1000 * duration;
+			while (System.currentTimeMillis() < deadline) {
+				int count = channel.read(pending);
+				if (count == -1) break;
+				pending.flip();
+				decoder.decode(pending);
+				pending.compact();
+				if (ring != null && ring.read(ringPending) > 0) {
+					count++;
+					ringPending.flip();
+					ringDecoder.decode(ringPending);
+					ringPending.compact();
+				}
+				if (count == 0) Thread.sleep(1);
+			}
+			while (ring != null && ring.read(ringPending) > 0) {
+				ringPending.flip();
+				ringDecoder.decode(ringPending);
+				ringPending.compact();
+			}
+		}
+
+		public void pluginName(int pluginId, String name) {
+			aggregator.pluginName(pluginId, name);
+		}
+
+		public void methodName(int methodId, String name) {
+		}
+
+		public void pluginCall(int fromPluginId, int toPluginId, int threadId, long time) {
+			aggregator.pluginCall(fromPluginId, toPluginId, threadId, time);
+		}
+
+		public void pluginCalls(int fromPluginId, int toPluginId, int count, long time) {
+			aggregator.pluginCalls(fromPluginId, toPluginId, count, time);
+		}
+
+		public void message(int type, String message, long time) {
+			if (type != Constants.EVENT_TRANSPORT) {
+				aggregator.message(type, message, time);
+				return;
+			}
+			try {
+				ring = MappedRing.open(new File(message));
+				ringDecoder = new EventDecoder(this);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package cacophonia.analysis;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+import cacophonia.Constants;
+import cacophonia.DetailLevel;
+import cacophonia.protocol.RecordingWriter;
+
+
+class AnalyzerTest {
+	static final long START = 1600000000000000L;	// in epoch microseconds
+
+	/**
+	 * Records 100 seconds of two agents calling between three plugins, and a job run every 10 seconds.
+	 */
+	File record() throws IOException {
+		File directory = Files.createTempDirectory("recording").toFile();
+		directory.deleteOnExit();
+		RecordingWriter writer = new RecordingWriter(directory, 1024 * 1024, 100 * 1024 * 1024);
+		writer.start();
+		int ui1 = writer.getPluginId("#1 org.eclipse.ui");
+		int jdt1 = writer.getPluginId("#1 org.eclipse.jdt.core");
+		int ui2 = writer.getPluginId("#2 org.eclipse.ui");
+		int resources2 = writer.getPluginId("#2 org.eclipse.core.resources");
+		for (int n=0; n<1000; n++) {
+			long time = START + n * 100000;
+			writer.pluginCall(ui1, jdt1, 1, time);
+			writer.pluginCalls(ui2, resources2, 3, time);
+			if (n % 100 == 0) {
+				writer.message(Constants.EVENT_JOB, String.format("Build\tBuildJob\t0\t%d\t1\t0\t0\t0\t0\t0", (n / 100 + 1) * 1000000), time);
+			}
+			if (n % 10 == 9) {
+				try {
+					Thread.sleep(1);	// a recording comes in at about one chunk per second, not all at once
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+		}
+		writer.close();
+		return directory;
+	}
+
+	String analyze(File directory, String... options) throws Exception {
+		Analyzer analyzer = new Analyzer();
+		analyzer.set("level", "fragment");
+		for (String option : options) {
+			String nameValue[] = option.split("=");
+			analyzer.set(nameValue[0], nameValue[1]);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		analyzer.write(analyzer.analyzeRecording(directory), new PrintStream(bytes, true, "UTF-8"));
+		return bytes.toString("UTF-8");
+	}
+
+	@Test
+	void test_edges_and_jobs_are_counted_over_the_whole_recording() throws Exception {
+		String report = analyze(record(), "threads=1");
+		assertEquals(String.join("\n",
+				"from,to,calls",
+				"org.eclipse.ui,org.eclipse.core.resources,3000",
+				"org.eclipse.ui,org.eclipse.jdt.core,1000",
+				"",
+				"job,runs,total_ns,mean_ns,p50_ns,p90_ns,p99_ns,max_ns",
+				""), report.substring(0, report.indexOf("Build")).replace("\r", ""));
+		String job[] = report.substring(report.indexOf("Build")).trim().split(",");
+		assertEquals("10", job[1]);
+		assertEquals("55000000", job[2]);
+		assertEquals("10000000", job[7]);
+	}
+
+	@Test
+	void test_time_ranges_analyzed_in_parallel_add_up_to_the_same_report() throws Exception {
+		File directory = record();
+		String single = analyze(directory, "threads=1", "tables=matrix,edges,jobs");
+		assertEquals(single, analyze(directory, "threads=4", "tables=matrix,edges,jobs"));
+		assertEquals(single, analyze(directory, "threads=16", "tables=matrix,edges,jobs"));
+	}
+
+	@Test
+	void test_json_holds_the_matrix() throws Exception {
+		String report = analyze(record(), "format=json", "tables=matrix", "threads=2");
+		assertTrue(report.contains("\"plugins\": [\"org.eclipse.core.resources\", \"org.eclipse.jdt.core\", \"org.eclipse.ui\"]"), report);
+		assertTrue(report.contains("[3000, 1000, 0]"), report);
+		assertTrue(report.contains("\"events\": 2010"), report);
+	}
+
+	@Test
+	void test_call_counts_grow_past_their_capacity() {
+		CallCounts counts = new CallCounts(4);
+		for (int from=0; from<100; from++) {
+			for (int to=0; to<10; to++) {
+				counts.add(from, to, from + to);
+			}
+		}
+		counts.add(7, 3, 5);
+		assertEquals(1000, counts.size());
+		assertEquals(15, counts.get(7, 3));
+		assertEquals(0, counts.get(100, 0));
+		long total[] = { 0 };
+		counts.forEach((from, to, count) -> total[0] += count);
+		assertEquals(100 * 10 * (99 + 9) / 2 + 5, total[0]);
+	}
+
+	@Test
+	void test_agent_labels_are_stripped() {
+		assertEquals("org.eclipse.ui", Aggregator.strip("#12 org.eclipse.ui"));
+		assertEquals("#x org.eclipse.ui", Aggregator.strip("#x org.eclipse.ui"));
+		assertEquals("org.eclipse.ui", Aggregator.strip("org.eclipse.ui"));
+		Aggregator aggregator = new Aggregator(DetailLevel.FRAGMENT);
+		aggregator.pluginName(300, "#1 org.eclipse.ui");
+		aggregator.pluginName(2, "#2 org.eclipse.ui");
+		aggregator.pluginCall(300, 2, 1, 0);
+		assertEquals(1, aggregator.names.size());
+	}
+}
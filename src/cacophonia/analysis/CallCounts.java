@@ -0,0 +1,90 @@
+package cacophonia.analysis;
+
+import java.util.Arrays;
+
+/**
+ * Counts calls per (from, to) pair of plugin indices, in an open-addressing table of primitive longs that
+ * doubles when it is half full. Its size depends on the number of distinct pairs, not on the number of calls.
+ * Used by one thread at a time.
+ */
+class CallCounts {
+	static final long EMPTY = -1;
+
+	long pairs[];	// (from << 32 | to), or EMPTY
+	long counts[];
+	int size;
+
+	interface Consumer {
+		void accept(int from, int to, long count);
+	}
+
+	CallCounts() {
+		this(64);
+	}
+
+	CallCounts(int capacity) {
+		int length = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		pairs = new long[length];
+		counts = new long[length];
+		Arrays.fill(pairs, EMPTY);
+	}
+
+	void add(int from, int to, long count) {
+		long pair = ((long)from << 32) | (to & 0xFFFFFFFFL);
+		int mask = pairs.length - 1;
+		int slot = hash(pair) & mask;
+		while (pairs[slot] != pair) {
+			if (pairs[slot] == EMPTY) {
+				if (2 * (size + 1) > pairs.length) {
+					grow();
+					add(from, to, count);
+					return;
+				}
+				pairs[slot] = pair;
+				size++;
+				break;
+			}
+			slot = (slot + 1) & mask;
+		}
+		counts[slot] += count;
+	}
+
+	long get(int from, int to) {
+		long pair = ((long)from << 32) | (to & 0xFFFFFFFFL);
+		int mask = pairs.length - 1;
+		for (int slot = hash(pair) & mask; pairs[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if (pairs[slot] == pair) return counts[slot];
+		}
+		return 0;
+	}
+
+	void forEach(Consumer consumer) {
+		for (int slot=0; slot<pairs.length; slot++) {
+			if (pairs[slot] != EMPTY) {
+				consumer.accept((int)(pairs[slot] >>> 32), (int)pairs[slot], counts[slot]);
+			}
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	void grow() {
+		long oldPairs[] = pairs;
+		long oldCounts[] = counts;
+		CallCounts grown = new CallCounts(2 * oldPairs.length);
+		for (int slot=0; slot<oldPairs.length; slot++) {
+			if (oldPairs[slot] != EMPTY) {
+				grown.add((int)(oldPairs[slot] >>> 32), (int)oldPairs[slot], oldCounts[slot]);
+			}
+		}
+		pairs = grown.pairs;
+		counts = grown.counts;
+	}
+
+	static int hash(long pair) {
+		long h = pair * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+}
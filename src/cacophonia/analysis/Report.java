@@ -0,0 +1,184 @@
+package cacophonia.analysis;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import cacophonia.analysis.Aggregator.JobTimes;
+
+/**
+ * Writes the call matrix, the top edges and the job table of an {@link Aggregator} as CSV or JSON.
+ * <p>
+ * In CSV, each table starts with a header line, and tables are separated by an empty line. In JSON, the
+ * tables are the fields of one object. Durations are in nanoseconds.
+ */
+class Report {
+	static final String MATRIX = "matrix", EDGES = "edges", JOBS = "jobs";
+
+	Aggregator aggregator;
+	int top;
+
+	static class Edge {
+		String from, to;
+		long calls;
+
+		Edge(String from, String to, long calls) {
+			this.from = from;
+			this.to = to;
+			this.calls = calls;
+		}
+	}
+
+	Report(Aggregator aggregator, int top) {
+		this.aggregator = aggregator;
+		this.top = top;
+	}
+
+	List<String> getPlugins() {
+		return aggregator.names.stream().sorted().collect(Collectors.toList());
+	}
+
+	/**
+	 * Returns the edges with the most calls, at most {@link #top} of them.
+	 */
+	List<Edge> getTopEdges() {
+		List<Edge> edges = new ArrayList<Edge>();
+		aggregator.calls.forEach((from, to, count) -> edges.add(new Edge(aggregator.names.get(from), aggregator.names.get(to), count)));
+		edges.sort(Comparator.comparingLong((Edge edge) -> -edge.calls).thenComparing(edge -> edge.from).thenComparing(edge -> edge.to));
+		return edges.subList(0, Math.min(top, edges.size()));
+	}
+
+	/**
+	 * Returns the jobs by their total duration, longest first.
+	 */
+	List<Map.Entry<String,JobTimes>> getJobs() {
+		return aggregator.jobs.entrySet().stream()
+			.sorted(Comparator.comparingLong((Map.Entry<String,JobTimes> job) -> -job.getValue().durations.sum()).thenComparing(Map.Entry::getKey))
+			.collect(Collectors.toList());
+	}
+
+	long[] getJobFields(JobTimes times) {
+		long runs = times.durations.count();
+		return new long[] {
+			runs,
+			times.durations.sum(),
+			runs == 0 ? 0 : times.durations.sum() / runs,
+			times.durations.percentile(50),
+			times.durations.percentile(90),
+			times.durations.percentile(99),
+			times.max
+		};
+	}
+
+	void writeCsv(PrintStream out, List<String> tables) {
+		boolean first = true;
+		for (String table : tables) {
+			if (!first) out.println();
+			first = false;
+			switch (table) {
+			case MATRIX:
+				List<String> plugins = getPlugins();
+				StringBuilder header = new StringBuilder("from\\to");
+				for (String plugin : plugins) header.append(',').append(quote(plugin));
+				out.println(header);
+				for (String from : plugins) {
+					StringBuilder row = new StringBuilder(quote(from));
+					int fromIndex = aggregator.indices.get(from);
+					for (String to : plugins) {
+						row.append(',').append(aggregator.calls.get(fromIndex, aggregator.indices.get(to)));
+					}
+					out.println(row);
+				}
+				break;
+			case EDGES:
+				out.println("from,to,calls");
+				for (Edge edge : getTopEdges()) {
+					out.println(quote(edge.from) + "," + quote(edge.to) + "," + edge.calls);
+				}
+				break;
+			case JOBS:
+				out.println("job,runs,total_ns,mean_ns,p50_ns,p90_ns,p99_ns,max_ns");
+				for (Map.Entry<String,JobTimes> job : getJobs()) {
+					StringBuilder row = new StringBuilder(quote(job.getKey()));
+					for (long field : getJobFields(job.getValue())) row.append(',').append(field);
+					out.println(row);
+				}
+				break;
+			}
+		}
+	}
+
+	void writeJson(PrintStream out, List<String> tables) {
+		out.println("{");
+		out.print("  \"level\": " + json(aggregator.level.name().toLowerCase()) + ",\n  \"events\": " + aggregator.events);
+		for (String table : tables) {
+			out.println(",");
+			switch (table) {
+			case MATRIX:
+				List<String> plugins = getPlugins();
+				out.println("  \"plugins\": [" + plugins.stream().map(Report::json).collect(Collectors.joining(", ")) + "],");
+				out.println("  \"matrix\": [");
+				for (int row=0; row<plugins.size(); row++) {
+					int fromIndex = aggregator.indices.get(plugins.get(row));
+					List<String> counts = new ArrayList<String>();
+					for (String to : plugins) {
+						counts.add(Long.toString(aggregator.calls.get(fromIndex, aggregator.indices.get(to))));
+					}
+					out.println("    [" + String.join(", ", counts) + "]" + (row < plugins.size() - 1 ? "," : ""));
+				}
+				out.print("  ]");
+				break;
+			case EDGES:
+				out.println("  \"edges\": [");
+				List<Edge> edges = getTopEdges();
+				for (int n=0; n<edges.size(); n++) {
+					Edge edge = edges.get(n);
+					out.println(String.format("    {\"from\": %s, \"to\": %s, \"calls\": %d}%s",
+							json(edge.from), json(edge.to), edge.calls, n < edges.size() - 1 ? "," : ""));
+				}
+				out.print("  ]");
+				break;
+			case JOBS:
+				out.println("  \"jobs\": [");
+				List<Map.Entry<String,JobTimes>> jobs = getJobs();
+				for (int n=0; n<jobs.size(); n++) {
+					long fields[] = getJobFields(jobs.get(n).getValue());
+					out.println(String.format("    {\"job\": %s, \"runs\": %d, \"totalNanos\": %d, \"meanNanos\": %d, " +
+							"\"p50Nanos\": %d, \"p90Nanos\": %d, \"p99Nanos\": %d, \"maxNanos\": %d}%s",
+							json(jobs.get(n).getKey()), fields[0], fields[1], fields[2], fields[3], fields[4], fields[5], fields[6],
+							n < jobs.size() - 1 ? "," : ""));
+				}
+				out.print("  ]");
+				break;
+			}
+		}
+		out.println("\n}");
+	}
+
+	static String quote(String value) {
+		if (value.indexOf(',') == -1 && value.indexOf('"') == -1 && value.indexOf('\n') == -1) return value;
+		return "\"" + value.replace("\"", "\"\"") + "\"";
+	}
+
+	static String json(String value) {
+		StringBuilder result = new StringBuilder("\"");
+		for (char c : value.toCharArray()) {
+			switch (c) {
+			case '"': result.append("\\\""); break;
+			case '\\': result.append("\\\\"); break;
+			case '\n': result.append("\\n"); break;
+			case '\t': result.append("\\t"); break;
+			default:
+				if (c < ' ') {
+					result.append(String.format("\\u%04x", (int)c));
+				} else {
+					result.append(c);
+				}
+			}
+		}
+		return result.append('"').toString();
+	}
+}
@@ -0,0 +1,134 @@
+package cacophonia.protocol;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import cacophonia.Constants;
+
+
+class EventCodecTest {
+	ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+	EventEncoder encoder = new EventEncoder(Channels.newChannel(bytes));
+	List<String> events = new ArrayList<String>();
+	EventDecoder decoder = new EventDecoder(new EventHandler() {
+		public void pluginName(int pluginId, String name) {
+			events.add("plugin " + pluginId + " " + name);
+		}
+		public void methodName(int methodId, String name) {
+			events.add("method " + methodId + " " + name);
+		}
+		public void pluginCall(int fromPluginId, int toPluginId, int threadId, long time) {
+			events.add("call " + fromPluginId + " " + toPluginId + " " + threadId + " " + time);
+		}
+		public void message(int type, String message, long time) {
+			events.add("message " + type + " " + message + " " + time);
+		}
+	});
+
+	void encodeSample() throws Exception {
+		encoder.writeHeader(0);
+		encoder.writePluginName(1, "org.eclipse.ui");
+		encoder.writePluginName(2, "org.eclipse.core.jobs");
+		encoder.writeMethodName(7, "org.eclipse.ui.Foo.bar()");
+		encoder.writePluginCall(1, 2, 42, 5000);
+		encoder.writePluginCall(2, 1, 43, 3000);
+		encoder.writeMessage(Constants.EVENT_JOB, "job é", 9000);
+		encoder.flush();
+	}
+
+	List<String> expected() {
+		return List.of(
+			"plugin 1 org.eclipse.ui",
+			"plugin 2 org.eclipse.core.jobs",
+			"method 7 org.eclipse.ui.Foo.bar()",
+			"call 1 2 42 5",
+			"call 2 1 43 3",
+			"message " + Constants.EVENT_JOB + " job é 9"
+		);
+	}
+
+	@Test
+	void test_round_trip() throws Exception {
+		encodeSample();
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		decoder.decode(buffer);
+		assertFalse(buffer.hasRemaining());
+		assertEquals(expected(), events);
+	}
+
+	@Test
+	void test_partial_records_are_kept() throws Exception {
+		encodeSample();
+		byte encoded[] = bytes.toByteArray();
+		ByteBuffer buffer = ByteBuffer.allocate(encoded.length);
+		for (byte b : encoded) {
+			buffer.put(b);
+			buffer.flip();
+			decoder.decode(buffer);
+			buffer.compact();
+		}
+		assertEquals(expected(), events);
+	}
+
+	@Test
+	void test_plugin_call_is_fixed_size() throws Exception {
+		encoder.writeHeader(0);
+		encoder.writePluginCall(1, 2, 3, 0);
+		encoder.flush();
+		assertEquals(Protocol.HEADER_SIZE + Protocol.PLUGIN_CALL_SIZE, bytes.size());
+	}
+
+	@Test
+	void test_names_are_remembered() throws Exception {
+		encoder.writeHeader(0);
+		assertFalse(encoder.isPluginDefined(1000));
+		encoder.writePluginName(1000, "x");
+		assertTrue(encoder.isPluginDefined(1000));
+		encoder.writeHeader(0);
+		assertFalse(encoder.isPluginDefined(1000));
+	}
+
+	@Test
+	void test_large_time_gap() throws Exception {
+		encoder.writeHeader(0);
+		long hour = 3600L * 1000 * 1000 * 1000;
+		encoder.writePluginCall(1, 2, 3, hour);
+		encoder.writePluginCall(1, 2, 3, hour + 1000);
+		encoder.flush();
+		decoder.decode(ByteBuffer.wrap(bytes.toByteArray()));
+		assertEquals(List.of("call 1 2 3 3600000000", "call 1 2 3 3600000001"), events);
+	}
+
+	@Test
+	void test_unknown_message_types_are_skipped() throws Exception {
+		encoder.writeHeader(0);
+		encoder.writePluginCall(1, 2, 3, 1000);
+		encoder.writeMessage(99, "from a newer agent", 5000);
+		encoder.writePluginCall(2, 1, 3, 6000);
+		encoder.flush();
+		ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+		decoder.decode(buffer);
+		assertFalse(buffer.hasRemaining());
+		assertEquals(List.of("call 1 2 3 1", "call 2 1 3 6"), events);
+	}
+
+	@Test
+	void test_rejects_newer_versions() {
+		ByteBuffer header = ByteBuffer.allocate(Protocol.HEADER_SIZE);
+		header.putInt(Protocol.MAGIC).putShort((short)(Protocol.VERSION + 1)).putLong(0).flip();
+		assertThrows(IOException.class, () -> decoder.decode(header));
+	}
+
+	@Test
+	void test_rejects_other_streams() {
+		assertThrows(IOException.class, () -> decoder.decode(ByteBuffer.wrap(new byte[Protocol.HEADER_SIZE])));
+	}
+}
@@ -0,0 +1,139 @@
+package cacophonia.protocol;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import cacophonia.Constants;
+
+/**
+ * Reads events in the Cacophonia binary protocol and passes them to an {@link EventHandler}.
+ * <p>
+ * Decoding is incremental: {@link #decode(ByteBuffer)} handles all complete records in a buffer and leaves
+ * a partial record in place, so the same decoder works for blocking streams and non-blocking channels.
+ * Plugin calls are decoded into primitive fields only. Strings are created for dictionary entries and the
+ * rare message events. Message types that this version does not know are skipped, see {@link Protocol}.
+ */
+public class EventDecoder {
+	EventHandler handler;
+	boolean headerRead;
+	short version;
+	long startMillis;
+	long time;
+
+	public EventDecoder(EventHandler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * Reads the stream until it ends.
+	 */
+	public void decode(InputStream input) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(Protocol.BUFFER_SIZE);
+		while (true) {
+			int count = input.read(buffer.array(), buffer.position(), buffer.remaining());
+			if (count == -1) throw new EOFException("Cacophonia event stream closed");
+			buffer.position(buffer.position() + count);
+			buffer.flip();
+			decode(buffer);
+			buffer.compact();
+		}
+	}
+
+	/**
+	 * Decodes all complete records from the buffer. The buffer's position is left at the first undecoded byte.
+	 */
+	public void decode(ByteBuffer buffer) throws IOException {
+		if (!headerRead) {
+			if (buffer.remaining() < Protocol.HEADER_SIZE) return;
+			if (buffer.getInt() != Protocol.MAGIC) throw new IOException("Not a Cacophonia event stream");
+			version = buffer.getShort();
+			if (version < 1 || version > Protocol.VERSION) throw new IOException("Unsupported Cacophonia protocol version " + version);
+			startMillis = buffer.getLong();
+			headerRead = true;
+		}
+		while (buffer.hasRemaining()) {
+			buffer.mark();
+			if (!decodeRecord(buffer)) {
+				buffer.reset();
+				return;
+			}
+		}
+	}
+
+	boolean decodeRecord(ByteBuffer buffer) throws IOException {
+		int type = buffer.get();
+		switch (type) {
+		case Constants.EVENT_PLUGIN_TO_PLUGIN_CALL:
+			if (buffer.remaining() < Protocol.PLUGIN_CALL_SIZE - 1) return false;
+			time += buffer.getInt();
+			handler.pluginCall(buffer.getInt(), buffer.getInt(), buffer.getInt(), time);
+			return true;
+		case Constants.EVENT_PLUGIN_TO_PLUGIN_CALLS:
+			if (buffer.remaining() < Protocol.PLUGIN_CALLS_SIZE - 1) return false;
+			time += buffer.getInt();
+			handler.pluginCalls(buffer.getInt(), buffer.getInt(), buffer.getInt(), time);
+			return true;
+		case Constants.EVENT_TIME:
+			if (buffer.remaining() < Protocol.TIME_SIZE - 1) return false;
+			time = buffer.getLong();
+			return true;
+		case Constants.EVENT_PLUGIN_NAME:
+		case Constants.EVENT_METHOD_NAME:
+			if (buffer.remaining() < 4 + 2) return false;
+			int id = buffer.getInt();
+			String name = getString(buffer);
+			if (name == null) return false;
+			if (type == Constants.EVENT_PLUGIN_NAME) {
+				handler.pluginName(id, name);
+			} else {
+				handler.methodName(id, name);
+			}
+			return true;
+		case Constants.EVENT_STATISTICS:
+		case Constants.EVENT_JOB:
+		case Constants.EVENT_PLUGIN_DETAILS:
+		case Constants.EVENT_GOVERNOR:
+		case Constants.EVENT_LATENCY:
+		case Constants.EVENT_PLUGIN_TIMES:
+		case Constants.EVENT_ALLOCATIONS:
+		case Constants.EVENT_METRICS:
+		case Constants.EVENT_TRANSPORT:
+		case Constants.EVENT_METHOD_CALLS:
+		case Constants.EVENT_HAND_OFFS:
+		case Constants.EVENT_FLAME_GRAPH:
+			if (buffer.remaining() < 4 + 2) return false;
+			int delta = buffer.getInt();
+			String message = getString(buffer);
+			if (message == null) return false;
+			time += delta;
+			handler.message(type, message, time);
+			return true;
+		default:	// a message type added after this reader was written
+			if (buffer.remaining() < 4 + 2) return false;
+			int skippedDelta = buffer.getInt();
+			int length = buffer.getShort() & 0xFFFF;
+			if (buffer.remaining() < length) return false;
+			buffer.position(buffer.position() + length);
+			time += skippedDelta;
+			return true;
+		}
+	}
+
+	String getString(ByteBuffer buffer) {
+		int length = buffer.getShort() & 0xFFFF;
+		if (buffer.remaining() < length) return null;
+		byte bytes[] = new byte[length];
+		buffer.get(bytes);
+		return Protocol.decode(bytes);
+	}
+
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	public long getTime() {
+		return time;
+	}
+}
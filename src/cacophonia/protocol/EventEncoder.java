@@ -0,0 +1,164 @@
+package cacophonia.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import cacophonia.Constants;
+
+/**
+ * Writes events in the Cacophonia binary protocol. See {@link Protocol} for the layout.
+ * <p>
+ * Records are collected in a buffer and written to the channel when the buffer is full or on {@link #flush()}.
+ * The encoder remembers which plugin and method names it sent, so each name goes over the wire only once.
+ */
+public class EventEncoder {
+	WritableByteChannel channel;
+	ByteBuffer buffer;
+	long startNanos;
+	long lastTime;
+	boolean timeLost;
+	boolean pluginDefined[] = new boolean[256];
+	boolean methodDefined[] = new boolean[1024];
+
+	public EventEncoder(WritableByteChannel channel) {
+		this(channel, Protocol.BUFFER_SIZE);
+	}
+
+	public EventEncoder(WritableByteChannel channel, int bufferSize) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+	}
+
+	/**
+	 * Starts a new stream. All times are sent relative to the given {@link System#nanoTime()}.
+	 */
+	public void writeHeader(long startNanos) throws IOException {
+		writeHeader(startNanos, System.currentTimeMillis());
+	}
+
+	/**
+	 * Starts a new stream with the given start time in epoch millis, for streams that are not written live.
+	 */
+	public void writeHeader(long startNanos, long startMillis) throws IOException {
+		this.startNanos = startNanos;
+		this.lastTime = 0;
+		pluginDefined = new boolean[pluginDefined.length];
+		methodDefined = new boolean[methodDefined.length];
+		ensure(Protocol.HEADER_SIZE);
+		buffer.putInt(Protocol.MAGIC);
+		buffer.putShort(Protocol.VERSION);
+		buffer.putLong(startMillis);
+	}
+
+	/**
+	 * Sends the dictionary entries and the absolute time again, after records were lost on the way to the UI.
+	 */
+	public void resync() {
+		pluginDefined = new boolean[pluginDefined.length];
+		methodDefined = new boolean[methodDefined.length];
+		timeLost = true;
+	}
+
+	public boolean isPluginDefined(int pluginId) {
+		return pluginId < pluginDefined.length && pluginDefined[pluginId];
+	}
+
+	public boolean isMethodDefined(int methodId) {
+		return methodId < methodDefined.length && methodDefined[methodId];
+	}
+
+	public void writePluginName(int pluginId, String name) throws IOException {
+		writeName(Constants.EVENT_PLUGIN_NAME, pluginId, name);
+		pluginDefined = define(pluginDefined, pluginId);
+	}
+
+	public void writeMethodName(int methodId, String name) throws IOException {
+		writeName(Constants.EVENT_METHOD_NAME, methodId, name);
+		methodDefined = define(methodDefined, methodId);
+	}
+
+	public void writePluginCall(int fromPluginId, int toPluginId, int threadId, long nanoTime) throws IOException {
+		int delta = getTimeDelta(nanoTime);
+		ensure(Protocol.PLUGIN_CALL_SIZE);
+		buffer.put((byte)Constants.EVENT_PLUGIN_TO_PLUGIN_CALL);
+		buffer.putInt(delta);
+		buffer.putInt(fromPluginId);
+		buffer.putInt(toPluginId);
+		buffer.putInt(threadId);
+	}
+
+	public void writePluginCalls(int fromPluginId, int toPluginId, long count, long nanoTime) throws IOException {
+		int delta = getTimeDelta(nanoTime);
+		ensure(Protocol.PLUGIN_CALLS_SIZE);
+		buffer.put((byte)Constants.EVENT_PLUGIN_TO_PLUGIN_CALLS);
+		buffer.putInt(delta);
+		buffer.putInt(fromPluginId);
+		buffer.putInt(toPluginId);
+		buffer.putInt((int)Math.min(count, Integer.MAX_VALUE));
+	}
+
+	public void writeMessage(int type, String message, long nanoTime) throws IOException {
+		byte bytes[] = Protocol.encode(message);
+		int delta = getTimeDelta(nanoTime);
+		ensure(1 + 4 + 2 + bytes.length);
+		buffer.put((byte)type);
+		buffer.putInt(delta);
+		buffer.putShort((short)bytes.length);
+		buffer.put(bytes);
+	}
+
+	public void flush() throws IOException {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} finally {
+			buffer.clear();	// bytes that did not make it are lost, the owner of the channel resyncs
+		}
+	}
+
+	/**
+	 * Returns the time since the previous record in microseconds. When that does not fit an int, an
+	 * absolute time record is written first.
+	 */
+	int getTimeDelta(long nanoTime) throws IOException {
+		long time = (nanoTime - startNanos) / 1000;
+		long delta = time - lastTime;
+		if (timeLost || delta > Integer.MAX_VALUE || delta < Integer.MIN_VALUE) {
+			ensure(Protocol.TIME_SIZE);
+			buffer.put((byte)Constants.EVENT_TIME);
+			buffer.putLong(time);
+			delta = 0;
+			timeLost = false;
+		}
+		lastTime = time;
+		return (int)delta;
+	}
+
+	void writeName(int type, int id, String name) throws IOException {
+		byte bytes[] = Protocol.encode(name);
+		ensure(1 + 4 + 2 + bytes.length);
+		buffer.put((byte)type);
+		buffer.putInt(id);
+		buffer.putShort((short)bytes.length);
+		buffer.put(bytes);
+	}
+
+	boolean[] define(boolean defined[], int id) {
+		if (id >= defined.length) {
+			boolean grown[] = new boolean[Math.max(2 * defined.length, id + 1)];
+			System.arraycopy(defined, 0, grown, 0, defined.length);
+			defined = grown;
+		}
+		defined[id] = true;
+		return defined;
+	}
+
+	void ensure(int size) throws IOException {
+		if (buffer.remaining() < size) {
+			flush();
+		}
+	}
+}
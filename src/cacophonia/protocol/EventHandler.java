@@ -0,0 +1,28 @@
+package cacophonia.protocol;
+
+/**
+ * Receives the events decoded by an {@link EventDecoder}. 
+ * <p>
+ * Plugins and methods are referred to by their IDs. Their names are passed once, before their first use.
+ * Times are in microseconds since the start of the stream.
+ */
+public interface EventHandler {
+
+	void pluginName(int pluginId, String name);
+
+	void methodName(int methodId, String name);
+
+	void pluginCall(int fromPluginId, int toPluginId, int threadId, long time);
+
+	/**
+	 * Handles the calls between two plugins aggregated by the agent over one time slice.
+	 */
+	default void pluginCalls(int fromPluginId, int toPluginId, int count, long time) {
+	}
+
+	/**
+	 * Handles the events that carry a string, such as {@link cacophonia.Constants#EVENT_METRICS}.
+	 */
+	void message(int type, String message, long time);
+
+}
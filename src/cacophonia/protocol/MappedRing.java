@@ -0,0 +1,196 @@
+package cacophonia.protocol;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A single-producer, single-consumer ring of bytes in a memory-mapped file, shared by the agent and the UI
+ * when they run on the same host. The agent's {@link EventEncoder} writes into it and an {@link EventDecoder}
+ * in the UI polls it, so events do not pass through system calls or socket buffers.
+ * <p>
+ * The file starts with a header of 256 bytes: the magic number, the capacity of the data area, and the two
+ * sequence counters, each on a cache line of its own. The producer only writes the head, the total number of
+ * bytes written, and the consumer only writes the tail, the total number of bytes read. The data area follows
+ * the header. Its capacity is a power of two, so a sequence maps to an offset with a mask.
+ * <p>
+ * The bytes are copied before the head is published with release semantics, and the consumer reads the head
+ * with acquire semantics, so the consumer never sees a sequence before its bytes. Records may wrap around the
+ * end of the data area, {@link EventDecoder} already handles records that arrive in pieces. A buffer of records
+ * is written as a whole or dropped as a whole, so a full ring never leaves a record cut in half.
+ */
+public class MappedRing implements ByteChannel {
+	static final int MAGIC = 0x43524E47; // "CRNG"
+	static final int CAPACITY_OFFSET = 4;
+	static final int HEAD_OFFSET = 64;
+	static final int TAIL_OFFSET = 128;
+	static final int HEADER_SIZE = 256;
+	static final VarHandle SEQUENCE = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	File file;
+	MappedByteBuffer buffer;
+	ByteBuffer data;
+	int capacity;
+	int mask;
+	long cachedHead;	// the producer's own head, or the head the consumer saw last
+	long cachedTail;	// the consumer's own tail, or the tail the producer saw last
+	long writeTimeout = TimeUnit.SECONDS.toNanos(1);
+	boolean open = true;
+	volatile long droppedBytes;	// written by the producer only
+	boolean overflowed;
+
+	MappedRing(File file, MappedByteBuffer buffer, int capacity) {
+		this.file = file;
+		this.buffer = buffer;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		buffer.position(HEADER_SIZE);
+		this.data = buffer.slice();
+		buffer.position(0);
+		cachedHead = (long)SEQUENCE.getAcquire(buffer, HEAD_OFFSET);
+		cachedTail = (long)SEQUENCE.getAcquire(buffer, TAIL_OFFSET);
+	}
+
+	/**
+	 * Creates an empty ring in the given file, replacing what was there. The capacity is rounded up to a power of two.
+	 * An old file is deleted rather than truncated, so a process that still maps it does not crash.
+	 */
+	public static MappedRing create(File file, int capacity) throws IOException {
+		capacity = Math.max(4096, Integer.highestOneBit(capacity - 1) << 1);
+		file.getAbsoluteFile().getParentFile().mkdirs();
+		file.delete();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+			raf.setLength(HEADER_SIZE + capacity);
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+			buffer.putInt(CAPACITY_OFFSET, capacity);
+			SEQUENCE.setRelease(buffer, HEAD_OFFSET, 0L);
+			SEQUENCE.setRelease(buffer, TAIL_OFFSET, 0L);
+			buffer.putInt(0, MAGIC);
+			return new MappedRing(file, buffer, capacity);
+		}
+	}
+
+	/**
+	 * Opens a ring created by another process.
+	 */
+	public static MappedRing open(File file) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, raf.length());
+			if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) throw new IOException("Not a Cacophonia ring: " + file);
+			int capacity = buffer.getInt(CAPACITY_OFFSET);
+			if (Integer.bitCount(capacity) != 1 || HEADER_SIZE + capacity > buffer.capacity()) throw new IOException("Corrupt Cacophonia ring: " + file);
+			return new MappedRing(file, buffer, capacity);
+		}
+	}
+
+	/**
+	 * Copies all bytes into the ring, or none of them, so the consumer never sees part of a record. While the ring
+	 * does not have room for all of them, waits for the consumer. When it does not make room within the write
+	 * timeout, the bytes are dropped and counted, see {@link #takeOverflow()}. Never throws.
+	 */
+	@Override
+	public int write(ByteBuffer source) {
+		int count = source.remaining();
+		long deadline = 0;
+		while (capacity - (int)(cachedHead - cachedTail) < count) {
+			cachedTail = (long)SEQUENCE.getAcquire(buffer, TAIL_OFFSET);
+			if (capacity - (int)(cachedHead - cachedTail) >= count) break;
+			if (deadline == 0) deadline = System.nanoTime() + writeTimeout;
+			if (System.nanoTime() >= deadline) {
+				droppedBytes += count;
+				overflowed = true;
+				source.position(source.limit());
+				return count;
+			}
+			LockSupport.parkNanos(100000);
+		}
+		ByteBuffer window = data.duplicate();
+		int limit = source.limit();
+		while (source.hasRemaining()) {
+			int offset = (int)cachedHead & mask;
+			int length = Math.min(source.remaining(), capacity - offset);
+			window.limit(offset + length).position(offset);
+			source.limit(source.position() + length);
+			window.put(source);
+			source.limit(limit);
+			cachedHead += length;
+		}
+		SEQUENCE.setRelease(buffer, HEAD_OFFSET, cachedHead);
+		return count;
+	}
+
+	/**
+	 * Returns whether bytes were dropped since the previous call. Called by the producer only.
+	 */
+	public boolean takeOverflow() {
+		boolean result = overflowed;
+		overflowed = false;
+		return result;
+	}
+
+	/**
+	 * Returns the number of bytes dropped because the ring was full.
+	 */
+	public long getDroppedBytes() {
+		return droppedBytes;
+	}
+
+	/**
+	 * Copies the available bytes into the target without waiting. Returns 0 when the ring is empty.
+	 */
+	@Override
+	public int read(ByteBuffer target) throws IOException {
+		if (cachedHead == cachedTail) {
+			cachedHead = (long)SEQUENCE.getAcquire(buffer, HEAD_OFFSET);
+		}
+		int count = 0;
+		ByteBuffer window = data.duplicate();
+		while (cachedHead != cachedTail && target.hasRemaining()) {
+			int offset = (int)cachedTail & mask;
+			int length = (int)Math.min(Math.min(cachedHead - cachedTail, target.remaining()), capacity - offset);
+			window.limit(offset + length).position(offset);
+			target.put(window);
+			cachedTail += length;
+			count += length;
+		}
+		if (count > 0) {
+			SEQUENCE.setRelease(buffer, TAIL_OFFSET, cachedTail);
+		}
+		return count;
+	}
+
+	/**
+	 * Sets how long {@link #write(ByteBuffer)} waits for room in a full ring, in nanoseconds. One second by default.
+	 */
+	public void setWriteTimeout(long nanos) {
+		writeTimeout = nanos;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	@Override
+	public boolean isOpen() {
+		return open;
+	}
+
+	@Override
+	public void close() {
+		open = false;
+	}
+}
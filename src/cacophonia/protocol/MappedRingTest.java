@@ -0,0 +1,139 @@
+package cacophonia.protocol;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+
+class MappedRingTest {
+
+	File newFile() throws IOException {
+		File file = Files.createTempDirectory("ring").resolve("events.ring").toFile();
+		file.deleteOnExit();
+		return file;
+	}
+
+	ByteBuffer bytes(int start, int count) {
+		ByteBuffer buffer = ByteBuffer.allocate(count);
+		for (int n=0; n<count; n++) {
+			buffer.put((byte)(start + n));
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	@Test
+	void test_bytes_written_by_the_producer_are_read_by_another_mapping() throws Exception {
+		File file = newFile();
+		MappedRing producer = MappedRing.create(file, 5000);
+		MappedRing consumer = MappedRing.open(file);
+		assertEquals(8192, consumer.getCapacity());
+		assertEquals(0, consumer.read(ByteBuffer.allocate(16)));
+		producer.write(bytes(0, 100));
+		ByteBuffer target = ByteBuffer.allocate(64);
+		assertEquals(64, consumer.read(target));
+		assertEquals(63, target.get(63));
+		target.clear();
+		assertEquals(36, consumer.read(target));
+		assertEquals(64, target.get(0));
+		assertEquals(0, consumer.read(target));
+	}
+
+	@Test
+	void test_records_wrap_around_the_end_of_the_ring() throws Exception {
+		File file = newFile();
+		MappedRing producer = MappedRing.create(file, 4096);
+		MappedRing consumer = MappedRing.open(file);
+		ByteBuffer target = ByteBuffer.allocate(4096);
+		for (int round=0; round<5; round++) {
+			producer.write(bytes(round, 3000));
+			target.clear();
+			assertEquals(3000, consumer.read(target));
+			target.flip();
+			assertEquals(bytes(round, 3000), target);
+		}
+	}
+
+	@Test
+	void test_a_full_ring_drops_whole_buffers_when_nobody_reads() throws Exception {
+		File file = newFile();
+		MappedRing producer = MappedRing.create(file, 4096);
+		producer.setWriteTimeout(0);
+		producer.write(bytes(0, 4090));
+		assertFalse(producer.takeOverflow());
+		ByteBuffer source = bytes(0, 10);
+		assertEquals(10, producer.write(source));
+		assertFalse(source.hasRemaining());
+		assertTrue(producer.takeOverflow());
+		assertFalse(producer.takeOverflow());
+		assertEquals(10, producer.getDroppedBytes());
+		ByteBuffer target = ByteBuffer.allocate(8192);
+		assertEquals(4090, MappedRing.open(file).read(target));
+	}
+
+	@Test
+	void test_a_stream_decodes_after_the_consumer_catches_up_with_a_full_ring() throws Exception {
+		File file = newFile();
+		MappedRing producer = MappedRing.create(file, 4096);
+		producer.setWriteTimeout(0);
+		MappedRing consumer = MappedRing.open(file);
+		EventEncoder encoder = new EventEncoder(producer, 256);
+		List<String> events = new ArrayList<String>();
+		EventDecoder decoder = new EventDecoder(new EventHandler() {
+			public void pluginName(int pluginId, String name) {
+				events.add("plugin " + pluginId + " " + name);
+			}
+			public void methodName(int methodId, String name) {
+			}
+			public void pluginCall(int fromPluginId, int toPluginId, int threadId, long time) {
+				events.add("call " + fromPluginId + " " + toPluginId);
+			}
+			public void message(int type, String message, long time) {
+			}
+		});
+		encoder.writeHeader(System.nanoTime());
+		for (int n=0; n<1000; n++) {	// far more than fits, nobody reads
+			if (producer.takeOverflow()) encoder.resync();
+			if (!encoder.isPluginDefined(1)) encoder.writePluginName(1, "org.eclipse.ui");
+			if (!encoder.isPluginDefined(2)) encoder.writePluginName(2, "org.eclipse.jdt.core");
+			encoder.writePluginCall(1, 2, 7, System.nanoTime());
+		}
+		encoder.flush();
+		assertTrue(producer.getDroppedBytes() > 0);
+		ByteBuffer pending = ByteBuffer.allocate(8192);
+		consumer.read(pending);
+		pending.flip();
+		decoder.decode(pending);
+		pending.compact();
+		for (int n=0; n<10; n++) {	// the consumer caught up
+			if (producer.takeOverflow()) encoder.resync();
+			if (!encoder.isPluginDefined(1)) encoder.writePluginName(1, "org.eclipse.ui");
+			if (!encoder.isPluginDefined(2)) encoder.writePluginName(2, "org.eclipse.jdt.core");
+			encoder.writePluginCall(2, 1, 7, System.nanoTime());
+		}
+		encoder.flush();
+		consumer.read(pending);
+		pending.flip();
+		decoder.decode(pending);
+		assertFalse(pending.hasRemaining());
+		for (String event : events) {
+			assertTrue(event.equals("call 1 2") || event.equals("call 2 1") || event.startsWith("plugin 1 ") || event.startsWith("plugin 2 "), event);
+		}
+		assertEquals(10, events.stream().filter(event -> event.equals("call 2 1")).count());
+		assertEquals("plugin 1 org.eclipse.ui", events.get(0));
+	}
+
+	@Test
+	void test_open_rejects_other_files() throws Exception {
+		File file = newFile();
+		Files.write(file.toPath(), new byte[1024]);
+		assertThrows(IOException.class, () -> MappedRing.open(file));
+	}
+}
@@ -0,0 +1,45 @@
+package cacophonia.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary protocol used to send events from the agent to the UI.
+ * <p>
+ * A stream starts with a header: the magic number, the protocol version, and the start time in epoch millis.
+ * After that, each record starts with a one byte type, one of the <tt>EVENT_*</tt> codes in {@link cacophonia.Constants}:
+ * <ul>
+ * <li> <tt>EVENT_PLUGIN_NAME</tt>, <tt>EVENT_METHOD_NAME</tt>: a dictionary entry with an int ID and a string.
+ * <li> <tt>EVENT_PLUGIN_TO_PLUGIN_CALL</tt>: an int time delta, and the int IDs of the two plugins and the thread.
+ * <li> <tt>EVENT_PLUGIN_TO_PLUGIN_CALLS</tt>: an int time delta, the int IDs of the two plugins, and an int call count.
+ * <li> <tt>EVENT_TIME</tt>: a long absolute time, used when a time delta does not fit an int.
+ * <li> all other types: an int time delta and a string.
+ * </ul>
+ * Times are in microseconds. Strings are sent as a short length followed by UTF-8 bytes. All numbers are big-endian.
+ * <p>
+ * Since every type not listed above has the form of a message, a reader skips message types it does not know, so
+ * new message types do not change the version. The version changes when a record of another form is added or an
+ * existing one changes, and a reader rejects streams of a newer version than its own. Version 2 added
+ * <tt>EVENT_PLUGIN_TO_PLUGIN_CALLS</tt>, and the messages of the types after it.
+ */
+public class Protocol {
+	public static final int MAGIC = 0x4341434F; // "CACO"
+	public static final short VERSION = 2;
+	public static final int HEADER_SIZE = 4 + 2 + 8;
+	public static final int PLUGIN_CALL_SIZE = 1 + 4 + 4 + 4 + 4;
+	public static final int PLUGIN_CALLS_SIZE = 1 + 4 + 4 + 4 + 4;
+	public static final int TIME_SIZE = 1 + 8;
+	public static final int BUFFER_SIZE = 64 * 1024;
+	public static final int MAX_STRING_LENGTH = 16 * 1024;
+
+	public static byte[] encode(String string) {
+		byte bytes[] = string.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length > MAX_STRING_LENGTH) {
+			bytes = string.substring(0, MAX_STRING_LENGTH / 4).getBytes(StandardCharsets.UTF_8);
+		}
+		return bytes;
+	}
+
+	public static String decode(byte bytes[]) {
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
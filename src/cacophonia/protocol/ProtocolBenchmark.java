@@ -0,0 +1,82 @@
+package cacophonia.protocol;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+/**
+ * Compares the throughput and size of plugin call events in the binary protocol with the old protocol,
+ * where each call was sent as a formatted "from to" string with <tt>writeUTF</tt> and split by the UI.
+ */
+public class ProtocolBenchmark {
+	static final int EVENT_COUNT = 5_000_000;
+	static final int PLUGIN_COUNT = 200;
+	static String pluginNames[] = new String[PLUGIN_COUNT];
+	static long checksum;
+
+	public static void main(String[] args) throws IOException {
+		for (int n=0; n<PLUGIN_COUNT; n++) {
+			pluginNames[n] = "org.eclipse.plugin" + n + ".internal";
+		}
+		for (int round=0; round<3; round++) {
+			runStrings();
+			runBinary();
+		}
+	}
+
+	static void runStrings() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		long start = System.nanoTime();
+		for (int n=0; n<EVENT_COUNT; n++) {
+			output.writeInt(6);
+			output.writeUTF(String.format("%s %s", pluginNames[n % PLUGIN_COUNT], pluginNames[(n * 7) % PLUGIN_COUNT]));
+		}
+		output.flush();
+		long encoded = System.nanoTime();
+		DataInputStream input = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		for (int n=0; n<EVENT_COUNT; n++) {
+			input.readInt();
+			String names[] = input.readUTF().split(" ");
+			checksum += names[0].length() + names[1].length();
+		}
+		report("strings", bytes.size(), start, encoded, System.nanoTime());
+	}
+
+	static void runBinary() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		EventEncoder encoder = new EventEncoder(Channels.newChannel(bytes));
+		long start = System.nanoTime();
+		encoder.writeHeader(start);
+		for (int n=0; n<EVENT_COUNT; n++) {
+			int from = n % PLUGIN_COUNT;
+			int to = (n * 7) % PLUGIN_COUNT;
+			if (!encoder.isPluginDefined(from)) encoder.writePluginName(from, pluginNames[from]);
+			if (!encoder.isPluginDefined(to)) encoder.writePluginName(to, pluginNames[to]);
+			encoder.writePluginCall(from, to, 1, start + n);
+		}
+		encoder.flush();
+		long encoded = System.nanoTime();
+		new EventDecoder(new EventHandler() {
+			public void pluginName(int pluginId, String name) { }
+			public void methodName(int methodId, String name) { }
+			public void pluginCall(int fromPluginId, int toPluginId, int threadId, long time) {
+				checksum += fromPluginId + toPluginId;
+			}
+			public void message(int type, String message, long time) { }
+		}).decode(ByteBuffer.wrap(bytes.toByteArray()));
+		report("binary", bytes.size(), start, encoded, System.nanoTime());
+	}
+
+	static void report(String name, long size, long start, long encoded, long decoded) {
+		System.out.println(String.format("%-8s encode=%,12.0f events/s  decode=%,12.0f events/s  size=%5.1f bytes/event",
+				name,
+				EVENT_COUNT / ((encoded - start) / 1e9),
+				EVENT_COUNT / ((decoded - encoded) / 1e9),
+				(double)size / EVENT_COUNT));
+	}
+}
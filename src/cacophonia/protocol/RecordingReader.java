@@ -0,0 +1,205 @@
+package cacophonia.protocol;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads a recording written by a {@link RecordingWriter}, possibly while it is still being written.
+ * <p>
+ * Finding the chunk for a time is a binary search over the segments, by the start time of their first chunk,
+ * followed by a binary search over the index of that segment. From there, the chunks are decoded in order.
+ * Events are passed to the handler with their time in epoch microseconds. Plugin IDs are the same in all
+ * chunks of a recording.
+ */
+public class RecordingReader {
+	File directory;
+
+	/**
+	 * The location of a chunk in the recording.
+	 */
+	public static class Position {
+		public final int segment;
+		public final long entry;
+		public final long start;
+
+		Position(int segment, long entry, long start) {
+			this.segment = segment;
+			this.entry = entry;
+			this.start = start;
+		}
+	}
+
+	public RecordingReader(File directory) {
+		this.directory = directory;
+	}
+
+	File[] getSegments() {
+		File segments[] = directory.listFiles((dir, name) -> name.endsWith(".idx"));
+		if (segments == null) return new File[0];
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	/**
+	 * Returns the start time of the first chunk in epoch microseconds, or -1 when the recording is empty.
+	 */
+	public long getStartTime() throws IOException {
+		for (File segment : getSegments()) {
+			if (getEntryCount(segment) > 0) return readEntry(segment, 0).getLong(0);
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the start time of the last chunk in epoch microseconds, or -1 when the recording is empty.
+	 */
+	public long getLastChunkTime() throws IOException {
+		File segments[] = getSegments();
+		for (int n=segments.length - 1; n>=0; n--) {
+			long count = getEntryCount(segments[n]);
+			if (count > 0) return readEntry(segments[n], count - 1).getLong(0);
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the chunk that holds the given time: the last chunk that starts at or before it, or the first
+	 * chunk when the time is before the start of the recording. Returns null when the recording is empty.
+	 */
+	public Position seek(long micros) throws IOException {
+		File segments[] = getSegments();
+		int low = 0, high = segments.length - 1, found = -1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long start = getEntryCount(segments[middle]) == 0 ? Long.MAX_VALUE : readEntry(segments[middle], 0).getLong(0);
+			if (start <= micros) {
+				found = middle;
+				low = middle + 1;
+			} else {
+				high = middle - 1;
+			}
+		}
+		if (found == -1) {
+			for (int n=0; n<segments.length; n++) {
+				if (getEntryCount(segments[n]) > 0) return new Position(n, 0, readEntry(segments[n], 0).getLong(0));
+			}
+			return null;
+		}
+		File segment = segments[found];
+		long first = 0, last = getEntryCount(segment) - 1, entry = 0;
+		while (first <= last) {
+			long middle = (first + last) >>> 1;
+			if (readEntry(segment, middle).getLong(0) <= micros) {
+				entry = middle;
+				first = middle + 1;
+			} else {
+				last = middle - 1;
+			}
+		}
+		return new Position(found, entry, readEntry(segment, entry).getLong(0));
+	}
+
+	/**
+	 * Passes the events from the given time up to, but not including, the end time to the handler, and returns
+	 * the time of the last event passed, or -1 when there was none.
+	 */
+	public long read(long fromMicros, long toMicros, EventHandler handler) throws IOException {
+		Position position = seek(fromMicros);
+		if (position == null) return -1;
+		File segments[] = getSegments();
+		TimeFilter filter = new TimeFilter(handler, fromMicros, toMicros);
+		long entry = position.entry;
+		for (int n=position.segment; n<segments.length; n++, entry=0) {
+			File index = segments[n];
+			File data = new File(directory, index.getName().replace(".idx", ".bin"));
+			long count = getEntryCount(index);
+			try (FileChannel channel = FileChannel.open(data.toPath(), StandardOpenOption.READ)) {
+				for (; entry<count; entry++) {
+					ByteBuffer indexEntry = readEntry(index, entry);
+					if (indexEntry.getLong(0) >= toMicros) return filter.lastTime;
+					ByteBuffer chunk = ByteBuffer.allocate(indexEntry.getInt(16));
+					while (chunk.hasRemaining()) {
+						if (channel.read(chunk, indexEntry.getLong(8) + chunk.position()) == -1) break;
+					}
+					chunk.flip();
+					filter.decoder = new EventDecoder(filter);
+					filter.decoder.decode(chunk);
+				}
+			} catch (NoSuchFileException e) {
+				// deleted by the writer to stay within the size limit
+			}
+		}
+		return filter.lastTime;
+	}
+
+	long getEntryCount(File index) {
+		return index.length() / RecordingWriter.INDEX_ENTRY_SIZE;
+	}
+
+	ByteBuffer readEntry(File index, long entry) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(RecordingWriter.INDEX_ENTRY_SIZE);
+		try (FileChannel channel = FileChannel.open(index.toPath(), StandardOpenOption.READ)) {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, entry * RecordingWriter.INDEX_ENTRY_SIZE + buffer.position()) == -1) {
+					throw new IOException("Truncated index " + index);
+				}
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Converts the times of a chunk to epoch microseconds and only passes on the events in the time range.
+	 */
+	static class TimeFilter implements EventHandler {
+		EventHandler handler;
+		EventDecoder decoder;
+		long from, to;
+		long lastTime = -1;
+
+		TimeFilter(EventHandler handler, long from, long to) {
+			this.handler = handler;
+			this.from = from;
+			this.to = to;
+		}
+
+		long toMicros(long time) {
+			return decoder.getStartMillis() * 1000 + time;
+		}
+
+		boolean accept(long micros) {
+			if (micros < from || micros >= to) return false;
+			lastTime = micros;
+			return true;
+		}
+
+		public void pluginName(int pluginId, String name) {
+			handler.pluginName(pluginId, name);
+		}
+
+		public void methodName(int methodId, String name) {
+			handler.methodName(methodId, name);
+		}
+
+		public void pluginCall(int fromPluginId, int toPluginId, int threadId, long time) {
+			long micros = toMicros(time);
+			if (accept(micros)) handler.pluginCall(fromPluginId, toPluginId, threadId, micros);
+		}
+
+		public void pluginCalls(int fromPluginId, int toPluginId, int count, long time) {
+			long micros = toMicros(time);
+			if (accept(micros)) handler.pluginCalls(fromPluginId, toPluginId, count, micros);
+		}
+
+		public void message(int type, String message, long time) {
+			long micros = toMicros(time);
+			if (accept(micros)) handler.message(type, message, micros);
+		}
+	}
+}
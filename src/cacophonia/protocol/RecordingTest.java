@@ -0,0 +1,127 @@
+package cacophonia.protocol;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import cacophonia.Constants;
+
+
+class RecordingTest {
+	static final long START = 1600000000123456L;	// in epoch microseconds
+
+	File newDirectory() throws IOException {
+		File directory = Files.createTempDirectory("recording").toFile();
+		directory.deleteOnExit();
+		return directory;
+	}
+
+	static class Events implements EventHandler {
+		HashMap<Integer,String> names = new HashMap<Integer,String>();
+		List<String> calls = new ArrayList<String>();
+		List<Long> times = new ArrayList<Long>();
+
+		public void pluginName(int pluginId, String name) {
+			names.put(pluginId, name);
+		}
+
+		public void methodName(int methodId, String name) {
+		}
+
+		public void pluginCall(int fromPluginId, int toPluginId, int threadId, long time) {
+			calls.add(names.get(fromPluginId) + " -> " + names.get(toPluginId));
+			times.add(time);
+		}
+
+		public void message(int type, String message, long time) {
+			calls.add(message);
+			times.add(time);
+		}
+	}
+
+	/**
+	 * Records one call every 100ms for the given number of seconds.
+	 */
+	void record(RecordingWriter writer, int seconds) throws IOException {
+		int ui = writer.getPluginId("org.eclipse.ui");
+		int jdt = writer.getPluginId("org.eclipse.jdt.core");
+		for (int n=0; n<10 * seconds; n++) {
+			writer.pluginCall(n % 2 == 0 ? ui : jdt, n % 2 == 0 ? jdt : ui, 1, START + n * 100000);
+		}
+	}
+
+	@Test
+	void test_events_are_read_back_with_their_names_and_times() throws Exception {
+		File directory = newDirectory();
+		RecordingWriter writer = new RecordingWriter(directory, 1024 * 1024, 10 * 1024 * 1024);
+		writer.start();
+		record(writer, 5);
+		writer.message(Constants.EVENT_METRICS, "cpu 10", START + 5000000);
+		writer.close();
+
+		RecordingReader reader = new RecordingReader(directory);
+		assertEquals(START, reader.getStartTime());
+		assertEquals(START + 5000000, reader.getLastChunkTime());
+		Events events = new Events();
+		assertEquals(START + 5000000, reader.read(0, Long.MAX_VALUE, events));
+		assertEquals(51, events.calls.size());
+		assertEquals("org.eclipse.ui -> org.eclipse.jdt.core", events.calls.get(0));
+		assertEquals("org.eclipse.jdt.core -> org.eclipse.ui", events.calls.get(49));
+		assertEquals("cpu 10", events.calls.get(50));
+		for (int n=0; n<50; n++) {
+			assertEquals(START + n * 100000, events.times.get(n));
+		}
+		assertEquals(0, writer.getDroppedChunks());
+	}
+
+	@Test
+	void test_seek_finds_the_chunk_that_holds_a_time() throws Exception {
+		File directory = newDirectory();
+		RecordingWriter writer = new RecordingWriter(directory, 200, 10 * 1024 * 1024);	// a few chunks per segment
+		writer.start();
+		record(writer, 20);
+		writer.close();
+
+		RecordingReader reader = new RecordingReader(directory);
+		assertTrue(reader.getSegments().length > 2);
+		assertEquals(START, reader.seek(0).start);
+		assertEquals(START + 7000000, reader.seek(START + 7500000).start);
+		assertEquals(START + 19000000, reader.seek(Long.MAX_VALUE).start);
+
+		Events events = new Events();
+		assertEquals(START + 9900000, reader.read(START + 7500000, START + 10000000, events));
+		assertEquals(25, events.calls.size());
+		assertEquals(START + 7500000, events.times.get(0));
+	}
+
+	@Test
+	void test_oldest_segments_are_deleted_to_stay_within_the_size() throws Exception {
+		File directory = newDirectory();
+		RecordingWriter writer = new RecordingWriter(directory, 400, 2000);
+		writer.start();
+		record(writer, 60);
+		writer.close();
+
+		RecordingReader reader = new RecordingReader(directory);
+		long size = 0;
+		for (File file : directory.listFiles()) {
+			size += file.length();
+		}
+		assertTrue(size <= 2000, "recording has " + size + " bytes");
+		assertTrue(reader.getStartTime() > START);
+		assertEquals(START + 59000000, reader.getLastChunkTime());
+
+		// the plugin names are repeated in each chunk, so a truncated recording can still be read
+		Events events = new Events();
+		reader.read(0, Long.MAX_VALUE, events);
+		assertEquals((START + 59900000 - reader.getStartTime()) / 100000 + 1, events.calls.size());
+		assertFalse(events.calls.contains("null -> null"));
+	}
+}
@@ -0,0 +1,244 @@
+package cacophonia.protocol;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Appends events to a recording, a directory of segment files that each hold a sequence of chunks.
+ * <p>
+ * A chunk is a complete stream in the binary {@link Protocol}: a header with the start time of the chunk,
+ * followed by the plugin names used in the chunk and the events. So each chunk can be decoded on its own,
+ * and a reader can start at any chunk. A new chunk is started every {@link #CHUNK_INTERVAL} or after
+ * {@link #CHUNK_SIZE} bytes. Times are epoch microseconds, so the events of several agents share one timeline.
+ * <p>
+ * Each segment <tt>NNNNNN.bin</tt> has an index <tt>NNNNNN.idx</tt> with one entry per chunk: its start time
+ * and its offset in the segment as longs, and its length as an int. An entry is written after its chunk, so a
+ * reader never sees an entry for a chunk that is not completely written. A new segment is started after <tt>segmentSize</tt> bytes, and
+ * the oldest segments are deleted to keep the recording below <tt>maxSize</tt> bytes. See {@link RecordingReader}.
+ * <p>
+ * Events are encoded on the calling thread into an in-memory chunk. Finished chunks are written by a background
+ * thread with one large sequential write each. When the disk cannot keep up, chunks are dropped and counted,
+ * so the caller never waits for the disk.
+ */
+public class RecordingWriter extends Thread {
+	public static final long CHUNK_INTERVAL = 1000000;	// in microseconds
+	public static final int CHUNK_SIZE = 1024 * 1024;
+	static final int QUEUE_SIZE = 64;
+	static final int INDEX_ENTRY_SIZE = 8 + 8 + 4;
+
+	File directory;
+	long segmentSize;
+	long maxSize;
+	HashMap<String,Integer> pluginIds = new HashMap<String,Integer>();
+	ArrayList<String> pluginNames = new ArrayList<String>();
+	ByteArrayOutputStream chunk = new ByteArrayOutputStream(CHUNK_SIZE + Protocol.BUFFER_SIZE);
+	EventEncoder encoder = new EventEncoder(Channels.newChannel(chunk));
+	long chunkStart = -1;	// the start of the current chunk in epoch microseconds, or -1 when it is empty
+	BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(QUEUE_SIZE);
+	volatile long droppedChunks;
+	volatile long writtenBytes;
+	volatile boolean closed;
+
+	// only used by the writer thread
+	int segmentNumber = -1;
+	FileChannel segment, index;
+	ArrayDeque<File> segments = new ArrayDeque<File>();
+	long totalSize;
+
+	static class Chunk {
+		long start;
+		byte bytes[];
+
+		Chunk(long start, byte bytes[]) {
+			this.start = start;
+			this.bytes = bytes;
+		}
+	}
+
+	public RecordingWriter(File directory, long segmentSize, long maxSize) {
+		super("Cacophonia Recorder");
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.maxSize = Math.max(maxSize, segmentSize);
+		setDaemon(true);
+		directory.mkdirs();
+	}
+
+	/**
+	 * Returns the ID under which the plugin is recorded.
+	 */
+	public synchronized int getPluginId(String name) {
+		Integer id = pluginIds.get(name);
+		if (id == null) {
+			id = pluginNames.size();
+			pluginNames.add(name);
+			pluginIds.put(name, id);
+		}
+		return id;
+	}
+
+	public synchronized void pluginCall(int fromPluginId, int toPluginId, int threadId, long micros) throws IOException {
+		startRecord(micros);
+		definePlugins(fromPluginId, toPluginId);
+		encoder.writePluginCall(fromPluginId, toPluginId, threadId, micros * 1000);
+		endRecord();
+	}
+
+	public synchronized void pluginCalls(int fromPluginId, int toPluginId, int count, long micros) throws IOException {
+		startRecord(micros);
+		definePlugins(fromPluginId, toPluginId);
+		encoder.writePluginCalls(fromPluginId, toPluginId, count, micros * 1000);
+		endRecord();
+	}
+
+	public synchronized void message(int type, String message, long micros) throws IOException {
+		startRecord(micros);
+		encoder.writeMessage(type, message, micros * 1000);
+		endRecord();
+	}
+
+	void definePlugins(int fromPluginId, int toPluginId) throws IOException {
+		if (!encoder.isPluginDefined(fromPluginId)) encoder.writePluginName(fromPluginId, pluginNames.get(fromPluginId));
+		if (!encoder.isPluginDefined(toPluginId)) encoder.writePluginName(toPluginId, pluginNames.get(toPluginId));
+	}
+
+	void startRecord(long micros) throws IOException {
+		if (closed) throw new IOException("Recording closed");
+		if (chunkStart != -1 && micros - chunkStart >= CHUNK_INTERVAL) {
+			finishChunk();
+		}
+		if (chunkStart == -1) {
+			chunkStart = micros;
+			long startMillis = micros / 1000;
+			encoder.writeHeader(startMillis * 1000000, startMillis);
+		}
+	}
+
+	void endRecord() throws IOException {
+		if (chunk.size() >= CHUNK_SIZE) {
+			finishChunk();
+		}
+	}
+
+	/**
+	 * Hands the current chunk to the writer thread.
+	 */
+	synchronized void finishChunk() throws IOException {
+		if (chunkStart == -1) return;
+		encoder.flush();
+		if (!queue.offer(new Chunk(chunkStart, chunk.toByteArray()))) {
+			droppedChunks++;
+		}
+		chunk.reset();
+		chunkStart = -1;
+	}
+
+	/**
+	 * Writes what was recorded so far and waits until the writer thread wrote it.
+	 */
+	public void close() throws IOException {
+		synchronized (this) {
+			finishChunk();
+			closed = true;
+		}
+		try {
+			join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public long getDroppedChunks() {
+		return droppedChunks;
+	}
+
+	public long getWrittenBytes() {
+		return writtenBytes;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (true) {
+				Chunk chunk;
+				try {
+					chunk = queue.poll(closed ? 0 : CHUNK_INTERVAL, TimeUnit.MICROSECONDS);
+				} catch (InterruptedException e) {
+					break;
+				}
+				if (chunk == null) {
+					if (closed) break;
+					synchronized (this) {
+						if (chunkStart != -1 && System.currentTimeMillis() * 1000 - chunkStart >= CHUNK_INTERVAL) {
+							finishChunk();	// an idle recording is still written to disk
+						}
+					}
+					continue;
+				}
+				write(chunk);
+			}
+			if (segment != null) {
+				segment.close();
+				index.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			closed = true;
+		}
+	}
+
+	void write(Chunk chunk) throws IOException {
+		if (segment == null || segment.size() + chunk.bytes.length > segmentSize) {
+			nextSegment();
+		}
+		ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_SIZE);
+		entry.putLong(chunk.start);
+		entry.putLong(segment.size());
+		entry.putInt(chunk.bytes.length);
+		entry.flip();
+		ByteBuffer bytes = ByteBuffer.wrap(chunk.bytes);
+		while (bytes.hasRemaining()) {
+			segment.write(bytes);
+		}
+		while (entry.hasRemaining()) {
+			index.write(entry);
+		}
+		totalSize += chunk.bytes.length + INDEX_ENTRY_SIZE;
+		writtenBytes += chunk.bytes.length;
+	}
+
+	void nextSegment() throws IOException {
+		if (segment != null) {
+			segment.close();
+			index.close();
+		}
+		segmentNumber++;
+		File file = new File(directory, String.format("%06d.bin", segmentNumber));
+		segment = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		index = FileChannel.open(new File(directory, String.format("%06d.idx", segmentNumber)).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		segments.add(file);
+		while (totalSize + segmentSize > maxSize && segments.size() > 1) {
+			File oldest = segments.poll();
+			File oldestIndex = new File(directory, oldest.getName().replace(".bin", ".idx"));
+			totalSize -= oldest.length() + oldestIndex.length();
+			oldest.delete();
+			oldestIndex.delete();
+		}
+	}
+}
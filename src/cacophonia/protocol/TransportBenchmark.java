@@ -0,0 +1,131 @@
+package cacophonia.protocol;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares the socket transport with the memory-mapped {@link MappedRing} on the same host.
+ * <p>
+ * For throughput, one thread encodes plugin calls and another decodes them. For latency, the calls are
+ * flushed one at a time and carry the low bits of their send time in the thread ID field, so the receiving
+ * thread can tell how long each call took to arrive. The ring is polled without parking here, the UI parks
+ * for a millisecond when the ring is empty.
+ */
+public class TransportBenchmark {
+	static final int EVENT_COUNT = 5_000_000;
+	static final int LATENCY_COUNT = 20_000;
+	static final int PLUGIN_COUNT = 200;
+
+	interface Transport {
+		ByteChannel[] connect() throws IOException;
+	}
+
+	static class Receiver implements EventHandler {
+		int count;
+		long latencies[];
+		public void pluginName(int pluginId, String name) { }
+		public void methodName(int methodId, String name) { }
+		public void pluginCall(int fromPluginId, int toPluginId, int threadId, long time) {
+			if (latencies != null) {
+				latencies[count] = (int)System.nanoTime() - threadId;
+			}
+			count++;
+		}
+		public void message(int type, String message, long time) { }
+	}
+
+	public static void main(String[] args) throws Exception {
+		File file = File.createTempFile("cacophonia", ".ring");
+		file.deleteOnExit();
+		Transport socket = () -> {
+			try (ServerSocketChannel server = ServerSocketChannel.open()) {
+				server.bind(new InetSocketAddress("localhost", 0));
+				SocketChannel producer = SocketChannel.open(server.getLocalAddress());
+				producer.socket().setTcpNoDelay(true);
+				return new ByteChannel[] { producer, server.accept() };
+			}
+		};
+		Transport ring = () -> new ByteChannel[] { MappedRing.create(file, 16 * 1024 * 1024), MappedRing.open(file) };
+		for (int round=0; round<3; round++) {
+			runThroughput("socket", socket);
+			runThroughput("ring", ring);
+			runLatency("socket", socket);
+			runLatency("ring", ring);
+		}
+	}
+
+	static void runThroughput(String name, Transport transport) throws Exception {
+		ByteChannel channels[] = transport.connect();
+		Receiver receiver = new Receiver();
+		Thread consumer = startConsumer(channels[1], receiver, EVENT_COUNT);
+		long start = System.nanoTime();
+		EventEncoder encoder = new EventEncoder(channels[0]);
+		encoder.writeHeader(start);
+		for (int n=0; n<EVENT_COUNT; n++) {
+			writeCall(encoder, n % PLUGIN_COUNT, (n * 7) % PLUGIN_COUNT, 1, start);
+		}
+		encoder.flush();
+		consumer.join();
+		long elapsed = System.nanoTime() - start;
+		channels[0].close();
+		channels[1].close();
+		System.out.println(String.format("%-8s throughput=%,12.0f events/s", name, EVENT_COUNT / (elapsed / 1e9)));
+	}
+
+	static void runLatency(String name, Transport transport) throws Exception {
+		ByteChannel channels[] = transport.connect();
+		Receiver receiver = new Receiver();
+		receiver.latencies = new long[LATENCY_COUNT];
+		Thread consumer = startConsumer(channels[1], receiver, LATENCY_COUNT);
+		EventEncoder encoder = new EventEncoder(channels[0]);
+		encoder.writeHeader(System.nanoTime());
+		for (int n=0; n<LATENCY_COUNT; n++) {
+			long now = System.nanoTime();
+			writeCall(encoder, n % PLUGIN_COUNT, (n * 7) % PLUGIN_COUNT, (int)now, now);
+			encoder.flush();
+			LockSupport.parkNanos(10000);
+		}
+		consumer.join();
+		channels[0].close();
+		channels[1].close();
+		long latencies[] = receiver.latencies;
+		Arrays.sort(latencies);
+		System.out.println(String.format("%-8s latency p50=%,8d ns  p99=%,10d ns  max=%,12d ns", name,
+				latencies[latencies.length / 2], latencies[latencies.length * 99 / 100], latencies[latencies.length - 1]));
+	}
+
+	static void writeCall(EventEncoder encoder, int from, int to, int threadId, long time) throws IOException {
+		if (!encoder.isPluginDefined(from)) encoder.writePluginName(from, "org.eclipse.plugin" + from + ".internal");
+		if (!encoder.isPluginDefined(to)) encoder.writePluginName(to, "org.eclipse.plugin" + to + ".internal");
+		encoder.writePluginCall(from, to, threadId, time);
+	}
+
+	static Thread startConsumer(ByteChannel channel, Receiver receiver, int count) {
+		Thread consumer = new Thread(() -> {
+			EventDecoder decoder = new EventDecoder(receiver);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(Protocol.BUFFER_SIZE);
+			try {
+				while (receiver.count < count) {
+					if (channel.read(buffer) <= 0) {
+						Thread.onSpinWait();
+						continue;
+					}
+					buffer.flip();
+					decoder.decode(buffer);
+					buffer.compact();
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}, "Consumer");
+		consumer.start();
+		return consumer;
+	}
+}
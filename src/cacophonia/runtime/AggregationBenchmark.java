@@ -0,0 +1,145 @@
+package cacophonia.runtime;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import cacophonia.Constants;
+
+/**
+ * Shows the trade-off between the aggregation interval and the fidelity of the animation in the UI.
+ * <p>
+ * A simulated workload of bursty plugin calls is fed through a {@link CallMatrix}, drained at the end of
+ * each time slice. For each interval it reports the number of records the UI has to handle, and how well the
+ * set of edges lit in each redraw frame of the UI matches the set lit by sending every call separately.
+ * It also reports the cost of counting a call compared to publishing it as an event.
+ */
+public class AggregationBenchmark {
+	static final long DURATION = 5_000_000; // microseconds
+	static final int CALL_COUNT = 5_000_000;
+	static final int PLUGIN_COUNT = 60;
+	static final long FRAME = 50_000; // the default redraw delay of the UI, in microseconds
+	static final long INTERVALS[] = { 0, 1, 5, 10, 20, 50, 100, 250 }; // milliseconds
+
+	public static void main(String[] args) throws Exception {
+		long times[] = new long[CALL_COUNT];
+		int froms[] = new int[CALL_COUNT];
+		int tos[] = new int[CALL_COUNT];
+		createWorkload(times, froms, tos);
+		for (long interval : INTERVALS) {
+			simulate(interval * 1000, times, froms, tos);
+		}
+		measureCost(froms, tos);
+	}
+
+	/**
+	 * Calls come in bursts between a few plugins, with a skewed choice of pairs, like an Eclipse job would.
+	 */
+	static void createWorkload(long times[], int froms[], int tos[]) {
+		Random random = new Random(42);
+		int n = 0;
+		while (n < CALL_COUNT) {
+			long burstStart = (long)(random.nextDouble() * DURATION);
+			long burstLength = 1000 + random.nextInt(30_000);
+			int burstSize = Math.min(CALL_COUNT - n, 1 + random.nextInt(20_000));
+			int base = (int)(Math.pow(random.nextDouble(), 3) * PLUGIN_COUNT);
+			for (int k=0; k<burstSize; k++, n++) {
+				times[n] = burstStart + (long)(random.nextDouble() * burstLength);
+				froms[n] = (base + random.nextInt(3)) % PLUGIN_COUNT + 1;
+				tos[n] = (base + 3 + random.nextInt(4)) % PLUGIN_COUNT + 1;
+			}
+		}
+		sortByTime(times, froms, tos);
+	}
+
+	static void simulate(long interval, long times[], int froms[], int tos[]) throws Exception {
+		CallMatrix matrix = new CallMatrix(PLUGIN_COUNT * PLUGIN_COUNT * 2);
+		int frameCount = (int)(DURATION / FRAME) + 1;
+		List<Set<Long>> exact = new ArrayList<Set<Long>>(), aggregated = new ArrayList<Set<Long>>();
+		for (int n=0; n<frameCount; n++) {
+			exact.add(new HashSet<Long>());
+			aggregated.add(new HashSet<Long>());
+		}
+		long records[] = { 0 };
+		long delay[] = { 0 };
+		long sliceEnd = interval;
+		for (int n=0; n<CALL_COUNT; n++) {
+			long pair = ((long)froms[n] << 32) | tos[n];
+			exact.get((int)(times[n] / FRAME)).add(pair);
+			if (interval == 0) {
+				aggregated.get((int)(times[n] / FRAME)).add(pair);
+				records[0]++;
+				continue;
+			}
+			while (times[n] >= sliceEnd) {
+				drain(matrix, sliceEnd, aggregated, records);
+				sliceEnd += interval;
+			}
+			matrix.increment(froms[n], tos[n]);
+			delay[0] += sliceEnd - times[n];
+		}
+		if (interval > 0) drain(matrix, sliceEnd, aggregated, records);
+		double similarity = 0;
+		int frames = 0;
+		for (int n=0; n<frameCount; n++) {
+			Set<Long> union = new HashSet<Long>(exact.get(n));
+			union.addAll(aggregated.get(n));
+			if (union.isEmpty()) continue;
+			Set<Long> both = new HashSet<Long>(exact.get(n));
+			both.retainAll(aggregated.get(n));
+			similarity += (double)both.size() / union.size();
+			frames++;
+		}
+		System.out.println(String.format("interval=%4dms  records=%,10d  (%6.1fx fewer)  frame similarity=%5.1f%%  mean delay=%6.2fms",
+				interval / 1000,
+				records[0],
+				(double)CALL_COUNT / records[0],
+				100 * similarity / frames,
+				delay[0] / 1000.0 / CALL_COUNT));
+	}
+
+	static void drain(CallMatrix matrix, long time, List<Set<Long>> frames, long records[]) throws Exception {
+		Set<Long> frame = frames.get((int)Math.min(frames.size() - 1, time / FRAME));
+		records[0] += matrix.drain((from, to, count) -> frame.add(((long)from << 32) | to));
+	}
+
+	static void measureCost(int froms[], int tos[]) throws Exception {
+		CallMatrix matrix = new CallMatrix(PLUGIN_COUNT * PLUGIN_COUNT * 2);
+		EventRing ring = new EventRing(Thread.currentThread(), 1 << 16);
+		for (int round=0; round<3; round++) {
+			long start = System.nanoTime();
+			for (int n=0; n<CALL_COUNT; n++) {
+				matrix.increment(froms[n], tos[n]);
+			}
+			long counted = System.nanoTime();
+			for (int n=0; n<CALL_COUNT; n++) {
+				if (!ring.publish(Constants.EVENT_PLUGIN_TO_PLUGIN_CALL, froms[n], tos[n], 1, System.nanoTime(), null)) {
+					ring.tail.set(ring.head.get());
+				}
+			}
+			long published = System.nanoTime();
+			System.out.println(String.format("cost per call: count=%.1fns  publish=%.1fns",
+					(double)(counted - start) / CALL_COUNT,
+					(double)(published - counted) / CALL_COUNT));
+		}
+	}
+
+	static void sortByTime(long times[], int froms[], int tos[]) {
+		Integer order[] = new Integer[times.length];
+		for (int n=0; n<order.length; n++) order[n] = n;
+		java.util.Arrays.sort(order, (a, b) -> Long.compare(times[a], times[b]));
+		long sortedTimes[] = new long[times.length];
+		int sortedFroms[] = new int[times.length];
+		int sortedTos[] = new int[times.length];
+		for (int n=0; n<order.length; n++) {
+			sortedTimes[n] = times[order[n]];
+			sortedFroms[n] = froms[order[n]];
+			sortedTos[n] = tos[order[n]];
+		}
+		System.arraycopy(sortedTimes, 0, times, 0, times.length);
+		System.arraycopy(sortedFroms, 0, froms, 0, froms.length);
+		System.arraycopy(sortedTos, 0, tos, 0, tos.length);
+	}
+}
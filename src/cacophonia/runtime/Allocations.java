@@ -0,0 +1,117 @@
+package cacophonia.runtime;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import cacophonia.Constants;
+
+/**
+ * Charges the memory allocated by each thread to the plugin that was running, to show which plugins
+ * cause the most garbage.
+ * <p>
+ * The allocated bytes of the thread, from {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)},
+ * are only read when the running plugin changes: when a call enters another plugin, and when it returns. 
+ * The bytes allocated since the previous change are charged to the plugin that was running, and to the edge
+ * it was entered by, from {@link ThreadState#currentEntryPlugin()}. Calls inside a plugin cost nothing extra.
+ * <p>
+ * Every {@link Options#allocationInterval} milliseconds, the bytes are sent as {@link Constants#EVENT_ALLOCATIONS}
+ * messages. The first message of a report starts with a line <tt>report interval</tt>, followed by lines
+ * <tt>plugin name bytes</tt> and <tt>edge from to bytes</tt>, separated by tabs.
+ */
+class Allocations extends Thread {
+	static final int CAPACITY = 4096;
+	static final int EDGE_CAPACITY = 4096;
+	static volatile boolean enabled;
+	static com.sun.management.ThreadMXBean threads;
+	static AtomicLongArray pluginBytes = new AtomicLongArray(CAPACITY);
+	static CallMatrix edgeBytes = new CallMatrix(EDGE_CAPACITY);
+
+	Allocations() {
+		super("Cacophonia Allocations");
+		setDaemon(true);
+	}
+
+	static void startIfEnabled() {
+		if (Options.allocationInterval <= 0) return;
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean) || 
+				!((com.sun.management.ThreadMXBean)bean).isThreadAllocatedMemorySupported()) {
+			System.out.println("Cacophonia: this JVM does not count allocated bytes per thread, allocations are not measured");
+			return;
+		}
+		threads = (com.sun.management.ThreadMXBean)bean;
+		if (!threads.isThreadAllocatedMemoryEnabled()) {
+			threads.setThreadAllocatedMemoryEnabled(true);
+		}
+		enabled = true;
+		new Allocations().start();
+	}
+
+	/**
+	 * Called on enter, after pushing a call from one plugin into another.
+	 */
+	static void entered(ThreadState state) {
+		int callerFrame = state.depth - 2;
+		if (callerFrame < 0) {
+			state.segmentBytes = allocatedBytes();
+			return;
+		}
+		charge(state, state.pluginIds[callerFrame], state.entryPluginIds[callerFrame]);
+	}
+
+	/**
+	 * Called on leave, after the frames from oldDepth down to the current depth were popped.
+	 */
+	static void left(ThreadState state, int oldDepth) {
+		int pluginId = state.pluginIds[oldDepth - 1];
+		int entryPluginId = state.entryPluginIds[oldDepth - 1];
+		if (pluginId == state.currentPlugin() && entryPluginId == state.currentEntryPlugin()) return;
+		charge(state, pluginId, entryPluginId);
+	}
+
+	static void charge(ThreadState state, int pluginId, int entryPluginId) {
+		long bytes = allocatedBytes();
+		long allocated = bytes - state.segmentBytes;
+		state.segmentBytes = bytes;
+		if (pluginId == Plugins.ROOT || allocated <= 0 || pluginId >= CAPACITY) return;
+		pluginBytes.getAndAdd(pluginId, allocated);
+		edgeBytes.add(entryPluginId, pluginId, allocated);
+	}
+
+	static long allocatedBytes() {
+		return threads == null ? 0 : threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	@Override
+	public void run() {
+		long lastReport = System.nanoTime();
+		while (true) {
+			try {
+				Thread.sleep(Options.allocationInterval);
+				long now = System.nanoTime();
+				report(now - lastReport);
+				lastReport = now;
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Sends the bytes allocated since the previous report, and resets them.
+	 */
+	static void report(long interval) throws Exception {
+		List<String> lines = new ArrayList<String>();
+		int pluginCount = Math.min(Plugins.size(), CAPACITY);
+		for (int pluginId=0; pluginId<pluginCount; pluginId++) {
+			long bytes = pluginBytes.getAndSet(pluginId, 0);
+			if (bytes == 0) continue;
+			lines.add(String.format("plugin\t%s\t%d", Plugins.getName(pluginId), bytes));
+		}
+		edgeBytes.drain((from, to, bytes) -> 
+			lines.add(String.format("edge\t%s\t%s\t%d", Plugins.getName(from), Plugins.getName(to), bytes)));
+		Method.remoteUI.sendReport(Constants.EVENT_ALLOCATIONS, "report\t" + interval, lines);
+	}
+}
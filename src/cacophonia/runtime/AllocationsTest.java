@@ -0,0 +1,59 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.jupiter.api.Test;
+
+
+class AllocationsTest {
+	static final int A = 1, B = 2;
+	static Object garbage;
+	ThreadState state = new ThreadState();
+
+	AllocationsTest() {
+		Allocations.threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		Allocations.pluginBytes = new AtomicLongArray(Allocations.CAPACITY);
+		Allocations.edgeBytes = new CallMatrix(Allocations.EDGE_CAPACITY);
+	}
+
+	void enter(int methodId, int pluginId) {
+		int callerPluginId = state.currentPlugin();
+		state.push(methodId, pluginId);
+		if (callerPluginId != pluginId) Allocations.entered(state);
+	}
+
+	void leave(int methodId) {
+		int depth = state.depth;
+		if (state.pop(methodId) != -1) Allocations.left(state, depth);
+	}
+
+	void allocate(int megabytes) {
+		for (int n=0; n<megabytes; n++) garbage = new byte[1024 * 1024];
+	}
+
+	@Test
+	void test_bytes_are_charged_to_the_running_plugin_and_its_edge() throws Exception {
+		enter(10, A);
+		allocate(1);
+		enter(20, B);
+		allocate(4);
+		leave(20);
+		enter(11, A);
+		allocate(2);
+		leave(11);
+		leave(10);
+		assertTrue(Allocations.pluginBytes.get(A) >= 3 * 1024 * 1024);
+		assertTrue(Allocations.pluginBytes.get(A) < 4 * 1024 * 1024);
+		assertTrue(Allocations.pluginBytes.get(B) >= 4 * 1024 * 1024);
+		assertTrue(Allocations.pluginBytes.get(B) < 5 * 1024 * 1024);
+		Map<String,Long> edges = new HashMap<String,Long>();
+		Allocations.edgeBytes.drain((from, to, bytes) -> edges.put(from + "->" + to, bytes));
+		assertEquals(Allocations.pluginBytes.get(A), (long)edges.get(Plugins.ROOT + "->" + A));
+		assertEquals(Allocations.pluginBytes.get(B), (long)edges.get(A + "->" + B));
+	}
+}
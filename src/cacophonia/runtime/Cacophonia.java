@@ -6,11 +6,63 @@ package cacophonia.runtime;
 public class Cacophonia {
 	static boolean debug = false;
 
-	public static void enter(String methodName, Object object) {
-		Method.enter(methodName, object);
+	/**
+	 * Called by the agent at startup with the agent arguments. See {@link Options}.
+	 */
+	public static void configure(String agentArgs) {
+		Options.parse(agentArgs);
+		Sampler.configure(Options.sampling);
 	}
 
-	public static void leave(String methodName, Object object) {
-		Method.leave(methodName, object);
+	/**
+	 * Called by the agent at startup to connect to the remote UI.
+	 */
+	public static void start() {
+		Method.remoteUI.start();
+		MetricsReporter.startIfEnabled();
+		Governor.startIfEnabled();
+		Latencies.startIfEnabled();
+		PluginTimes.startIfEnabled();
+		Allocations.startIfEnabled();
+		MethodCalls.startIfEnabled();
+		HandOffs.startIfEnabled();
+	}
+
+	/**
+	 * Called by the agent when a class is instrumented. The returned ID is baked into the enter/leave calls.
+	 */
+	public static int register(String methodName) {
+		return Method.register(methodName);
+	}
+
+	/**
+	 * Called by the agent after instrumenting a class, with the time it took.
+	 */
+	public static void transformed(long nanos) {
+		MetricsReporter.transformed(nanos);
+	}
+
+	public static void enter(int methodId, Object object) {
+		Method.enter(methodId, object);
+	}
+
+	public static void leave(int methodId, Object object) {
+		Method.leave(methodId, object);
+	}
+
+	/**
+	 * Called by the instrumented Job.schedule and Display.asyncExec, see {@link HandOffs}.
+	 */
+	public static void handedOff(Object token, long delayMillis) {
+		if (HandOffs.enabled) HandOffs.handedOff(token, delayMillis);
+	}
+
+	/**
+	 * Called by the display when it runs a runnable passed to asyncExec.
+	 */
+	public static void displayRuns(Object runnable) {
+		if (HandOffs.enabled && runnable != null) {
+			HandOffs.started(HandOffs.DISPLAY, runnable, Plugins.register(Plugins.nameOf(runnable.getClass().getClassLoader())));
+		}
 	}
 }
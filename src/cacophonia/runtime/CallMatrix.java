@@ -0,0 +1,92 @@
+package cacophonia.runtime;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts plugin-to-plugin calls per (from, to) pair, so they can be sent to the UI as one aggregated record
+ * per pair and time slice, instead of one event per call.
+ * <p>
+ * The pairs live in a fixed-size open-addressing table that application threads update without locking.
+ * A pair is never removed, so a slot keeps its pair for the rest of the session and only its count is reset
+ * by {@link #drain(Consumer)}. When the table is full, {@link #increment(int, int)} returns false and the
+ * caller sends the call as a single event instead.
+ */
+class CallMatrix {
+	final int mask;
+	final AtomicLongArray pairs;	// (from << 32 | to), 0 means empty, which is fine since a plugin never calls itself
+	final AtomicLongArray counts;
+
+	interface Consumer {
+		void accept(int fromPluginId, int toPluginId, long count) throws IOException;
+	}
+
+	CallMatrix(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		mask = size - 1;
+		pairs = new AtomicLongArray(size);
+		counts = new AtomicLongArray(size);
+	}
+
+	boolean increment(int fromPluginId, int toPluginId) {
+		return add(fromPluginId, toPluginId, 1);
+	}
+
+	boolean add(int fromPluginId, int toPluginId, long count) {
+		int slot = slot(fromPluginId, toPluginId);
+		if (slot == -1) return false;
+		counts.getAndAdd(slot, count);
+		return true;
+	}
+
+	/**
+	 * Returns the slot of the given pair, claiming a free one for a new pair, or -1 when the table is full.
+	 */
+	int slot(int fromPluginId, int toPluginId) {
+		long pair = ((long)fromPluginId << 32) | (toPluginId & 0xFFFFFFFFL);
+		int slot = hash(pair) & mask;
+		for (int probe=0; probe<=mask; probe++) {
+			long current = pairs.get(slot);
+			if (current == 0) {
+				current = pairs.compareAndSet(slot, 0, pair) ? pair : pairs.get(slot);
+			}
+			if (current == pair) return slot;
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	/**
+	 * Passes each pair that was called since the previous drain to the consumer, and resets its count.
+	 */
+	int drain(Consumer consumer) throws IOException {
+		int pairCount = 0;
+		for (int slot=0; slot<=mask; slot++) {
+			long pair = pairs.get(slot);
+			if (pair == 0) continue;
+			long count = counts.getAndSet(slot, 0);
+			if (count > 0) {
+				consumer.accept((int)(pair >>> 32), (int)pair, count);
+				pairCount++;
+			}
+		}
+		return pairCount;
+	}
+
+	/**
+	 * Passes each pair that was ever called to the consumer, with its count, without resetting it.
+	 */
+	void forEach(Consumer consumer) throws IOException {
+		for (int slot=0; slot<=mask; slot++) {
+			long pair = pairs.get(slot);
+			if (pair != 0) {
+				consumer.accept((int)(pair >>> 32), (int)pair, counts.get(slot));
+			}
+		}
+	}
+
+	static int hash(long pair) {
+		long h = pair * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+}
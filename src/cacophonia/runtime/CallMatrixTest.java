@@ -0,0 +1,68 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+
+class CallMatrixTest {
+	Map<String,Long> drained = new HashMap<String,Long>();
+
+	void drain(CallMatrix matrix) throws Exception {
+		drained.clear();
+		matrix.drain((from, to, count) -> drained.put(from + "->" + to, count));
+	}
+
+	@Test
+	void test_counts_per_pair() throws Exception {
+		CallMatrix matrix = new CallMatrix(16);
+		matrix.increment(1, 2);
+		matrix.increment(1, 2);
+		matrix.increment(2, 1);
+		drain(matrix);
+		assertEquals(Map.of("1->2", 2L, "2->1", 1L), drained);
+	}
+
+	@Test
+	void test_drain_resets_counts() throws Exception {
+		CallMatrix matrix = new CallMatrix(16);
+		matrix.increment(1, 2);
+		drain(matrix);
+		drain(matrix);
+		assertTrue(drained.isEmpty());
+		matrix.increment(1, 2);
+		drain(matrix);
+		assertEquals(Map.of("1->2", 1L), drained);
+	}
+
+	@Test
+	void test_full_matrix_rejects_new_pairs() throws Exception {
+		CallMatrix matrix = new CallMatrix(4);
+		for (int n=1; n<=4; n++) {
+			assertTrue(matrix.increment(0, n));
+		}
+		assertFalse(matrix.increment(0, 5));
+		assertTrue(matrix.increment(0, 3));
+	}
+
+	@Test
+	void test_concurrent_increments() throws Exception {
+		CallMatrix matrix = new CallMatrix(1024);
+		Thread threads[] = new Thread[4];
+		for (int n=0; n<threads.length; n++) {
+			threads[n] = new Thread(() -> {
+				for (int k=0; k<100000; k++) {
+					matrix.increment(k % 10, 100 + k % 7);
+				}
+			});
+			threads[n].start();
+		}
+		for (Thread thread : threads) thread.join();
+		long total[] = { 0 };
+		matrix.drain((from, to, count) -> total[0] += count);
+		assertEquals(400000, total[0]);
+	}
+}
@@ -0,0 +1,115 @@
+package cacophonia.runtime;
+
+import java.io.IOException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import cacophonia.Constants;
+
+/**
+ * The per-thread {@link EventRing}s that application threads publish their events into.
+ * <p>
+ * Publishing never blocks and never does I/O. The {@link EventFlusher} drains all rings in batches.
+ * Rings of threads that died are removed once they are empty, after adding their counts to the totals.
+ * <p>
+ * With the COALESCE {@link OverloadPolicy}, plugin calls that do not fit a full ring are counted per pair,
+ * as in aggregation mode, and the flusher sends the counts on its next round. Only the other events are lost.
+ */
+class EventBuffers {
+	static final int DRAIN_BATCH_SIZE = 1024;
+	static volatile boolean enabled;
+	private static CopyOnWriteArrayList<EventRing> rings = new CopyOnWriteArrayList<EventRing>();
+	private static ThreadLocal<EventRing> ring = ThreadLocal.withInitial(() -> {
+		EventRing ring = new EventRing(Thread.currentThread(), Options.bufferCapacity, Options.overloadPolicy);
+		rings.add(ring);
+		return ring;
+	});
+	private static long retiredPublished, retiredFlushed, retiredDropped, retiredCoalesced;
+	private static CallMatrix callMatrix = new CallMatrix(Options.aggregateCapacity);
+	static volatile boolean coalescing;	// set when calls were counted because a ring was full
+
+	static boolean publish(int type, int from, int to, long value, Object payload) {
+		if (!enabled) return false;
+		return ring.get().publish(type, from, to, value, System.nanoTime(), payload);
+	}
+
+	/**
+	 * Publishes a plugin call that stands for the given number of calls. In aggregation mode it is only
+	 * counted, unless there is no room for a new pair.
+	 */
+	static boolean publishPluginCall(int fromPluginId, int toPluginId, int count) {
+		if (!enabled) return false;
+		if (Options.aggregateInterval > 0 && callMatrix.add(fromPluginId, toPluginId, count)) return true;
+		if (Options.overloadPolicy == OverloadPolicy.COALESCE) {
+			EventRing ring = EventBuffers.ring.get();
+			if (ring.isFull() && callMatrix.add(fromPluginId, toPluginId, count)) {
+				ring.coalesced++;
+				if (!coalescing) coalescing = true;
+				return true;
+			}
+		}
+		if (count == 1) {
+			return publish(Constants.EVENT_PLUGIN_TO_PLUGIN_CALL, fromPluginId, toPluginId, 1, null);
+		}
+		return publish(Constants.EVENT_PLUGIN_TO_PLUGIN_CALLS, fromPluginId, toPluginId, count, null);
+	}
+
+	/**
+	 * Writes the calls counted since the previous time slice to the sink. Called by the flusher only.
+	 */
+	static int drainPluginCalls(EventSink sink) throws IOException {
+		coalescing = false;
+		long time = System.nanoTime();
+		return callMatrix.drain((from, to, count) -> sink.writePluginCalls(from, to, count, time));
+	}
+
+	/**
+	 * Writes all buffered events to the sink. Called by the flusher only.
+	 */
+	static int drain(EventSink sink) throws IOException {
+		int count = 0;
+		for (EventRing ring : rings) {
+			count += ring.drain(sink, DRAIN_BATCH_SIZE);
+			if (!ring.thread.isAlive() && ring.isEmpty()) {
+				retire(ring);
+			}
+		}
+		return count;
+	}
+
+	private static synchronized void retire(EventRing ring) {
+		if (rings.remove(ring)) {
+			retiredPublished += ring.published();
+			retiredFlushed += ring.flushed();
+			retiredDropped += ring.dropped;
+			retiredCoalesced += ring.coalesced;
+		}
+	}
+
+	static synchronized long published() {
+		long count = retiredPublished;
+		for (EventRing ring : rings) count += ring.published();
+		return count;
+	}
+
+	static synchronized long flushed() {
+		long count = retiredFlushed;
+		for (EventRing ring : rings) count += ring.flushed();
+		return count;
+	}
+
+	static synchronized long dropped() {
+		long count = retiredDropped;
+		for (EventRing ring : rings) count += ring.dropped;
+		return count;
+	}
+
+	static synchronized long coalesced() {
+		long count = retiredCoalesced;
+		for (EventRing ring : rings) count += ring.coalesced;
+		return count;
+	}
+
+	static long queued() {
+		return published() - flushed();
+	}
+}
@@ -0,0 +1,67 @@
+package cacophonia.runtime;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The single agent thread that drains the {@link EventBuffers} into an {@link EventSink} in batches.
+ * <p>
+ * The sink is flushed once per drain, rather than once per event. Unless the last drain filled a whole batch,
+ * the flusher waits according to {@link Options#waitStrategy}.
+ * <p>
+ * In aggregation mode, the plugin calls counted by the application threads are sent at the end of each
+ * time slice of {@link Options#aggregateInterval} milliseconds. Otherwise, calls that were coalesced because a
+ * buffer was full are sent on the next round.
+ */
+class EventFlusher extends Thread {
+	EventSink sink;
+	long nextSlice = System.nanoTime();
+
+	EventFlusher(EventSink sink) {
+		super("Cacophonia Event Flusher");
+		this.sink = sink;
+		setDaemon(true);
+	}
+
+	static EventFlusher start(EventSink sink) {
+		EventFlusher flusher = new EventFlusher(sink);
+		EventBuffers.enabled = true;
+		flusher.start();
+		return flusher;
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			int count = 0;
+			try {
+				count = EventBuffers.drain(sink);
+				if (Options.aggregateInterval > 0 && System.nanoTime() >= nextSlice) {
+					nextSlice = System.nanoTime() + Options.aggregateInterval * 1000000;
+					count += EventBuffers.drainPluginCalls(sink);
+				} else if (EventBuffers.coalescing && Options.aggregateInterval == 0) {
+					count += EventBuffers.drainPluginCalls(sink);
+				}
+				if (count > 0) sink.flush();
+			} catch (Exception e) {
+				// ignore - UI went away
+			}
+			if (count < EventBuffers.DRAIN_BATCH_SIZE) {
+				waitForEvents();
+			}
+		}
+	}
+
+	void waitForEvents() {
+		switch (Options.waitStrategy) {
+		case SLEEP:
+			LockSupport.parkNanos(Options.flushInterval * 1000000);
+			break;
+		case YIELD:
+			Thread.yield();
+			break;
+		case SPIN:
+			Thread.onSpinWait();
+			break;
+		}
+	}
+}
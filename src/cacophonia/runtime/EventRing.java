@@ -0,0 +1,173 @@
+package cacophonia.runtime;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded single-producer/single-consumer ring of fixed-size event records.
+ * <p>
+ * Each application thread publishes into its own ring and only the {@link EventFlusher} drains it, so
+ * neither side takes a lock. The record fields live in parallel arrays. The payload slot is only used by
+ * the rare events that carry a string, such as statistics and job details.
+ * <p>
+ * When the ring is full, the {@link OverloadPolicy} decides what happens:
+ * <ul>
+ * <li> DROP_NEWEST: the new event is dropped and counted.
+ * <li> DROP_OLDEST: the producer moves the tail past the oldest event and counts it as dropped. The flusher
+ * then also claims each event by moving the tail with a compare-and-set, after reading it. When that fails, 
+ * the producer dropped the event while it was being read, and the flusher skips it.
+ * <li> COALESCE: plugin calls are counted by {@link EventBuffers} instead, other events are dropped.
+ * <li> BLOCK: the producer waits for room for at most {@link Options#blockTimeout} microseconds, then drops.
+ * </ul>
+ * Only BLOCK ever makes the publishing thread wait, and only for a bounded time.
+ */
+class EventRing {
+	final Thread thread;
+	final long threadId;
+	final int capacity;
+	final OverloadPolicy policy;
+	final int mask;
+	final int types[];
+	final int froms[];
+	final int tos[];
+	final long values[];
+	final long times[];
+	final Object payloads[];
+	final AtomicLong head = new AtomicLong();	// the next sequence to publish, only written by the producer
+	final AtomicLong tail = new AtomicLong();	// the next sequence to drain, only written by the consumer
+	private long cachedTail;
+	volatile long dropped;
+	volatile long coalesced;
+
+	EventRing(Thread thread, int capacity) {
+		this(thread, capacity, OverloadPolicy.DROP_NEWEST);
+	}
+
+	EventRing(Thread thread, int capacity, OverloadPolicy policy) {
+		this.thread = thread;
+		this.policy = policy;
+		this.threadId = thread.getId();
+		this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		this.mask = this.capacity - 1;
+		types = new int[this.capacity];
+		froms = new int[this.capacity];
+		tos = new int[this.capacity];
+		values = new long[this.capacity];
+		times = new long[this.capacity];
+		payloads = new Object[this.capacity];
+	}
+
+	/**
+	 * Called by the owning thread only.
+	 */
+	boolean publish(int type, int from, int to, long value, long time, Object payload) {
+		long sequence = head.get();
+		if (sequence - cachedTail == capacity) {
+			cachedTail = tail.get();
+			if (sequence - cachedTail == capacity && !makeRoom(sequence)) {
+				dropped++;
+				return false;
+			}
+		}
+		int index = (int)sequence & mask;
+		types[index] = type;
+		froms[index] = from;
+		tos[index] = to;
+		values[index] = value;
+		times[index] = time;
+		payloads[index] = payload;
+		head.lazySet(sequence + 1);
+		return true;
+	}
+
+	/**
+	 * Called by the owning thread only, when the ring is full. Returns false when the new event must be dropped.
+	 */
+	private boolean makeRoom(long sequence) {
+		switch (policy) {
+		case DROP_OLDEST:
+			if (tail.compareAndSet(cachedTail, cachedTail + 1)) {
+				dropped++;
+			}
+			cachedTail = tail.get();
+			return true;
+		case BLOCK:
+			long deadline = System.nanoTime() + Options.blockTimeout * 1000;
+			while (sequence - cachedTail == capacity) {
+				if (System.nanoTime() > deadline) return false;
+				Thread.onSpinWait();
+				cachedTail = tail.get();
+			}
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Called by the owning thread only.
+	 */
+	boolean isFull() {
+		long sequence = head.get();
+		if (sequence - cachedTail < capacity) return false;
+		cachedTail = tail.get();
+		return sequence - cachedTail == capacity;
+	}
+
+	/**
+	 * Called by the flusher only. Returns the number of events written to the sink.
+	 */
+	int drain(EventSink sink, int maxCount) throws IOException {
+		if (policy == OverloadPolicy.DROP_OLDEST) {
+			return drainClaiming(sink, maxCount);
+		}
+		long sequence = tail.get();
+		int count = (int)Math.min(maxCount, head.get() - sequence);
+		for (int n=0; n<count; n++) {
+			int index = (int)(sequence + n) & mask;
+			Object payload = payloads[index];
+			payloads[index] = null;
+			try {
+				sink.write(types[index], froms[index], tos[index], values[index], threadId, times[index], payload);
+			} finally {
+				tail.lazySet(sequence + n + 1);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Drains when the producer may drop the oldest events. Each event is read before it is claimed, so an event
+	 * the producer overwrites is never written to the sink. Payloads are left for the producer to overwrite.
+	 */
+	private int drainClaiming(EventSink sink, int maxCount) throws IOException {
+		int count = 0;
+		while (count < maxCount) {
+			long sequence = tail.get();
+			if (sequence == head.get()) break;
+			int index = (int)sequence & mask;
+			int type = types[index];
+			int from = froms[index];
+			int to = tos[index];
+			long value = values[index];
+			long time = times[index];
+			Object payload = payloads[index];
+			if (!tail.compareAndSet(sequence, sequence + 1)) continue;
+			sink.write(type, from, to, value, threadId, time, payload);
+			count++;
+		}
+		return count;
+	}
+
+	long published() {
+		return head.get();
+	}
+
+	long flushed() {
+		return tail.get();
+	}
+
+	boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+}
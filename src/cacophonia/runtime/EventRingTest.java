@@ -0,0 +1,94 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import cacophonia.Constants;
+
+
+class EventRingTest {
+	List<Integer> received = new ArrayList<Integer>();
+	EventSink sink = new EventSink() {
+		public void write(int type, int from, int to, long value, long threadId, long time, Object payload) {
+			received.add(from);
+		}
+		public void writePluginCalls(int from, int to, long count, long time) {
+		}
+		public void flush() {
+		}
+	};
+
+	@Test
+	void test_capacity_is_power_of_two() {
+		assertEquals(8, new EventRing(Thread.currentThread(), 5).capacity);
+		assertEquals(8, new EventRing(Thread.currentThread(), 8).capacity);
+	}
+
+	@Test
+	void test_drain_in_order() throws Exception {
+		EventRing ring = new EventRing(Thread.currentThread(), 8);
+		for (int n=0; n<5; n++) {
+			assertTrue(ring.publish(Constants.EVENT_PLUGIN_TO_PLUGIN_CALL, n, n + 1, 0, 0, null));
+		}
+		assertEquals(5, ring.drain(sink, 100));
+		assertEquals(List.of(0, 1, 2, 3, 4), received);
+		assertTrue(ring.isEmpty());
+	}
+
+	@Test
+	void test_full_ring_drops_newest() throws Exception {
+		EventRing ring = new EventRing(Thread.currentThread(), 4);
+		for (int n=0; n<6; n++) {
+			ring.publish(Constants.EVENT_PLUGIN_TO_PLUGIN_CALL, n, 0, 0, 0, null);
+		}
+		assertEquals(4, ring.published());
+		assertEquals(2, ring.dropped);
+		ring.drain(sink, 100);
+		assertEquals(List.of(0, 1, 2, 3), received);
+	}
+
+	@Test
+	void test_wraps_around() throws Exception {
+		EventRing ring = new EventRing(Thread.currentThread(), 4);
+		for (int n=0; n<10; n++) {
+			assertTrue(ring.publish(Constants.EVENT_PLUGIN_TO_PLUGIN_CALL, n, 0, 0, 0, null));
+			assertEquals(1, ring.drain(sink, 1));
+		}
+		assertEquals(10, ring.flushed());
+		assertEquals(10, received.size());
+		assertEquals(9, received.get(9));
+	}
+
+	@Test
+	void test_full_ring_drops_oldest() throws Exception {
+		EventRing ring = new EventRing(Thread.currentThread(), 4, OverloadPolicy.DROP_OLDEST);
+		for (int n=0; n<6; n++) {
+			assertTrue(ring.publish(Constants.EVENT_PLUGIN_TO_PLUGIN_CALL, n, 0, 0, 0, null));
+		}
+		assertEquals(6, ring.published());
+		assertEquals(2, ring.dropped);
+		assertEquals(4, ring.drain(sink, 100));
+		assertEquals(List.of(2, 3, 4, 5), received);
+		assertTrue(ring.isEmpty());
+	}
+
+	@Test
+	void test_full_ring_blocks_until_the_timeout() throws Exception {
+		EventRing ring = new EventRing(Thread.currentThread(), 4, OverloadPolicy.BLOCK);
+		for (int n=0; n<4; n++) {
+			assertTrue(ring.publish(Constants.EVENT_PLUGIN_TO_PLUGIN_CALL, n, 0, 0, 0, null));
+		}
+		assertTrue(ring.isFull());
+		long start = System.nanoTime();
+		assertFalse(ring.publish(Constants.EVENT_PLUGIN_TO_PLUGIN_CALL, 4, 0, 0, 0, null));
+		assertTrue(System.nanoTime() - start >= Options.blockTimeout * 1000);
+		assertEquals(1, ring.dropped);
+		ring.drain(sink, 1);
+		assertFalse(ring.isFull());
+		assertTrue(ring.publish(Constants.EVENT_PLUGIN_TO_PLUGIN_CALL, 5, 0, 0, 0, null));
+	}
+}
@@ -0,0 +1,16 @@
+package cacophonia.runtime;
+
+import java.io.IOException;
+
+/**
+ * Receives the events drained from the {@link EventBuffers} by the {@link EventFlusher}.
+ */
+interface EventSink {
+
+	void write(int type, int from, int to, long value, long threadId, long time, Object payload) throws IOException;
+
+	void writePluginCalls(int from, int to, long count, long time) throws IOException;
+
+	void flush() throws IOException;
+
+}
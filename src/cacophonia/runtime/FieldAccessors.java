@@ -0,0 +1,153 @@
+package cacophonia.runtime;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collection;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+ * Reads the fields of the objects of inspected plugins, to capture them in the trace.
+ * <p>
+ * The accessors of a class are built once, through a {@link ClassValue}, as method handles that take an
+ * Object and return the exact field type. Primitive values are appended to the trace without boxing. A 
+ * reference value is summarized without calling its <tt>toString</tt>: its type and identity hash, the 
+ * size of a JDK collection or map, the length of an array, or the start of a string.
+ */
+class FieldAccessors {
+	static final int MAX_STRING_LENGTH = 40;
+	private static ClassValue<FieldAccessors> accessors = new ClassValue<FieldAccessors>() {
+		@Override
+		protected FieldAccessors computeValue(Class<?> type) {
+			return new FieldAccessors(type);
+		}
+	};
+
+	final String names[];
+	final Class<?> types[];
+	final MethodHandle getters[];
+
+	FieldAccessors(Class<?> type) {
+		Field fields[] = type.getDeclaredFields();
+		names = new String[fields.length];
+		types = new Class<?>[fields.length];
+		getters = new MethodHandle[fields.length];
+		MethodHandles.Lookup lookup = getLookup(type);
+		for (int n=0; n<fields.length; n++) {
+			Field field = fields[n];
+			names[n] = field.getName();
+			types[n] = field.getType();
+			try {
+				getters[n] = getGetter(lookup, field);
+			} catch (Exception e) {
+				// leave the getter null, the field is shown as unreadable
+			}
+		}
+	}
+
+	/**
+	 * Returns the fields of the object, one <tt>name=value</tt> per line.
+	 */
+	static String describe(Object object) {
+		if (object == null) return "";
+		return accessors.get(object.getClass()).describeFields(object);
+	}
+
+	String describeFields(Object object) {
+		StringBuilder details = new StringBuilder();
+		for (int n=0; n<names.length; n++) {
+			if (n > 0) details.append('\n');
+			details.append(names[n]).append('=');
+			try {
+				appendValue(details, n, object);
+			} catch (Throwable e) {
+				details.append('?');
+			}
+		}
+		return details.toString();
+	}
+
+	void appendValue(StringBuilder details, int index, Object object) throws Throwable {
+		MethodHandle getter = getters[index];
+		Class<?> type = types[index];
+		if (getter == null) details.append('?');
+		else if (type == int.class) details.append((int)getter.invokeExact(object));
+		else if (type == long.class) details.append((long)getter.invokeExact(object));
+		else if (type == boolean.class) details.append((boolean)getter.invokeExact(object));
+		else if (type == double.class) details.append((double)getter.invokeExact(object));
+		else if (type == float.class) details.append((float)getter.invokeExact(object));
+		else if (type == char.class) details.append((char)getter.invokeExact(object));
+		else if (type == byte.class) details.append((byte)getter.invokeExact(object));
+		else if (type == short.class) details.append((short)getter.invokeExact(object));
+		else appendSummary(details, (Object)getter.invokeExact(object));
+	}
+
+	static void appendSummary(StringBuilder details, Object value) {
+		if (value == null) {
+			details.append("null");
+			return;
+		}
+		if (value instanceof String) {
+			String string = (String)value;
+			details.append('"').append(string, 0, Math.min(string.length(), MAX_STRING_LENGTH));
+			details.append(string.length() > MAX_STRING_LENGTH ? "...\"" : "\"");
+			return;
+		}
+		Class<?> type = value.getClass();
+		details.append(type.getSimpleName()).append('@').append(Integer.toHexString(System.identityHashCode(value)));
+		if (type.isArray()) {
+			details.append(" length=").append(Array.getLength(value));
+		} else if (value instanceof Collection && hasPlainSize(type)) {
+			details.append(" size=").append(((Collection<?>)value).size());
+		} else if (value instanceof Map && hasPlainSize(type)) {
+			details.append(" size=").append(((Map<?,?>)value).size());
+		}
+	}
+
+	/**
+	 * Returns whether size() of the type is known to neither block nor run plugin code: a JDK collection that
+	 * does not lock. A plugin's own collection may override size() with anything.
+	 */
+	static boolean hasPlainSize(Class<?> type) {
+		String name = type.getName();
+		return name.startsWith("java.util.")
+				&& !name.startsWith("java.util.concurrent.")
+				&& !name.startsWith("java.util.Collections$Synchronized")
+				&& !Vector.class.isAssignableFrom(type)
+				&& !Hashtable.class.isAssignableFrom(type);
+	}
+
+	/**
+	 * Returns a getter of type (Object) -> field type, also for static fields.
+	 */
+	static MethodHandle getGetter(MethodHandles.Lookup lookup, Field field) throws IllegalAccessException {
+		MethodHandle getter;
+		if (lookup != null) {
+			getter = lookup.unreflectGetter(field);
+		} else {
+			field.setAccessible(true);
+			getter = MethodHandles.lookup().unreflectGetter(field);
+		}
+		Class<?> type = field.getType().isPrimitive() ? field.getType() : Object.class;
+		if (Modifier.isStatic(field.getModifiers())) {
+			getter = MethodHandles.dropArguments(getter, 0, Object.class);
+		}
+		return getter.asType(MethodType.methodType(type, Object.class));
+	}
+
+	/**
+	 * Returns a lookup with private access to the class, or null when its module does not allow it.
+	 */
+	static MethodHandles.Lookup getLookup(Class<?> type) {
+		try {
+			return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+		} catch (Exception e) {
+			return null;
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+
+class FieldAccessorsTest {
+
+	@SuppressWarnings("unused")
+	static class Inspected {
+		static int instances = 3;
+		private int count = 42;
+		private long total = 1L << 40;
+		private boolean done = true;
+		private char letter = 'c';
+		private double ratio = 0.5;
+		private String name = "inspected";
+		private String nothing;
+		private List<String> items = new ArrayList<String>(List.of("a", "b"));
+		private int values[] = new int[7];
+	}
+
+	@Test
+	void test_fields_are_described() {
+		Inspected inspected = new Inspected();
+		String description = FieldAccessors.describe(inspected);
+		String lines[] = description.split("\n");
+		assertEquals("instances=3", lines[0]);
+		assertEquals("count=42", lines[1]);
+		assertEquals("total=1099511627776", lines[2]);
+		assertEquals("done=true", lines[3]);
+		assertEquals("letter=c", lines[4]);
+		assertEquals("ratio=0.5", lines[5]);
+		assertEquals("name=\"inspected\"", lines[6]);
+		assertEquals("nothing=null", lines[7]);
+		assertEquals("items=ArrayList@" + Integer.toHexString(System.identityHashCode(inspected.items)) + " size=2", lines[8]);
+		assertTrue(lines[9].startsWith("values=int[]@"));
+		assertTrue(lines[9].endsWith(" length=7"));
+	}
+
+	@Test
+	void test_long_strings_are_cut() {
+		StringBuilder details = new StringBuilder();
+		FieldAccessors.appendSummary(details, "x".repeat(100));
+		assertEquals("\"" + "x".repeat(FieldAccessors.MAX_STRING_LENGTH) + "...\"", details.toString());
+	}
+
+	@Test
+	void test_only_plain_jdk_collections_are_sized() {
+		List<String> own = new ArrayList<String>() {
+			@Override
+			public int size() {
+				throw new IllegalStateException("size() of a plugin's collection must not run");
+			}
+		};
+		StringBuilder details = new StringBuilder();
+		FieldAccessors.appendSummary(details, own);
+		assertFalse(details.toString().contains("size="));
+		details.setLength(0);
+		FieldAccessors.appendSummary(details, Collections.synchronizedList(new ArrayList<String>()));
+		assertFalse(details.toString().contains("size="));
+		details.setLength(0);
+		FieldAccessors.appendSummary(details, new HashMap<String,String>(Map.of("a", "b")));
+		assertTrue(details.toString().endsWith(" size=1"));
+	}
+
+	@Test
+	void test_null_object_has_no_fields() {
+		assertEquals("", FieldAccessors.describe(null));
+	}
+}
@@ -0,0 +1,99 @@
+package cacophonia.runtime;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import cacophonia.Constants;
+
+/**
+ * Keeps the overhead of the agent down during long sessions by disabling hot methods that never take part
+ * in a plugin transition, such as getters and small helpers called in tight loops inside one plugin.
+ * <p>
+ * Every {@link Options#governorInterval} milliseconds, the call rate of each method is computed. A method
+ * that was called more than {@link Options#governorMinRate} times per second, and was never entered from 
+ * another plugin, gets its fast-exit flag set. From then on, its enter and leave return right away. 
+ * Leaving such a method off the shadow stack does not change the plugin seen by its callees, since its 
+ * caller was always in the same plugin. Job methods and methods of inspected plugins are never disabled.
+ * <p>
+ * The governor reports what it disabled to the console and to the UI, with an estimate of the time saved,
+ * based on {@link Options#governorCallCost}.
+ */
+class Governor extends Thread {
+	long lastCallCounts[] = new long[1024];
+	List<Method> disabledMethods = new ArrayList<Method>();
+	long lastSkippedCallCount;
+
+	Governor() {
+		super("Cacophonia Governor");
+		setDaemon(true);
+	}
+
+	static void startIfEnabled() {
+		if (Options.governorInterval > 0) {
+			new Governor().start();
+		}
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				Thread.sleep(Options.governorInterval);
+				govern(Options.governorInterval / 1000.0);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	void govern(double seconds) {
+		int methodCount = Method.getMethodCount();
+		if (methodCount > lastCallCounts.length) {
+			long grown[] = new long[Math.max(2 * lastCallCounts.length, methodCount)];
+			System.arraycopy(lastCallCounts, 0, grown, 0, lastCallCounts.length);
+			lastCallCounts = grown;
+		}
+		List<Method> hotMethods = new ArrayList<Method>();
+		List<Long> hotRates = new ArrayList<Long>();
+		for (int methodId=0; methodId<methodCount; methodId++) {
+			Method method = Method.getMethod(methodId);
+			if (method == null || method.disabled) continue;
+			long callCount = method.methodCallCount.sum();
+			long rate = (long)((callCount - lastCallCounts[methodId]) / seconds);
+			lastCallCounts[methodId] = callCount;
+			if (rate >= Options.governorMinRate && canDisable(method)) {
+				method.disabled = true;
+				hotMethods.add(method);
+				hotRates.add(rate);
+			}
+		}
+		disabledMethods.addAll(hotMethods);
+		report(hotMethods, hotRates, seconds);
+	}
+
+	boolean canDisable(Method method) {
+		return !method.enteredFromOtherPlugin && !method.isJob() && !method.isTraced();
+	}
+
+	void report(List<Method> hotMethods, List<Long> hotRates, double seconds) {
+		if (disabledMethods.isEmpty()) return;
+		if (!hotMethods.isEmpty()) {
+			System.out.println(String.format("#### Governor disabled %,d hot methods, %,d in total", hotMethods.size(), disabledMethods.size()));
+			List<Integer> order = new ArrayList<Integer>();
+			for (int n=0; n<hotMethods.size(); n++) order.add(n);
+			order.sort(Comparator.comparing(n -> -hotRates.get(n)));
+			for (int n=0; n<Math.min(10, order.size()); n++) {
+				int index = order.get(n);
+				System.out.println(String.format("####    %,12d calls/s  %s", hotRates.get(index), hotMethods.get(index).name));
+			}
+		}
+		long skippedCallCount = Method.skippedCallCount.sum();
+		double skippedRate = (skippedCallCount - lastSkippedCallCount) / seconds;
+		lastSkippedCallCount = skippedCallCount;
+		double savedMillis = skippedRate * Options.governorCallCost / 1000000.0;
+		Method.remoteUI.sendEvent(Constants.EVENT_GOVERNOR, 
+				String.format("disabled=%,d methods  skipped=%,.0f calls/s  saved=~%,.0fms/s", 
+						disabledMethods.size(), skippedRate, savedMillis));
+	}
+}
@@ -0,0 +1,188 @@
+package cacophonia.runtime;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import cacophonia.Constants;
+
+/**
+ * Links work that one plugin hands to another thread to the plugin that runs it, and measures how long
+ * the work was queued.
+ * <p>
+ * The agent tags the hand-off points of Eclipse, see cacophonia.agent.Transformer. <tt>Job.schedule</tt> and
+ * <tt>Display.asyncExec</tt> call {@link #handedOff(Object, long)} with the job or the runnable as the token,
+ * remembering the plugin that was running and the time. When the job's run method is entered, or the display
+ * runs the runnable, {@link #started(Edges, Object, int)} takes the token back and records a causal edge from
+ * the scheduling plugin to the plugin of the work, with the time it waited. The delay asked for with
+ * <tt>Job.schedule(long)</tt> is not counted as waiting.
+ * <p>
+ * Waits go into a {@link Histogram} per edge, kept in the same kind of table as {@link Latencies}. Every
+ * {@link Options#handOffInterval} milliseconds, the edges that waited longest in total are sent as one
+ * {@link Constants#EVENT_HAND_OFFS} message with one line per edge:
+ * <pre>
+ * kind	from	to	count	total	p50	p90	p99	max
+ * </pre>
+ * where kind is job or display, the fields are separated by tabs, and times are in nanoseconds.
+ * <p>
+ * Work that did not run yet is kept in a fixed table without locks, in one of a few slots next to the identity
+ * hash of its token. The tokens are held weakly, so the slots of collected work become free again. When all
+ * slots of a token are taken, the work in the first one is forgotten, one entry at a time.
+ */
+class HandOffs extends Thread {
+	static final int EDGE_CAPACITY = 4096;
+	static final int PENDING_CAPACITY = 8192;	// a power of two
+	static final int PROBE_COUNT = 8;
+	static final int REPORTED_COUNT = 10;
+	static final Edges JOBS = new Edges("job");
+	static final Edges DISPLAY = new Edges("display");
+	static volatile boolean enabled;
+	static AtomicReferenceArray<Pending> pending = new AtomicReferenceArray<Pending>(PENDING_CAPACITY);
+
+	/**
+	 * The wait of each scheduling plugin to running plugin edge, for one kind of hand-off.
+	 */
+	static class Edges {
+		String kind;
+		CallMatrix pairs = new CallMatrix(EDGE_CAPACITY);
+		AtomicReferenceArray<Histogram> waits = new AtomicReferenceArray<Histogram>(pairs.pairs.length());
+
+		Edges(String kind) {
+			this.kind = kind;
+		}
+
+		void record(int fromPluginId, int toPluginId, long nanos) {
+			int slot = pairs.slot(fromPluginId, toPluginId);
+			if (slot == -1) return;
+			Histogram histogram = waits.get(slot);
+			if (histogram == null) {
+				waits.compareAndSet(slot, null, new Histogram());
+				histogram = waits.get(slot);
+			}
+			histogram.record(nanos);
+		}
+	}
+
+	/**
+	 * A hand-off that did not run yet. The token is held weakly, so work that is cancelled or never runs
+	 * does not stay reachable, and its slot can be taken by a later hand-off.
+	 */
+	static class Pending extends WeakReference<Object> {
+		final int pluginId;
+		final long ready;
+
+		Pending(Object token, int pluginId, long ready) {
+			super(token);
+			this.pluginId = pluginId;
+			this.ready = ready;
+		}
+	}
+
+	static class Row {
+		String kind, from, to;
+		Histogram histogram;
+
+		Row(String kind, String from, String to, Histogram histogram) {
+			this.kind = kind;
+			this.from = from;
+			this.to = to;
+			this.histogram = histogram;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s\t%s\t%s\t%d\t%d\t%d\t%d\t%d\t%d", kind, from, to, histogram.count(), histogram.sum(),
+					histogram.percentile(50), histogram.percentile(90), histogram.percentile(99), histogram.max());
+		}
+	}
+
+	HandOffs() {
+		super("Cacophonia Hand-offs");
+		setDaemon(true);
+	}
+
+	static void startIfEnabled() {
+		if (Options.handOffInterval > 0) {
+			enabled = true;
+			new HandOffs().start();
+		}
+	}
+
+	/**
+	 * Called when work is handed to another thread, before the scheduling method is entered.
+	 */
+	static void handedOff(Object token, long delayMillis) {
+		int home = getHome(token);
+		int free = home;	// when all slots are taken, the work in the first one is forgotten
+		for (int n=PROBE_COUNT - 1; n>=0; n--) {
+			int slot = (home + n) & (PENDING_CAPACITY - 1);
+			Pending entry = pending.get(slot);
+			Object pendingToken = entry == null ? null : entry.get();
+			if (pendingToken == token) return;	// scheduling waiting work again does not move it
+			if (pendingToken == null) free = slot;
+		}
+		long ready = System.nanoTime() + Math.max(0, delayMillis) * 1000000;
+		pending.set(free, new Pending(token, ThreadState.get().currentPlugin(), ready));
+	}
+
+	/**
+	 * Called when the work starts to run, on the thread that runs it.
+	 */
+	static void started(Edges edges, Object token, int pluginId) {
+		int home = getHome(token);
+		for (int n=0; n<PROBE_COUNT; n++) {
+			int slot = (home + n) & (PENDING_CAPACITY - 1);
+			Pending handOff = pending.get(slot);
+			if (handOff == null || handOff.get() != token) continue;
+			if (pending.compareAndSet(slot, handOff, null)) {	// else another thread started it
+				edges.record(handOff.pluginId, pluginId, Math.max(0, System.nanoTime() - handOff.ready));
+			}
+			return;
+		}
+	}
+
+	static int getHome(Object token) {
+		return CallMatrix.hash(System.identityHashCode(token)) & (PENDING_CAPACITY - 1);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				Thread.sleep(Options.handOffInterval);
+				String report = report();
+				if (!report.isEmpty()) {
+					Method.remoteUI.sendEvent(Constants.EVENT_HAND_OFFS, report);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Drains all histograms and returns the lines for the edges that waited longest.
+	 */
+	static String report() {
+		List<Row> rows = new ArrayList<Row>();
+		for (Edges edges : List.of(JOBS, DISPLAY)) {
+			for (int slot=0; slot<edges.waits.length(); slot++) {
+				Histogram histogram = edges.waits.get(slot);
+				if (histogram == null) continue;
+				Histogram snapshot = new Histogram();
+				histogram.drainTo(snapshot);
+				if (snapshot.count() == 0) continue;
+				long pair = edges.pairs.pairs.get(slot);
+				rows.add(new Row(edges.kind, Plugins.getName((int)(pair >>> 32)), Plugins.getName((int)pair), snapshot));
+			}
+		}
+		rows.sort(Comparator.comparing(row -> -row.histogram.sum()));
+		StringBuilder report = new StringBuilder();
+		for (Row row : rows.subList(0, Math.min(REPORTED_COUNT, rows.size()))) {
+			report.append(row).append('\n');
+		}
+		return report.toString();
+	}
+}
@@ -0,0 +1,79 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+
+class HandOffsTest {
+	static final long MILLIS = 1000000;
+
+	@Test
+	void test_wait_is_recorded_from_the_scheduling_plugin() throws Exception {
+		int editor = Plugins.register("org.handoff.editor");
+		int builder = Plugins.register("org.handoff.builder");
+		ThreadState state = ThreadState.get();
+		Object job = new Object();
+		state.push(1, editor);
+		try {
+			HandOffs.handedOff(job, 0);
+			HandOffs.handedOff(job, 0);	// scheduled again while waiting
+		} finally {
+			state.pop(1);
+		}
+		Thread.sleep(20);
+		HandOffs.started(HandOffs.JOBS, job, builder);
+		HandOffs.started(HandOffs.JOBS, job, builder);	// ran once per hand-off only
+		HandOffs.started(HandOffs.DISPLAY, new Object(), builder);
+
+		String line = HandOffs.report().trim();
+		String fields[] = line.split("\t");
+		assertEquals("job", fields[0]);
+		assertEquals("org.handoff.editor", fields[1]);
+		assertEquals("org.handoff.builder", fields[2]);
+		assertEquals("1", fields[3]);
+		assertTrue(Long.parseLong(fields[4]) >= 20 * MILLIS, line);
+		assertEquals("", HandOffs.report());
+	}
+
+	@Test
+	void test_requested_delay_is_not_a_wait() {
+		int from = Plugins.register("org.handoff.delayed.from");
+		int to = Plugins.register("org.handoff.delayed.to");
+		ThreadState state = ThreadState.get();
+		Object job = new Object();
+		state.push(2, from);
+		try {
+			HandOffs.handedOff(job, 60000);
+		} finally {
+			state.pop(2);
+		}
+		HandOffs.started(HandOffs.JOBS, job, to);
+		String fields[] = HandOffs.report().trim().split("\t");
+		assertEquals("org.handoff.delayed.from", fields[1]);
+		assertEquals("0", fields[4]);
+	}
+
+	@Test
+	void test_a_full_table_forgets_single_hand_offs() {
+		int from = Plugins.register("org.handoff.full.from");
+		int to = Plugins.register("org.handoff.full.to");
+		ThreadState state = ThreadState.get();
+		Object jobs[] = new Object[HandOffs.PENDING_CAPACITY + 1];
+		state.push(3, from);
+		try {
+			for (int n=0; n<jobs.length; n++) {
+				jobs[n] = new Object();
+				HandOffs.handedOff(jobs[n], 0);
+			}
+		} finally {
+			state.pop(3);
+		}
+		for (Object job : jobs) {
+			HandOffs.started(HandOffs.DISPLAY, job, to);
+		}
+		String fields[] = HandOffs.report().trim().split("\t");
+		assertEquals("display", fields[0]);
+		assertTrue(Long.parseLong(fields[3]) > HandOffs.PENDING_CAPACITY / 2, fields[3]);
+	}
+}
@@ -0,0 +1,96 @@
+package cacophonia.runtime;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A log-bucketed histogram of durations in nanoseconds, in the style of HdrHistogram.
+ * <p>
+ * Each power of two is split into {@link #SUB_BUCKETS} linear buckets, so a recorded value is off by at most 
+ * 12.5%. Values below {@link #SUB_BUCKETS} get a bucket of their own, and values of 2^{@link #MAX_EXPONENT} 
+ * nanoseconds or more, over two minutes, share the last bucket. Threads record into it without locking.
+ * The job tables of cacophonia.analysis use it too.
+ */
+public class Histogram {
+	static final int SUB_BUCKET_BITS = 3;
+	static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	static final int MAX_EXPONENT = 36;
+	static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+	final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT + 1);	// the last slot holds the sum
+	private static final int SUM = BUCKET_COUNT;
+
+	public void record(long nanos) {
+		counts.getAndIncrement(index(nanos));
+		counts.getAndAdd(SUM, nanos);
+	}
+
+	/**
+	 * Adds all counts of this histogram to the target and resets them.
+	 */
+	void drainTo(Histogram target) {
+		for (int n=0; n<=BUCKET_COUNT; n++) {
+			long count = counts.getAndSet(n, 0);
+			if (count != 0) target.counts.getAndAdd(n, count);
+		}
+	}
+
+	/**
+	 * Adds all counts of this histogram to the target.
+	 */
+	public void addTo(Histogram target) {
+		for (int n=0; n<=BUCKET_COUNT; n++) {
+			long count = counts.get(n);
+			if (count != 0) target.counts.getAndAdd(n, count);
+		}
+	}
+
+	public long count() {
+		long count = 0;
+		for (int n=0; n<BUCKET_COUNT; n++) count += counts.get(n);
+		return count;
+	}
+
+	public long sum() {
+		return counts.get(SUM);
+	}
+
+	/**
+	 * Returns the highest value in the bucket that holds the given percentile, or 0 when the histogram is empty.
+	 */
+	public long percentile(double percentile) {
+		long count = count();
+		if (count == 0) return 0;
+		long rank = Math.max(1, (long)Math.ceil(count * percentile / 100));
+		long seen = 0;
+		for (int n=0; n<BUCKET_COUNT; n++) {
+			seen += counts.get(n);
+			if (seen >= rank) return highestValue(n);
+		}
+		return highestValue(BUCKET_COUNT - 1);
+	}
+
+	public long max() {
+		for (int n=BUCKET_COUNT - 1; n>=0; n--) {
+			if (counts.get(n) != 0) return highestValue(n);
+		}
+		return 0;
+	}
+
+	static int index(long nanos) {
+		if (nanos < SUB_BUCKETS) return (int)Math.max(0, nanos);
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		if (exponent > MAX_EXPONENT) return BUCKET_COUNT - 1;
+		int subBucket = (int)(nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+
+	static long lowestValue(int index) {
+		if (index < SUB_BUCKETS) return index;
+		int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		return (long)(SUB_BUCKETS + index % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+	}
+
+	static long highestValue(int index) {
+		if (index == BUCKET_COUNT - 1) return Long.MAX_VALUE;
+		return lowestValue(index + 1) - 1;
+	}
+}
@@ -0,0 +1,61 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+
+class HistogramTest {
+
+	@Test
+	void test_buckets_are_contiguous() {
+		for (int index=0; index<Histogram.BUCKET_COUNT - 1; index++) {
+			assertEquals(index, Histogram.index(Histogram.lowestValue(index)));
+			assertEquals(index, Histogram.index(Histogram.highestValue(index)));
+			assertEquals(Histogram.highestValue(index) + 1, Histogram.lowestValue(index + 1));
+		}
+	}
+
+	@Test
+	void test_relative_error_is_bounded() {
+		for (long value=1; value<1L << Histogram.MAX_EXPONENT; value=value * 3 + 1) {
+			int index = Histogram.index(value);
+			long width = Histogram.highestValue(index) - Histogram.lowestValue(index);
+			assertTrue(width <= value / Histogram.SUB_BUCKETS, "bucket too wide for " + value);
+		}
+	}
+
+	@Test
+	void test_huge_values_go_into_last_bucket() {
+		assertEquals(Histogram.BUCKET_COUNT - 1, Histogram.index(Long.MAX_VALUE));
+		assertEquals(0, Histogram.index(-5));
+	}
+
+	@Test
+	void test_percentiles() {
+		Histogram histogram = new Histogram();
+		for (int n=1; n<=100; n++) {
+			histogram.record(n * 1000);
+		}
+		assertEquals(100, histogram.count());
+		assertEquals(5050 * 1000, histogram.sum());
+		long p50 = histogram.percentile(50);
+		assertTrue(p50 >= 50000 && p50 <= 50000 * 1.125, "p50=" + p50);
+		long p99 = histogram.percentile(99);
+		assertTrue(p99 >= 99000 && p99 <= 99000 * 1.125, "p99=" + p99);
+		assertTrue(histogram.max() >= 100000);
+	}
+
+	@Test
+	void test_drain_moves_counts() {
+		Histogram histogram = new Histogram();
+		histogram.record(10);
+		histogram.record(20);
+		Histogram snapshot = new Histogram();
+		histogram.drainTo(snapshot);
+		assertEquals(0, histogram.count());
+		assertEquals(0, histogram.sum());
+		assertEquals(2, snapshot.count());
+		assertEquals(30, snapshot.sum());
+	}
+}
@@ -0,0 +1,56 @@
+package cacophonia.runtime;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streaming statistics of the durations of one kind of Eclipse job, keyed by job name.
+ * <p>
+ * Each finished run is added to a {@link Histogram}, so the count, total and approximate percentiles take
+ * constant memory, however many times the job runs. The maximum is kept exactly.
+ * <p>
+ * Each run is sent to the UI as a {@link cacophonia.Constants#EVENT_JOB} record, with the count, total and
+ * maximum of its job including that run, and the percentiles of the runs before it, so the UI can tell
+ * whether this run was slow. A run always falls in its own bucket, so percentiles that include it are at
+ * least as high as the run. The record has tab-separated fields:
+ * <pre>
+ * name	className	endMillis	durationNanos	count	totalNanos	maxNanos	p50	p90	p99
+ * </pre>
+ */
+class JobStatistics {
+	private static ConcurrentHashMap<String,JobStatistics> statistics = new ConcurrentHashMap<String,JobStatistics>();
+
+	Histogram durations = new Histogram();
+	AtomicLong max = new AtomicLong();
+
+	static JobStatistics get(String name) {
+		return statistics.computeIfAbsent(name, key -> new JobStatistics());
+	}
+
+	/**
+	 * Adds a finished run and returns its record.
+	 */
+	static String finished(String name, String className, long endMillis, long durationNanos) {
+		JobStatistics job = get(name);
+		long p50 = job.durations.percentile(50);
+		long p90 = job.durations.percentile(90);
+		long p99 = job.durations.percentile(99);
+		job.add(durationNanos);
+		return String.format("%s\t%s\t%d\t%d\t%d\t%d\t%d\t%d\t%d\t%d", 
+				name.replace('\t', ' ').replace('\n', ' '),
+				className,
+				endMillis,
+				durationNanos,
+				job.durations.count(),
+				job.durations.sum(),
+				job.max.get(),
+				p50,
+				p90,
+				p99);
+	}
+
+	void add(long durationNanos) {
+		durations.record(durationNanos);
+		max.accumulateAndGet(durationNanos, Math::max);
+	}
+}
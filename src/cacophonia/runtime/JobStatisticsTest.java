@@ -0,0 +1,58 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+
+class JobStatisticsTest {
+
+	@Test
+	void test_records_carry_running_statistics() {
+		String record = null;
+		for (int n=1; n<=100; n++) {
+			record = JobStatistics.finished("Refresh\tworkspace", "org.example.RefreshJob", 1234, n * 1000000L);
+		}
+		String fields[] = record.split("\t");
+		assertEquals(10, fields.length);
+		assertEquals("Refresh workspace", fields[0]);
+		assertEquals("org.example.RefreshJob", fields[1]);
+		assertEquals("1234", fields[2]);
+		assertEquals("100000000", fields[3]);
+		assertEquals("100", fields[4]);
+		assertEquals(5050 * 1000000L, Long.parseLong(fields[5]));
+		assertEquals(100000000L, Long.parseLong(fields[6]));
+		long p50 = Long.parseLong(fields[7]);
+		assertTrue(p50 >= 50000000L && p50 <= 50000000L * 1.125);
+	}
+
+	@Test
+	void test_an_outlier_is_slower_than_the_p99_of_earlier_runs() {
+		String record = null;
+		for (int n=0; n<10; n++) {
+			record = JobStatistics.finished("Outlier", "org.example.OutlierJob", 0, 1000000L);
+			assertFalse(isSlow(record));
+		}
+		record = JobStatistics.finished("Outlier", "org.example.OutlierJob", 0, 50000000L);
+		assertTrue(isSlow(record));
+		assertEquals(50000000L, Long.parseLong(record.split("\t")[6]));
+	}
+
+	/**
+	 * The check of cacophonia.ui.JobManager, after at least its minimum number of runs.
+	 */
+	boolean isSlow(String record) {
+		String fields[] = record.split("\t");
+		return Long.parseLong(fields[4]) > 10 && Long.parseLong(fields[3]) > Long.parseLong(fields[9]);
+	}
+
+	@Test
+	void test_jobs_are_kept_apart() {
+		JobStatistics.finished("Build", "org.example.BuildJob", 0, 5);
+		JobStatistics.finished("Build", "org.example.BuildJob", 0, 7);
+		JobStatistics.finished("Index", "org.example.IndexJob", 0, 100);
+		assertEquals(2, JobStatistics.get("Build").durations.count());
+		assertEquals(7, JobStatistics.get("Build").max.get());
+		assertEquals(1, JobStatistics.get("Index").durations.count());
+	}
+}
@@ -0,0 +1,141 @@
+package cacophonia.runtime;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import cacophonia.Constants;
+
+/**
+ * Measures how long calls take, using {@link System#nanoTime()}, and sends the percentiles to the UI.
+ * <p>
+ * The duration of each recorded call goes into a {@link Histogram} of its method, for at most
+ * {@link Options#latencyMethodCapacity} methods at a time. A method that was not called during an interval
+ * gives its histogram back, so a method that gets busy later is measured too. A call made from another
+ * plugin also goes into the histogram of that plugin-to-plugin edge, kept in the same kind of table as 
+ * {@link CallMatrix}. Every {@link Options#latencyInterval} milliseconds, the histograms are drained and
+ * the edges are rolled up per called plugin, which shows how much time is spent behind each plugin boundary.
+ * The slowest plugins, edges and methods, by total time, are sent as one {@link Constants#EVENT_LATENCY} 
+ * message with one line per entry:
+ * <pre>
+ * kind	name	count	total	p50	p90	p99	max
+ * </pre>
+ * where kind is plugin, edge, or method, the fields are separated by tabs, and times are in nanoseconds.
+ */
+class Latencies extends Thread {
+	static final int EDGE_CAPACITY = 4096;
+	static final int REPORTED_COUNT = 10;
+	static volatile boolean enabled;
+	static CallMatrix edges = new CallMatrix(EDGE_CAPACITY);
+	static AtomicReferenceArray<Histogram> edgeLatencies = new AtomicReferenceArray<Histogram>(edges.pairs.length());
+	static AtomicInteger methodLatencyCount = new AtomicInteger();	// methods with a histogram
+
+	static class Row {
+		String kind, name;
+		Histogram histogram;
+
+		Row(String kind, String name, Histogram histogram) {
+			this.kind = kind;
+			this.name = name;
+			this.histogram = histogram;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s\t%s\t%d\t%d\t%d\t%d\t%d\t%d", kind, name, histogram.count(), histogram.sum(),
+					histogram.percentile(50), histogram.percentile(90), histogram.percentile(99), histogram.max());
+		}
+	}
+
+	Latencies() {
+		super("Cacophonia Latencies");
+		setDaemon(true);
+	}
+
+	static void startIfEnabled() {
+		if (Options.latencyInterval > 0) {
+			enabled = true;
+			new Latencies().start();
+		}
+	}
+
+	/**
+	 * Called on leave, for a call that was timed on enter.
+	 */
+	static void record(Method method, int fromPluginId, int toPluginId, long nanos) {
+		Histogram latency = method.getLatency();
+		if (latency != null) latency.record(nanos);
+		if (fromPluginId == toPluginId) return;
+		int slot = edges.slot(fromPluginId, toPluginId);
+		if (slot == -1) return;
+		Histogram histogram = edgeLatencies.get(slot);
+		if (histogram == null) {
+			edgeLatencies.compareAndSet(slot, null, new Histogram());
+			histogram = edgeLatencies.get(slot);
+		}
+		histogram.record(nanos);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				Thread.sleep(Options.latencyInterval);
+				String report = report();
+				if (!report.isEmpty()) {
+					Method.remoteUI.sendEvent(Constants.EVENT_LATENCY, report);
+				}
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Drains all histograms and returns the lines for the slowest entries of each kind.
+	 */
+	static String report() {
+		List<Row> edgeRows = new ArrayList<Row>();
+		Map<Integer,Histogram> pluginLatencies = new HashMap<Integer,Histogram>();
+		for (int slot=0; slot<edgeLatencies.length(); slot++) {
+			Histogram histogram = edgeLatencies.get(slot);
+			if (histogram == null) continue;
+			Histogram snapshot = new Histogram();
+			histogram.drainTo(snapshot);
+			if (snapshot.count() == 0) continue;
+			long pair = edges.pairs.get(slot);
+			int fromPluginId = (int)(pair >>> 32), toPluginId = (int)pair;
+			edgeRows.add(new Row("edge", Plugins.getName(fromPluginId) + " -> " + Plugins.getName(toPluginId), snapshot));
+			snapshot.addTo(pluginLatencies.computeIfAbsent(toPluginId, id -> new Histogram()));
+		}
+		List<Row> pluginRows = new ArrayList<Row>();
+		for (Map.Entry<Integer,Histogram> entry : pluginLatencies.entrySet()) {
+			pluginRows.add(new Row("plugin", Plugins.getName(entry.getKey()), entry.getValue()));
+		}
+		List<Row> methodRows = new ArrayList<Row>();
+		int methodCount = Method.getMethodCount();
+		for (int methodId=0; methodId<methodCount; methodId++) {
+			Method method = Method.getMethod(methodId);
+			if (method == null || method.latency == null) continue;
+			Histogram snapshot = new Histogram();
+			method.latency.drainTo(snapshot);
+			if (snapshot.count() == 0) {
+				method.releaseLatency();
+				continue;
+			}
+			methodRows.add(new Row("method", method.name, snapshot));
+		}
+		StringBuilder report = new StringBuilder();
+		for (List<Row> rows : List.of(pluginRows, edgeRows, methodRows)) {
+			rows.sort(Comparator.comparing(row -> -row.histogram.sum()));
+			for (Row row : rows.subList(0, Math.min(REPORTED_COUNT, rows.size()))) {
+				report.append(row).append('\n');
+			}
+		}
+		return report.toString();
+	}
+}
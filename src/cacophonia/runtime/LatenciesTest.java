@@ -0,0 +1,43 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+
+class LatenciesTest {
+
+	Method getMethod(String name) {
+		int methodId = Method.register(name);
+		Method.enter(methodId, null);
+		Method.leave(methodId, null);
+		return Method.getMethod(methodId);
+	}
+
+	@Test
+	void test_idle_methods_make_room_for_busy_ones() {
+		int capacity = Options.latencyMethodCapacity;
+		Options.latencyMethodCapacity = Latencies.methodLatencyCount.get() + 2;
+		try {
+			Method first = getMethod("org.latency.a.A.first()");
+			Method second = getMethod("org.latency.a.A.second()");
+			Method third = getMethod("org.latency.a.A.third()");
+			Latencies.record(first, 1, 1, 100);
+			Latencies.record(second, 1, 1, 200);
+			Latencies.record(third, 1, 1, 300);
+			assertNull(third.latency);
+
+			String report = Latencies.report();
+			assertTrue(report.contains("method\torg.latency.a.A.first()\t1\t100\t"), report);
+			assertFalse(report.contains("third"));
+
+			Latencies.record(second, 1, 1, 200);
+			Latencies.report();	// first was idle
+			assertNull(first.latency);
+			Latencies.record(third, 1, 1, 300);
+			assertTrue(Latencies.report().contains("method\torg.latency.a.A.third()\t1\t300\t"));
+		} finally {
+			Options.latencyMethodCapacity = capacity;
+		}
+	}
+}
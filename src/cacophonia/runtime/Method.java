@@ -2,10 +2,13 @@ package cacophonia.runtime;
 
 import java.lang.reflect.Field;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Stack;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 
 import cacophonia.Constants;
 
@@ -14,64 +17,72 @@ import cacophonia.Constants;
  * 
  * Keeps track of callstacks to determine whether a call is made from one plugin to another. In that case,
  * {@link RemoteUI} is used to send an event to the UI that runs in a different process.
+ * <p>
+ * Each method is registered once, when its class is instrumented, and gets a dense integer ID. The
+ * instrumented code passes that ID, so finding the {@link Method} for a call is a plain array lookup.
+ * <p>
+ * Calls are made on many threads at once. The common path takes no lock: call stacks live in a per-thread
+ * {@link ThreadState}, counters are {@link LongAdder}s, and the set of traced plugins is replaced as a whole
+ * whenever it changes.
  */
 class Method {
-	private static Hashtable<String,Method> methods = new Hashtable<String,Method>();
-	private static ThreadLocal<Stack<String>> pluginStack = ThreadLocal.withInitial(() -> new Stack<String>());
-	private static String lastPlugin = "eclipse.main";
-	private static RemoteUI remoteUI = new RemoteUI();
-	private static int callDepth = 0;
-	private static HashSet<String> pluginNames = new HashSet<String>();
-	private static HashSet<String> tracedPlugins = new HashSet<String>();
+	private static HashMap<String,Integer> methodIds = new HashMap<String,Integer>();
+	private static ArrayList<String> methodNames = new ArrayList<String>();
+	private static volatile AtomicReferenceArray<Method> methods = new AtomicReferenceArray<Method>(1024);
+	static RemoteUI remoteUI = new RemoteUI();
+	private static volatile Set<String> tracedPlugins = new HashSet<String>();
+	private static volatile int traceGeneration;
 
+	int id;
 	String name;
 	String fileName = "???";
-	int methodCallCount;
-	static int totalPluginCallCount;
-	static int totalMethodCallCount;
-	Field fields[] = {};
+	LongAdder methodCallCount = new LongAdder();
+	boolean enteredFromOtherPlugin;	// sticky, written once so the cache line is not dirtied on every transition
+	volatile boolean disabled;	// set by the Governor for hot methods that never see a plugin transition
+	volatile Histogram latency;	// created when a call is timed, and released when idle, see Latencies
+	static LongAdder totalPluginCallCount = new LongAdder();
+	static LongAdder totalMethodCallCount = new LongAdder();
+	static LongAdder skippedCallCount = new LongAdder();	// calls of all disabled methods, to estimate what the Governor saved
 
 	private String pluginName = "???";
+	private int pluginId;
 	private Field jobNameField;
-	private double jobStartTime;
-	static int jobCount;
+	private boolean isJobRun;
 	
-	public static void enter(String methodName, Object object) {
-		findMethod(methodName, object).enter(object);
+	public static void enter(int methodId, Object object) {
+		findMethod(methodId, object).enter(object);
 	}
 
-	public static void leave(String methodName, Object object) {
-		findMethod(methodName, object).leave(object);
+	public static void leave(int methodId, Object object) {
+		findMethod(methodId, object).leave(object);
 	}
 		
-	public Method(String name, Object object) {
+	public Method(int id, String name, Object object) {
+		this.id = id;
 		this.name = name;
 		if (object == null) {
 			// handle static method, which does not have an object to get the class from. Strip off class/method
 			pluginName = name.substring(0, name.lastIndexOf("("));
 			pluginName = pluginName.substring(0, pluginName.lastIndexOf("."));
 			pluginName = pluginName.substring(0, pluginName.lastIndexOf("."));
+			pluginId = Plugins.register(pluginName);
 			return;
 		}
 		try {
 			ClassLoader classLoader = object.getClass().getClassLoader();
-			try {
-				pluginName = classLoader.toString().split("\\[")[1].split(":")[0];
-			} catch (Exception e) {
-				pluginName = classLoader.toString();
-			}
+			pluginName = Plugins.nameOf(classLoader);
 			String[] nameParts = object.getClass().getName().split("\\.");
 			fileName = nameParts[nameParts.length - 1].split("\\$")[0] + ".java";
-			fields = object.getClass().getDeclaredFields();
 			jobNameField = getJobNameField(object);
-			if (!pluginNames.contains(pluginName)) {
+			isJobRun = jobNameField != null && name.endsWith(".run(org.eclipse.core.runtime.IProgressMonitor)");
+			if (!Plugins.contains(pluginName)) {
 				sendPlugin(pluginName, classLoader);
 			}
 		} catch(Exception e) {
 			e.printStackTrace();
 			pluginName = fileName = object.getClass().getName();
 		}
-		pluginNames.add(pluginName);
+		pluginId = Plugins.register(pluginName);
 	}
 	
 	private void sendPlugin(String pluginName, ClassLoader classLoader) throws SecurityException, IllegalArgumentException, IllegalAccessException {
@@ -99,10 +110,15 @@ class Method {
 		}
 	}
 
+	/**
+	 * Returns the name field of a job, which is any subclass of Job, or null for other objects.
+	 */
 	Field getJobNameField(Object object) {
-		if (!object.getClass().getSuperclass().getName().equals("org.eclipse.core.runtime.jobs.Job")) return null;
-		Class<? extends Object> clazz = object.getClass();
-		while (clazz != null) {
+		Class<?> clazz = object.getClass().getSuperclass();
+		while (clazz != null && !clazz.getName().equals("org.eclipse.core.runtime.jobs.Job")) {
+			clazz = clazz.getSuperclass();
+		}
+		while (clazz != null) {	// the name is declared by Job or by InternalJob
 			try {
 				Field field = clazz.getDeclaredField("name");
 				field.setAccessible(true);
@@ -116,104 +132,189 @@ class Method {
 	}
 	
 	public void enter(Object object) {
-		methodCallCount++;
-		synchronized (tracedPlugins) {
-			if (tracedPlugins.contains(pluginName)) {
-				if (callDepth == 0) System.out.println(new Date());
-				for (int n=0; n<callDepth; n++) System.out.print("    ");
-				System.out.println(String.format("at %s(%s:1) - %d calls {", name, fileName, methodCallCount));
-				callDepth++;
-				for (Field field : fields) {
-				    field.setAccessible(true);
-				    Object value;
-					try {
-						value = field.get(object);
-						Object printableValue = field.getType().isPrimitive() ? value : object.getClass().getName();
-						String fieldDetail = field.getName() + "=" + printableValue;
-				    	for (int n=0; n<callDepth; n++) System.out.print("    ");
-						System.out.println(fieldDetail);
-					} catch (IllegalArgumentException | IllegalAccessException e) {
-						// ignore
-					} 
-				}
+		if (disabled && !isTraced()) {
+			skippedCallCount.increment();
+			return;
+		}
+		ThreadState state = ThreadState.get();
+		int callerPluginId = state.currentPlugin();
+		state.push(id, pluginId);
+		if (callerPluginId != pluginId) {
+			if (!enteredFromOtherPlugin) enteredFromOtherPlugin = true;
+			if (PluginTimes.enabled) {
+				PluginTimes.entered(state, callerPluginId, pluginId);
+			}
+			if (Allocations.enabled) {
+				Allocations.entered(state);
 			}
-			if (!lastPlugin.equals(pluginName)) {
-				Stack<String> stack = pluginStack.get();
-				stack.push(pluginName);
-				remoteUI.sendEvent(Constants.EVENT_PLUGIN_TO_PLUGIN_CALL, String.format("%s %s", lastPlugin, pluginName));
-				totalPluginCallCount++;
+		}
+		if (isJobRun) {
+			state.jobStartTimes[state.depth - 1] = System.nanoTime();
+			if (HandOffs.enabled) {
+				HandOffs.started(HandOffs.JOBS, object, pluginId);
 			}
-			lastPlugin = pluginName;
-			if (++totalMethodCallCount % 100000 == 0) {
-				String maxMemory = Util.formatSize(Runtime.getRuntime().maxMemory());
-				String totalMemory = Util.formatSize(Runtime.getRuntime().totalMemory());
-
-				String stats = String.format("memory=%s/%s  #method=%,d  #messages=%,d  #plugins=%,d",
-						totalMemory,
-						maxMemory,
-						totalMethodCallCount,
-						totalPluginCallCount,
-						pluginNames.size()
-				);
-				remoteUI.sendEvent(Constants.EVENT_STATISTICS, stats);
+		}
+		if (isTraced()) {
+			if (state.traceGeneration != traceGeneration) {
+				state.traceGeneration = traceGeneration;
+				state.callDepth = 0;
 			}
-			if (jobNameField != null) {
-				jobStartTime = System.currentTimeMillis();
+			EventBuffers.publish(Constants.EVENT_TRACE_ENTER, id, state.callDepth, methodCallCount.sum(), FieldAccessors.describe(object));
+			state.callDepth++;
+		}
+		int weight = Sampler.sample(state);
+		if (weight == 0) return;
+		methodCallCount.add(weight);
+		totalMethodCallCount.add(weight);
+		if (callerPluginId != pluginId) {
+			remoteUI.sendPluginCall(callerPluginId, pluginId, weight);
+			totalPluginCallCount.add(weight);
+			if (MethodCalls.enabled) {
+				MethodCalls.called(state, weight);
 			}
 		}
+		if (Latencies.enabled) {
+			state.startTimes[state.depth - 1] = System.nanoTime();
+		}
 	}
 
 	public void leave(Object object) {
-		synchronized (tracedPlugins) {
-			if (tracedPlugins.contains(pluginName)) {
-				callDepth = Math.max(0,  callDepth - 1);
-				if (callDepth > 32) callDepth = 0;
-				for (int n=0; n<callDepth; n++) System.out.print("    ");
-				System.out.println(String.format("}"));
+		if (disabled && !isTraced()) return;
+		ThreadState state = ThreadState.get();
+		if (isTraced()) {
+			state.callDepth = Math.max(0,  state.callDepth - 1);
+			if (state.callDepth > 32) state.callDepth = 0;
+			EventBuffers.publish(Constants.EVENT_TRACE_LEAVE, id, state.callDepth, 0, null);
+		}
+		int depth = state.depth;
+		int frame = state.pop(id);
+		if (frame != -1 && state.startTimes[frame] != 0) {
+			Latencies.record(this, state.currentPlugin(), pluginId, System.nanoTime() - state.startTimes[frame]);
+		}
+		if (frame != -1 && PluginTimes.enabled) {
+			PluginTimes.left(state, frame, depth);
+		}
+		if (frame != -1 && Allocations.enabled) {
+			Allocations.left(state, depth);
+		}
+		if (isJobRun && frame != -1) {
+			long duration = System.nanoTime() - state.jobStartTimes[frame];
+			try {
+				String name = (String) jobNameField.get(object);
+				String className = object.getClass().getName();
+				System.out.println(String.format("#### Run Job %s, %s \"%s\"    (%s)", when(), Util.formatNanos(duration), name, className));
+				remoteUI.sendEvent(Constants.EVENT_JOB, JobStatistics.finished(name, className, System.currentTimeMillis(), duration));
+			} catch (IllegalArgumentException | IllegalAccessException e) {
+				e.printStackTrace();
 			}
-			if (lastPlugin.equals(pluginName)) {
-				Stack<String> stack = pluginStack.get();
-				if (!stack.isEmpty()) lastPlugin = stack.pop();
+		}
+	}
+
+	boolean isTraced() {
+		Set<String> traced = tracedPlugins;
+		return !traced.isEmpty() && traced.contains(pluginName);
+	}
+
+	private String when() {
+		return new SimpleDateFormat("HH:mm:ss").format(new Date());
+	}
+
+	static int register(String methodName) {
+		synchronized (methodIds) {
+			Integer methodId = methodIds.get(methodName);
+			if (methodId == null) {
+				methodId = methodNames.size();
+				methodNames.add(methodName);
+				methodIds.put(methodName, methodId);
+				if (methodId >= methods.length()) {
+					AtomicReferenceArray<Method> grown = new AtomicReferenceArray<Method>(2 * methods.length());
+					for (int n=0; n<methods.length(); n++) {
+						grown.set(n, methods.get(n));
+					}
+					methods = grown;
+				}
 			}
-			if (jobNameField != null && name.endsWith(".run(org.eclipse.core.runtime.IProgressMonitor)")) {
-				try {
-					String name = (String) jobNameField.get(object);
-					String message = String.format("%05d %s, %.1fs \"%s\"    (%s)",
-							jobCount++,
-							when(),
-							(System.currentTimeMillis() - jobStartTime) / 1000,
-							name,
-							object.getClass().getName());
-					System.out.println("#### Run Job " + message);
-					remoteUI.sendEvent(Constants.EVENT_JOB, message);
-				} catch (IllegalArgumentException | IllegalAccessException e) {
-					e.printStackTrace();
+			return methodId;
+		}
+	}
+
+	static int getMethodCount() {
+		synchronized (methodIds) {
+			return methodNames.size();
+		}
+	}
+
+	/**
+	 * Returns the method with the given ID, or null when it was not called yet.
+	 */
+	static Method getMethod(int methodId) {
+		return methods.get(methodId);
+	}
+
+	/**
+	 * Returns the histogram of this method's durations, or null when too many methods have one already.
+	 */
+	Histogram getLatency() {
+		Histogram histogram = latency;
+		if (histogram == null && Latencies.methodLatencyCount.get() < Options.latencyMethodCapacity) {
+			synchronized (this) {
+				if (latency == null && Latencies.methodLatencyCount.incrementAndGet() <= Options.latencyMethodCapacity) {
+					latency = new Histogram();
+				} else if (latency == null) {
+					Latencies.methodLatencyCount.decrementAndGet();
 				}
+				histogram = latency;
 			}
 		}
+		return histogram;
 	}
-	
-	private String when() {
-		return new SimpleDateFormat("HH:mm:ss").format(new Date());
+
+	/**
+	 * Gives the histogram back, for a method that was not called for a while.
+	 */
+	synchronized void releaseLatency() {
+		if (latency == null) return;
+		latency = null;
+		Latencies.methodLatencyCount.decrementAndGet();
 	}
 
-	private static Method findMethod(String methodName, Object object) {
-		Method method = methods.get(methodName);
+	String getPluginName() {
+		return pluginName;
+	}
+
+	boolean isJob() {
+		return jobNameField != null;
+	}
+
+	private static Method findMethod(int methodId, Object object) {
+		Method method = methods.get(methodId);
 		if (method == null) {
-			method = new Method(methodName, object);
-			methods.put(methodName, method);
+			method = createMethod(methodId, object);
 		}
 		return method;
 	}
 
-	public static void trace(String plugin, boolean trace) {
+	private static Method createMethod(int methodId, Object object) {
+		synchronized (methodIds) {
+			Method method = methods.get(methodId);
+			if (method == null) {
+				method = new Method(methodId, methodNames.get(methodId), object);
+				methods.set(methodId, method);
+			}
+			return method;
+		}
+	}
+
+	public static synchronized void trace(String plugin, boolean trace) {
+		Set<String> traced = new HashSet<String>(tracedPlugins);
 		if (trace) {
-			tracedPlugins.add(plugin);
-			System.out.println("####### Enable tracing for " + plugin);
+			traced.add(plugin);
+			System.out.println("####### Enable tracing for " + plugin + ", see " + TraceFile.getDirectory());
 		} else {
-			tracedPlugins.remove(plugin);
+			traced.remove(plugin);
 			System.out.println("####### Disable tracing for " + plugin);
 		}
-		Method.callDepth = 0;
+		tracedPlugins = traced;
+		traceGeneration++;
 	}
 }
\ No newline at end of file
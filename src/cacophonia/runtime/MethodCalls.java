@@ -0,0 +1,86 @@
+package cacophonia.runtime;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import cacophonia.Constants;
+
+/**
+ * Counts the calls from a method into a method of another plugin, to show which methods make up the calls
+ * between two plugins.
+ * <p>
+ * The (caller, callee) pairs of method IDs are counted in a {@link CallMatrix}, a fixed-size open-addressing table
+ * of primitive longs, so the memory used is bounded by {@link Options#methodCallCapacity} however many methods
+ * Eclipse calls. When the table is full, calls of new pairs are only counted as missed. Counts are kept for the
+ * whole session.
+ * <p>
+ * The UI asks for the calls of one plugin, or of the edge between two plugins, by sending
+ * {@link Constants#EVENT_METHOD_CALLS} with the fragments of each plugin, separated by a tab. The answer is an
+ * EVENT_METHOD_CALLS report. Its first message starts with a line <tt>methods pairs missed request</tt>, followed
+ * by lines <tt>from to count</tt> for the pairs with the most calls, separated by tabs.
+ */
+class MethodCalls {
+	static final int TOP = 100;
+	static volatile boolean enabled;
+	static CallMatrix calls;
+	static LongAdder missedCalls = new LongAdder();
+
+	static void startIfEnabled() {
+		if (Options.methodCallCapacity <= 0) return;
+		calls = new CallMatrix(Options.methodCallCapacity);
+		enabled = true;
+	}
+
+	/**
+	 * Called on enter, after pushing a call from one plugin into another.
+	 */
+	static void called(ThreadState state, int count) {
+		if (state.depth < 2) return;	// called from outside any instrumented method
+		int fromMethodId = state.methodIds[state.depth - 2];
+		int toMethodId = state.methodIds[state.depth - 1];
+		if (!calls.add(fromMethodId, toMethodId, count)) {
+			missedCalls.add(count);
+		}
+	}
+
+	/**
+	 * Sends the pairs with the most calls between the fragments in the request, see the class comment.
+	 */
+	static void report(String request) throws IOException {
+		if (!enabled) return;
+		String fragments[] = request.split("\t", 2);
+		Set<String> from = new HashSet<String>(Arrays.asList(fragments[0].split(" ")));
+		Set<String> to = fragments.length == 2 ? new HashSet<String>(Arrays.asList(fragments[1].split(" "))) : null;
+		List<long[]> pairs = getCalls(from, to);
+		pairs.sort((pair1, pair2) -> Long.compare(pair2[2], pair1[2]));
+		List<String> lines = new ArrayList<String>();
+		for (long pair[] : pairs.subList(0, Math.min(TOP, pairs.size()))) {
+			lines.add(String.format("%s\t%s\t%d", Method.getMethod((int)pair[0]).name, Method.getMethod((int)pair[1]).name, pair[2]));
+		}
+		String header = String.format("methods\t%d\t%d\t%s", pairs.size(), missedCalls.sum(), request);
+		Method.remoteUI.sendReport(Constants.EVENT_METHOD_CALLS, header, lines);
+	}
+
+	/**
+	 * Returns the (from, to, count) of each pair that calls from one set of plugins into the other, in either
+	 * direction, or that calls into or out of the first set when there is no second one.
+	 */
+	static List<long[]> getCalls(Set<String> from, Set<String> to) throws IOException {
+		List<long[]> pairs = new ArrayList<long[]>();
+		calls.forEach((fromMethodId, toMethodId, count) -> {
+			String caller = Method.getMethod(fromMethodId).getPluginName();
+			String callee = Method.getMethod(toMethodId).getPluginName();
+			boolean matches = to == null ? from.contains(caller) || from.contains(callee) :
+				from.contains(caller) && to.contains(callee) || to.contains(caller) && from.contains(callee);
+			if (matches) {
+				pairs.add(new long[] { fromMethodId, toMethodId, count });
+			}
+		});
+		return pairs;
+	}
+}
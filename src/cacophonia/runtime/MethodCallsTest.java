@@ -0,0 +1,67 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+
+class MethodCallsTest {
+
+	void call(int... methodIds) {
+		for (int methodId : methodIds) {
+			Method.enter(methodId, null);
+		}
+		for (int n=methodIds.length - 1; n>=0; n--) {
+			Method.leave(methodIds[n], null);
+		}
+	}
+
+	@Test
+	void test_pairs_are_counted_at_plugin_transitions() throws Exception {
+		MethodCalls.calls = new CallMatrix(64);
+		MethodCalls.enabled = true;
+		try {
+			int open = Method.register("org.calls.editor.Editor.open()");
+			int parse = Method.register("org.calls.editor.Editor.parse()");
+			int read = Method.register("org.calls.resources.File.read()");
+			int index = Method.register("org.calls.search.Index.add()");
+			for (int n=0; n<3; n++) {
+				call(open, parse, read);
+			}
+			call(open, index, read);
+
+			List<long[]> edge = MethodCalls.getCalls(Set.of("org.calls.resources"), Set.of("org.calls.editor"));
+			assertEquals(1, edge.size());
+			assertArrayEquals(new long[] { parse, read, 3 }, edge.get(0));
+
+			List<long[]> node = MethodCalls.getCalls(Set.of("org.calls.search"), null);
+			assertEquals(2, node.size());
+			for (long pair[] : node) {
+				assertEquals(1, pair[2]);
+				assertTrue(pair[0] == open && pair[1] == index || pair[0] == index && pair[1] == read);
+			}
+		} finally {
+			MethodCalls.enabled = false;
+		}
+	}
+
+	@Test
+	void test_calls_of_new_pairs_are_missed_when_the_table_is_full() throws Exception {
+		MethodCalls.calls = new CallMatrix(4);
+		MethodCalls.enabled = true;
+		try {
+			long missed = MethodCalls.missedCalls.sum();
+			int caller = Method.register("org.full.a.A.call()");
+			for (int n=0; n<6; n++) {
+				call(caller, Method.register("org.full.b" + n + ".B.run()"));
+			}
+			assertEquals(4, MethodCalls.getCalls(Set.of("org.full.a"), null).size());
+			assertEquals(missed + 2, MethodCalls.missedCalls.sum());
+		} finally {
+			MethodCalls.enabled = false;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package cacophonia.runtime;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import cacophonia.Constants;
+import cacophonia.protocol.MappedRing;
+
+/**
+ * Samples the counters of the runtime and the JVM every {@link Options#metricsInterval} milliseconds, and
+ * sends them to the UI as one {@link Constants#EVENT_METRICS} record.
+ * <p>
+ * Sampling on a fixed interval, on a thread of its own, keeps all formatting off the application threads and
+ * makes the rates comparable over time. A record has one line per metric, with tab-separated fields:
+ * <pre>
+ * name	value	unit
+ * </pre>
+ * The unit is <tt>/s</tt> for rates, <tt>B</tt> for bytes, <tt>ms/s</tt> for time spent per second, <tt>%</tt> for ratios,
+ * empty for plain counts, and <tt>text</tt> for values that are not numbers.
+ */
+class MetricsReporter extends Thread {
+	static LongAdder transformCount = new LongAdder();
+	static LongAdder transformTime = new LongAdder();
+
+	long lastTime = System.nanoTime();
+	long lastCalls, lastPluginCalls, lastDropped, lastCoalesced, lastPublished, lastGcCount, lastGcTime, lastTransforms, lastTransformTime;
+
+	MetricsReporter() {
+		super("Cacophonia Metrics");
+		setDaemon(true);
+	}
+
+	static void startIfEnabled() {
+		if (Options.metricsInterval > 0) {
+			new MetricsReporter().start();
+		}
+	}
+
+	/**
+	 * Called by the agent after each class it instrumented.
+	 */
+	static void transformed(long nanos) {
+		transformCount.increment();
+		transformTime.add(nanos);
+	}
+
+	@Override
+	public void run() {
+		while (true) {
+			try {
+				Thread.sleep(Options.metricsInterval);
+				Method.remoteUI.sendEvent(Constants.EVENT_METRICS, report());
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	String report() {
+		long now = System.nanoTime();
+		double seconds = Math.max(1, now - lastTime) / 1e9;
+		lastTime = now;
+		List<String> lines = new ArrayList<String>();
+
+		long calls = Method.totalMethodCallCount.sum();
+		lines.add(metric("calls", (calls - lastCalls) / seconds, "/s"));
+		lastCalls = calls;
+		long pluginCalls = Method.totalPluginCallCount.sum();
+		lines.add(metric("plugin calls", (pluginCalls - lastPluginCalls) / seconds, "/s"));
+		lastPluginCalls = pluginCalls;
+		lines.add(metric("plugins", Plugins.size(), ""));
+
+		lines.add(metric("queued", EventBuffers.queued(), ""));
+		long dropped = EventBuffers.dropped();
+		lines.add(metric("dropped", (dropped - lastDropped) / seconds, "/s"));
+		long coalesced = EventBuffers.coalesced();
+		lines.add(metric("coalesced", (coalesced - lastCoalesced) / seconds, "/s"));
+		long published = EventBuffers.published();
+		// events dropped as the oldest were published first, the others never made it into a ring
+		long offered = published - lastPublished + coalesced - lastCoalesced;
+		if (Options.overloadPolicy != OverloadPolicy.DROP_OLDEST) offered += dropped - lastDropped;
+		lines.add(metric("lost", offered == 0 ? 0 : 100.0 * (dropped - lastDropped) / offered, "%"));
+		lines.add("overload\t" + Options.overloadPolicy.name().toLowerCase().replace('_', '-') + "\ttext");
+		lastDropped = dropped;
+		lastCoalesced = coalesced;
+		lastPublished = published;
+		UIConnection connection = Method.remoteUI.connection;
+		lines.add("ui\t" + (connection.isAttached() ? "attached" : "away") + "\ttext");
+		lines.add(metric("backlog", connection.getBacklogBytes(), "B"));
+		lines.add(metric("backlog dropped", connection.getDroppedBytes(), "B"));
+		MappedRing ring = Method.remoteUI.ring;
+		if (ring != null) {
+			lines.add(metric("ring dropped", ring.getDroppedBytes(), "B"));
+		}
+
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		lines.add(metric("heap", heap.getUsed(), "B"));
+		lines.add(metric("heap max", heap.getMax(), "B"));
+		long gcCount = 0, gcTime = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += Math.max(0, collector.getCollectionCount());
+			gcTime += Math.max(0, collector.getCollectionTime());
+		}
+		lines.add(metric("gc", (gcCount - lastGcCount) / seconds, "/s"));
+		lines.add(metric("gc time", (gcTime - lastGcTime) / seconds, "ms/s"));
+		lastGcCount = gcCount;
+		lastGcTime = gcTime;
+
+		lines.add(metric("classes", ManagementFactory.getClassLoadingMXBean().getLoadedClassCount(), ""));
+		long transforms = transformCount.sum();
+		long transformNanos = transformTime.sum();
+		lines.add(metric("transforms", (transforms - lastTransforms) / seconds, "/s"));
+		lines.add(metric("transform time", (transformNanos - lastTransformTime) / 1e6 / seconds, "ms/s"));
+		lastTransforms = transforms;
+		lastTransformTime = transformNanos;
+
+		lines.add("sampling\t" + Sampler.describe() + "\ttext");
+		return String.join("\n", lines);
+	}
+
+	static String metric(String name, double value, String unit) {
+		return name + "\t" + Math.round(value) + "\t" + unit;
+	}
+}
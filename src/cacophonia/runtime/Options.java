@@ -0,0 +1,164 @@
+package cacophonia.runtime;
+
+/**
+ * Runtime settings, passed as agent arguments in the form <tt>name=value,name=value</tt>. For instance:
+ * <pre>
+ * -javaagent:cacophonia.1.0.0.jar=bufferCapacity=16384,flushInterval=5,waitStrategy=yield
+ * </pre>
+ */
+public class Options {
+
+	// the number of events each thread can buffer before new events are dropped, rounded up to a power of two
+	public static int bufferCapacity = 8192;
+	// the time the flusher waits between two drains when using the SLEEP strategy, in milliseconds
+	public static long flushInterval = 10;
+	// what the flusher does when the buffers are empty
+	public static WaitStrategy waitStrategy = WaitStrategy.SLEEP;
+	// what an application thread does when its buffer is full: drop-newest, drop-oldest, coalesce, or block
+	public static OverloadPolicy overloadPolicy = OverloadPolicy.DROP_NEWEST;
+	// the longest time an application thread waits for room with the BLOCK policy, in microseconds
+	public static long blockTimeout = 100;
+	// when positive, plugin calls are counted per pair and sent once per interval, in milliseconds
+	public static long aggregateInterval = 0;
+	// the number of distinct plugin pairs that can be aggregated
+	public static int aggregateCapacity = 16384;
+	// which calls are recorded, see Sampler: none, counter:N, or time:W:P
+	public static String sampling = "none";
+	// when positive, the Governor disables hot methods that never see a plugin transition, checking every interval ms
+	public static long governorInterval = 0;
+	// the number of calls per second that makes a method hot
+	public static long governorMinRate = 10000;
+	// when positive, call durations are measured and their percentiles are sent every interval, in milliseconds
+	public static long latencyInterval = 0;
+	// the most methods whose durations are kept at the same time, methods without calls in an interval make room
+	public static int latencyMethodCapacity = 4096;
+	// when positive, self and total time per plugin are measured and sent every interval, in milliseconds
+	public static long pluginTimeInterval = 0;
+	// when positive, the bytes allocated per plugin are measured and sent every interval, in milliseconds
+	public static long allocationInterval = 0;
+	// the number of distinct (caller, callee) method pairs counted across plugin boundaries, 0 to not count them
+	public static int methodCallCapacity = 256 * 1024;
+	// when positive, the wait of jobs and display runnables is measured per hand-off edge and sent every interval, in ms
+	public static long handOffInterval = 0;
+	// where the calls of inspected plugins are written, in a directory per session, see TraceFile
+	public static String traceDirectory = System.getProperty("user.home") + "/.cacophonia/traces";
+	// the number of distinct call paths of inspected plugins kept for the flame graph, see StackTrie
+	public static int flameGraphCapacity = 64 * 1024;
+	// the size of each memory-mapped trace file, in bytes
+	public static int traceSegmentSize = 64 * 1024 * 1024;
+	// how often the metrics are sent to the UI, in milliseconds, see MetricsReporter
+	public static long metricsInterval = 1000;
+	// how events reach the UI: socket, or shm for a memory-mapped ring file when the UI runs on the same host
+	public static String transport = "socket";
+	// the ring file used by the shm transport, one per process so two Eclipse instances do not share it, see cacophonia.protocol.MappedRing
+	public static String ringFile = System.getProperty("user.home") + "/.cacophonia/events-" + ProcessHandle.current().pid() + ".ring";
+	// the size of the ring used by the shm transport, in bytes
+	public static int ringSize = 16 * 1024 * 1024;
+	// the most encoded bytes kept while the UI is away or slow, newer events are dropped after that, see UIConnection
+	public static int backlogSize = 4 * 1024 * 1024;
+	// the longest wait between two attempts to connect to the UI, in milliseconds
+	public static long reconnectInterval = 5000;
+	// the estimated cost of the bookkeeping of one call in nanoseconds, used to report the time saved
+	public static long governorCallCost = 50;
+
+	public static void parse(String agentArgs) {
+		if (agentArgs == null) return;
+		for (String option : agentArgs.split(",")) {
+			String nameValue[] = option.split("=", 2);
+			if (nameValue.length != 2) continue;
+			String name = nameValue[0].trim();
+			String value = nameValue[1].trim();
+			try {
+				set(name, value);
+			} catch (IllegalArgumentException e) {
+				System.out.println("Cacophonia: ignoring option " + option + ": " + e.getMessage());
+			}
+		}
+	}
+
+	static void set(String name, String value) {
+		switch (name) {
+		case "bufferCapacity":
+			bufferCapacity = Integer.parseInt(value);
+			break;
+		case "flushInterval":
+			flushInterval = Long.parseLong(value);
+			break;
+		case "aggregateInterval":
+			aggregateInterval = Long.parseLong(value);
+			break;
+		case "aggregateCapacity":
+			aggregateCapacity = Integer.parseInt(value);
+			break;
+		case "sampling":
+			sampling = value;
+			break;
+		case "latencyInterval":
+			latencyInterval = Long.parseLong(value);
+			break;
+		case "pluginTimeInterval":
+			pluginTimeInterval = Long.parseLong(value);
+			break;
+		case "allocationInterval":
+			allocationInterval = Long.parseLong(value);
+			break;
+		case "latencyMethodCapacity":
+			latencyMethodCapacity = Integer.parseInt(value);
+			break;
+		case "methodCallCapacity":
+			methodCallCapacity = Integer.parseInt(value);
+			break;
+		case "handOffInterval":
+			handOffInterval = Long.parseLong(value);
+			break;
+		case "traceDirectory":
+			traceDirectory = value;
+			break;
+		case "flameGraphCapacity":
+			flameGraphCapacity = Integer.parseInt(value);
+			break;
+		case "traceSegmentSize":
+			traceSegmentSize = Integer.parseInt(value);
+			break;
+		case "metricsInterval":
+			metricsInterval = Long.parseLong(value);
+			break;
+		case "transport":
+			if (!value.equals("socket") && !value.equals("shm")) throw new IllegalArgumentException("expected socket or shm");
+			transport = value;
+			break;
+		case "ringFile":
+			ringFile = value;
+			break;
+		case "ringSize":
+			ringSize = Integer.parseInt(value);
+			break;
+		case "backlogSize":
+			backlogSize = Integer.parseInt(value);
+			break;
+		case "reconnectInterval":
+			reconnectInterval = Long.parseLong(value);
+			break;
+		case "governorInterval":
+			governorInterval = Long.parseLong(value);
+			break;
+		case "governorMinRate":
+			governorMinRate = Long.parseLong(value);
+			break;
+		case "governorCallCost":
+			governorCallCost = Long.parseLong(value);
+			break;
+		case "overloadPolicy":
+			overloadPolicy = OverloadPolicy.valueOf(value.toUpperCase().replace('-', '_'));
+			break;
+		case "blockTimeout":
+			blockTimeout = Long.parseLong(value);
+			break;
+		case "waitStrategy":
+			waitStrategy = WaitStrategy.valueOf(value.toUpperCase());
+			break;
+		default:
+			throw new IllegalArgumentException("unknown option");
+		}
+	}
+}
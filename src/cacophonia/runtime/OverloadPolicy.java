@@ -0,0 +1,6 @@
+package cacophonia.runtime;
+
+/**
+ * What an application thread does when its {@link EventRing} is full because the flusher cannot keep up.
+ */
+public enum OverloadPolicy { DROP_NEWEST, DROP_OLDEST, COALESCE, BLOCK }
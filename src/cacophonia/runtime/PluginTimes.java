@@ -0,0 +1,149 @@
+package cacophonia.runtime;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import cacophonia.Constants;
+
+/**
+ * Attributes wall time and thread CPU time to plugins, to show where Eclipse spends its time.
+ * <p>
+ * The clocks are only read at plugin boundaries: when a call enters another plugin, and when it returns to
+ * the calling plugin. The self time of a plugin is the time a thread ran the plugin's own code, between 
+ * two boundaries. The total time of a plugin runs from the outermost call into it until that call returns, 
+ * so a plugin that is re-entered through other plugins is counted once. CPU time comes from 
+ * {@link ThreadMXBean#getCurrentThreadCpuTime()}. 
+ * <p>
+ * Every {@link Options#pluginTimeInterval} milliseconds, the times are sent as {@link Constants#EVENT_PLUGIN_TIMES}
+ * messages. The first message of a report starts with a line <tt>report interval</tt>, followed by one
+ * line per plugin:
+ * <pre>
+ * name	selfWall	selfCpu	totalWall	totalCpu
+ * </pre>
+ * where the fields are separated by tabs and times are in nanoseconds. The total time of a call is only
+ * reported when it returns.
+ */
+class PluginTimes extends Thread {
+	static final int CAPACITY = 4096;
+	static volatile boolean enabled;
+	static ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	static boolean cpuTimeSupported;
+	static AtomicLongArray selfWall = new AtomicLongArray(CAPACITY);
+	static AtomicLongArray selfCpu = new AtomicLongArray(CAPACITY);
+	static AtomicLongArray totalWall = new AtomicLongArray(CAPACITY);
+	static AtomicLongArray totalCpu = new AtomicLongArray(CAPACITY);
+
+	PluginTimes() {
+		super("Cacophonia Plugin Times");
+		setDaemon(true);
+	}
+
+	static void startIfEnabled() {
+		if (Options.pluginTimeInterval > 0) {
+			cpuTimeSupported = threads.isCurrentThreadCpuTimeSupported();
+			if (cpuTimeSupported && !threads.isThreadCpuTimeEnabled()) {
+				threads.setThreadCpuTimeEnabled(true);
+			}
+			enabled = true;
+			new PluginTimes().start();
+		}
+	}
+
+	static long cpuTime() {
+		return cpuTimeSupported ? threads.getCurrentThreadCpuTime() : 0;
+	}
+
+	/**
+	 * Called on enter, after pushing a call from one plugin into another.
+	 */
+	static void entered(ThreadState state, int callerPluginId, int pluginId) {
+		long wall = System.nanoTime();
+		long cpu = cpuTime();
+		if (callerPluginId != Plugins.ROOT) {
+			addSelf(callerPluginId, wall - state.segmentWall, cpu - state.segmentCpu);
+		}
+		state.segmentWall = wall;
+		state.segmentCpu = cpu;
+		if (pluginId >= state.activeCounts.length) {
+			state.growPluginTimes(pluginId);
+		}
+		if (state.activeCounts[pluginId]++ == 0) {
+			state.totalWallStarts[pluginId] = wall;
+			state.totalCpuStarts[pluginId] = cpu;
+		}
+	}
+
+	/**
+	 * Called on leave, after the frames from oldDepth down to frame were popped.
+	 */
+	static void left(ThreadState state, int frame, int oldDepth) {
+		int boundary = oldDepth - 1;
+		while (boundary >= frame && !isBoundary(state, boundary)) boundary--;
+		if (boundary < frame) return;
+		long wall = System.nanoTime();
+		long cpu = cpuTime();
+		addSelf(state.pluginIds[oldDepth - 1], wall - state.segmentWall, cpu - state.segmentCpu);
+		state.segmentWall = wall;
+		state.segmentCpu = cpu;
+		for (; boundary >= frame; boundary--) {
+			if (!isBoundary(state, boundary)) continue;
+			int pluginId = state.pluginIds[boundary];
+			if (pluginId >= state.activeCounts.length || state.activeCounts[pluginId] == 0) continue;
+			if (--state.activeCounts[pluginId] == 0) {
+				addTotal(pluginId, wall - state.totalWallStarts[pluginId], cpu - state.totalCpuStarts[pluginId]);
+			}
+		}
+	}
+
+	static boolean isBoundary(ThreadState state, int frame) {
+		int callerPluginId = frame == 0 ? Plugins.ROOT : state.pluginIds[frame - 1];
+		return state.pluginIds[frame] != callerPluginId;
+	}
+
+	static void addSelf(int pluginId, long wall, long cpu) {
+		if (pluginId >= CAPACITY) return;
+		selfWall.getAndAdd(pluginId, wall);
+		selfCpu.getAndAdd(pluginId, cpu);
+	}
+
+	static void addTotal(int pluginId, long wall, long cpu) {
+		if (pluginId >= CAPACITY) return;
+		totalWall.getAndAdd(pluginId, wall);
+		totalCpu.getAndAdd(pluginId, cpu);
+	}
+
+	@Override
+	public void run() {
+		long lastReport = System.nanoTime();
+		while (true) {
+			try {
+				Thread.sleep(Options.pluginTimeInterval);
+				long now = System.nanoTime();
+				report(now - lastReport);
+				lastReport = now;
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Sends the times since the previous report, and resets them.
+	 */
+	static void report(long interval) {
+		List<String> lines = new ArrayList<String>();
+		int pluginCount = Math.min(Plugins.size(), CAPACITY);
+		for (int pluginId=0; pluginId<pluginCount; pluginId++) {
+			long wall = selfWall.getAndSet(pluginId, 0);
+			long cpu = selfCpu.getAndSet(pluginId, 0);
+			long inclusiveWall = totalWall.getAndSet(pluginId, 0);
+			long inclusiveCpu = totalCpu.getAndSet(pluginId, 0);
+			if (wall == 0 && inclusiveWall == 0) continue;
+			lines.add(String.format("%s\t%d\t%d\t%d\t%d", Plugins.getName(pluginId), wall, cpu, inclusiveWall, inclusiveCpu));
+		}
+		Method.remoteUI.sendReport(Constants.EVENT_PLUGIN_TIMES, "report\t" + interval, lines);
+	}
+}
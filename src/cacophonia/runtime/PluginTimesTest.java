@@ -0,0 +1,92 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.jupiter.api.Test;
+
+
+class PluginTimesTest {
+	static final int A = 1, B = 2;
+	static final long MILLIS = 1000000;
+	ThreadState state = new ThreadState();
+
+	PluginTimesTest() {
+		PluginTimes.selfWall = new AtomicLongArray(PluginTimes.CAPACITY);
+		PluginTimes.selfCpu = new AtomicLongArray(PluginTimes.CAPACITY);
+		PluginTimes.totalWall = new AtomicLongArray(PluginTimes.CAPACITY);
+		PluginTimes.totalCpu = new AtomicLongArray(PluginTimes.CAPACITY);
+	}
+
+	void enter(int methodId, int pluginId) {
+		int callerPluginId = state.currentPlugin();
+		state.push(methodId, pluginId);
+		if (callerPluginId != pluginId) PluginTimes.entered(state, callerPluginId, pluginId);
+	}
+
+	void leave(int methodId) {
+		int depth = state.depth;
+		int frame = state.pop(methodId);
+		if (frame != -1) PluginTimes.left(state, frame, depth);
+	}
+
+	void work(long nanos) {
+		long end = System.nanoTime() + nanos;
+		while (System.nanoTime() < end) Thread.onSpinWait();
+	}
+
+	@Test
+	void test_self_time_goes_to_the_running_plugin() {
+		enter(10, A);
+		work(2 * MILLIS);
+		enter(20, B);
+		work(10 * MILLIS);
+		leave(20);
+		leave(10);
+		assertTrue(PluginTimes.selfWall.get(B) >= 10 * MILLIS);
+		assertTrue(PluginTimes.selfWall.get(A) >= 2 * MILLIS);
+		assertTrue(PluginTimes.selfWall.get(A) < 10 * MILLIS);
+		assertTrue(PluginTimes.totalWall.get(A) >= 12 * MILLIS);
+		assertTrue(PluginTimes.totalWall.get(A) >= PluginTimes.selfWall.get(A) + PluginTimes.selfWall.get(B));
+	}
+
+	@Test
+	void test_reentered_plugin_is_counted_once() {
+		enter(10, A);
+		enter(20, B);
+		enter(11, A);
+		work(5 * MILLIS);
+		leave(11);
+		assertEquals(1, state.activeCounts[A]);
+		assertEquals(0, PluginTimes.totalWall.get(A));
+		leave(20);
+		leave(10);
+		assertEquals(0, state.activeCounts[A]);
+		assertEquals(0, state.activeCounts[B]);
+		assertTrue(PluginTimes.totalWall.get(A) >= 5 * MILLIS);
+		assertTrue(PluginTimes.totalWall.get(A) < PluginTimes.totalWall.get(B) + 5 * MILLIS);
+	}
+
+	@Test
+	void test_calls_inside_a_plugin_do_not_read_the_clock() {
+		enter(10, A);
+		long segment = state.segmentWall;
+		enter(12, A);
+		leave(12);
+		assertEquals(segment, state.segmentWall);
+		leave(10);
+	}
+
+	@Test
+	void test_exception_unwinds_boundaries() {
+		enter(10, A);
+		enter(20, B);
+		enter(11, A);
+		leave(10);
+		assertEquals(0, state.depth);
+		assertEquals(0, state.activeCounts[A]);
+		assertEquals(0, state.activeCounts[B]);
+		assertTrue(PluginTimes.totalWall.get(B) > 0);
+	}
+}
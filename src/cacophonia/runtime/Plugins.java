@@ -0,0 +1,58 @@
+package cacophonia.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Interns plugin names into dense integer IDs, so the runtime can keep plugins in primitive arrays.
+ * <p>
+ * ID 0 is the root, used as the caller of the first call made on a thread.
+ */
+class Plugins {
+	static final int ROOT = 0;
+	private static HashMap<String,Integer> pluginIds = new HashMap<String,Integer>();
+	private static volatile String pluginNames[] = new String[256];
+	private static int pluginCount;
+
+	static {
+		register("eclipse.main");
+	}
+
+	static synchronized int register(String pluginName) {
+		Integer pluginId = pluginIds.get(pluginName);
+		if (pluginId == null) {
+			pluginId = pluginCount++;
+			if (pluginId == pluginNames.length) {
+				String grown[] = new String[2 * pluginNames.length];
+				System.arraycopy(pluginNames, 0, grown, 0, pluginNames.length);
+				pluginNames = grown;
+			}
+			pluginNames[pluginId] = pluginName;
+			pluginIds.put(pluginName, pluginId);
+		}
+		return pluginId;
+	}
+
+	/**
+	 * Returns the name of the plugin that a class loader belongs to, from the bundle name in its description.
+	 */
+	static String nameOf(ClassLoader classLoader) {
+		try {
+			return classLoader.toString().split("\\[")[1].split(":")[0];
+		} catch (Exception e) {
+			return String.valueOf(classLoader);
+		}
+	}
+
+	static synchronized boolean contains(String pluginName) {
+		return pluginIds.containsKey(pluginName);
+	}
+
+	static String getName(int pluginId) {
+		return pluginNames[pluginId];
+	}
+
+	static synchronized int size() {
+		return pluginCount;
+	}
+}
@@ -1,116 +1,226 @@
 package cacophonia.runtime;
 
-import java.io.BufferedOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.Socket;
-import java.net.UnknownHostException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
 
 import cacophonia.Constants;
+import cacophonia.protocol.EventEncoder;
+import cacophonia.protocol.MappedRing;
+import cacophonia.protocol.Protocol;
 
 /**
  * Notifies the remote UI, running in a different process, that a call is made between two plugins.
+ * <p>
+ * Application threads only publish events into the {@link EventBuffers}. The {@link EventFlusher} writes
+ * them to the {@link UIConnection}, so no network I/O happens on an instrumented thread. Events are sent in the binary 
+ * protocol defined by {@link cacophonia.protocol.Protocol}. The calls of inspected plugins are not sent to 
+ * the UI, they are written to the {@link TraceFile}, and added up into a {@link StackTrie} for flame graphs.
+ * <p>
+ * With the <tt>shm</tt> {@link Options#transport}, the socket only carries the name of a {@link MappedRing}
+ * file and the commands of the UI. The events themselves are written into the ring, which the UI polls.
  * 
  * See {@link cacophonia.ui.UI} for the implementation of the remote UI itself.
  *
  */
-class RemoteUI {
-	Socket socket;
-	DataInputStream inputStream;
-	DataOutputStream outputStream;
+class RemoteUI implements EventSink {
+	static final int MAX_REPORT_LENGTH = 12 * 1024;
+	static final int FLAME_GRAPH_RESOLUTION = 2000;	// paths narrower than this part of the total are not sent to the UI
+	UIConnection connection = new UIConnection(this);
+	EventEncoder encoder;
+	int encoderGeneration;
+	StackTrie stacks;
+	volatile MappedRing ring;	// set with the shm transport
 
 	public RemoteUI() {
-		this.setupListener();
 	}
 
-	DataInputStream getInputStream() {
-		if (inputStream != null) return inputStream;
-		try {
-			if (socket == null) {
-				socket = new Socket("localhost",6666);
-			}
-			inputStream = new DataInputStream(socket.getInputStream());  
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}  
-		return inputStream;
+	void start() {
+		connection.start();
+		EventFlusher.start(this);
 	}
 
-	DataOutputStream getOutputStream() {
-		if (outputStream != null) return outputStream;
-		try {
-			if (socket == null) {
-				socket = new Socket("localhost",6666);
+	/**
+	 * Returns the encoder for the current stream. After the UI went away, a new stream is started for the
+	 * next UI, so it gets a header and all plugin names again.
+	 */
+	EventEncoder getEncoder() throws IOException {
+		if (encoder != null && encoderGeneration == connection.generation) {
+			boolean overflowed = connection.takeOverflow();
+			if (ring != null && ring.takeOverflow()) overflowed = true;
+			if (overflowed) encoder.resync();
+			return encoder;
+		}
+		encoderGeneration = connection.generation;
+		EventEncoder socketEncoder = new EventEncoder(connection);
+		socketEncoder.writeHeader(System.nanoTime());
+		encoder = socketEncoder;
+		ring = null;
+		if (Options.transport.equals("shm")) {
+			try {
+				// a ring smaller than two buffers would drop most of them
+				MappedRing ring = MappedRing.create(new File(Options.ringFile), Math.max(Options.ringSize, 2 * Protocol.BUFFER_SIZE));
+				ring.setWriteTimeout(0);	// drop events rather than wait for a UI that may not be there
+				ring.getFile().deleteOnExit();
+				socketEncoder.writeMessage(Constants.EVENT_TRANSPORT, ring.getFile().getAbsolutePath(), System.nanoTime());
+				socketEncoder.flush();
+				encoder = new EventEncoder(ring);
+				encoder.writeHeader(System.nanoTime());
+				this.ring = ring;
+			} catch (IOException e) {
+				System.out.println("Cacophonia: cannot create " + Options.ringFile + ", sending events over the socket: " + e);
 			}
-			outputStream = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));  
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}  
-		return outputStream;
+		}
+		return encoder;
 	}
 
-	private void setupListener() {
-		new Thread(new Runnable() {
-			public void run() {
-				while (true) {
-					try {
-						Thread.sleep(2000);
-						int command = getInputStream().readInt();
-						String details = (String)getInputStream().readUTF();
-						switch (command) {
-						case Constants.EVENT_INSPECT_PLUGIN:
-							for (String name : details.split(" ")) {
-								Method.trace(name, true);
-							}
-							break;
-						case Constants.EVENT_UN_INSPECT_PLUGIN:
-							for (String name : details.split(" ")) {
-								Method.trace(name, false);
-							}
-							break;
-						case Constants.EVENT_IMPORT_PLUGIN_FROM_SOURCE:
-						case Constants.EVENT_IMPORT_PLUGIN_FROM_REPOSITORY:
-							System.err.println("Plugin import not implemented. Manually import " + details);
-							break;
-						case Constants.EVENT_EXIT:
-							System.exit(0);
-							break;
-						}
-					} catch (Exception e) {
-						System.out.println("UI went away");
-						System.exit(0);
-					}
-				}
+	void handleCommand(int command, String details) {
+		switch (command) {
+		case Constants.EVENT_INSPECT_PLUGIN:
+			for (String name : details.split(" ")) {
+				Method.trace(name, true);
+			}
+			break;
+		case Constants.EVENT_UN_INSPECT_PLUGIN:
+			for (String name : details.split(" ")) {
+				Method.trace(name, false);
+			}
+			break;
+		case Constants.EVENT_SAMPLING:
+			Sampler.configure(details);
+			break;
+		case Constants.EVENT_FLAME_GRAPH:
+			EventBuffers.publish(Constants.EVENT_FLAME_GRAPH, 0, 0, 0, null);
+			break;
+		case Constants.EVENT_METHOD_CALLS:
+			try {
+				MethodCalls.report(details);
+			} catch (IOException e) {
+				e.printStackTrace();
 			}
-		}).start();
+			break;
+		case Constants.EVENT_IMPORT_PLUGIN_FROM_SOURCE:
+		case Constants.EVENT_IMPORT_PLUGIN_FROM_REPOSITORY:
+			System.err.println("Plugin import not implemented. Manually import " + details);
+			break;
+		case Constants.EVENT_EXIT:
+			System.out.println("Cacophonia: the UI exited, Eclipse keeps running");
+			break;
+		}
 	}
 	
+	/**
+	 * Returns the call paths of the inspected plugins. Only used by the flusher.
+	 */
+	StackTrie getStacks() {
+		if (stacks == null) {
+			stacks = new StackTrie(Options.flameGraphCapacity);
+		}
+		return stacks;
+	}
+
+	/**
+	 * Writes all call paths of the inspected plugins to <tt>flame.folded</tt> in the trace directory, and sends
+	 * the paths that are wide enough to be seen to the UI as an {@link Constants#EVENT_FLAME_GRAPH} report.
+	 * The first message starts with a line <tt>flame total paths dropped file</tt>, followed by the paths in the
+	 * folded-stack format, with self times in microseconds. The request of the UI is passed through the event
+	 * buffers, so this runs on the flusher, which owns the trie.
+	 */
+	void writeFlameGraph(long time) throws IOException {
+		StackTrie stacks = getStacks();
+		IntFunction<String> methodNames = methodId -> Method.getMethod(methodId) == null ? "???" : Method.getMethod(methodId).name;
+		File file = new File(TraceFile.getDirectory(), "flame.folded");
+		file.getParentFile().mkdirs();
+		try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+			stacks.fold(methodNames, 0, (stack, micros) -> out.println(stack + " " + micros));
+		}
+		List<String> lines = new ArrayList<String>();
+		stacks.fold(methodNames, stacks.total() / FLAME_GRAPH_RESOLUTION, (stack, micros) -> lines.add(stack + " " + micros));
+		String header = String.format("flame\t%d\t%d\t%d\t%s", stacks.total(), stacks.size - 1, stacks.droppedCount, file.getAbsolutePath());
+		EventEncoder encoder = getEncoder();
+		for (String message : split(header, lines)) {
+			encoder.writeMessage(Constants.EVENT_FLAME_GRAPH, message, time);
+		}
+	}
+
 	public void sendEvent(int type, String message) {
-		try {
-			synchronized (socket) {
-				DataOutputStream stream = getOutputStream();
-				stream.writeInt(type);
-				stream.writeUTF(message);
-				stream.flush(); 
-			}
-		} catch (Exception e) {
-			// ignore - UI went away - will exit soon
-		}  
+		EventBuffers.publish(type, 0, 0, 0, message);
 	}
 	
-	void close() {
-		try {
-			getInputStream().close();
-			getOutputStream().close();
-			socket.close();   
-		} catch (Exception e) {
-			e.printStackTrace();
-		}  
+	/**
+	 * Sends the header followed by the lines, split over as many messages as needed to stay well below
+	 * the maximum string length of the protocol. Only the first message starts with the header.
+	 */
+	public void sendReport(int type, String header, List<String> lines) {
+		for (String message : split(header, lines)) {
+			sendEvent(type, message);
+		}
+	}
+
+	static List<String> split(String header, List<String> lines) {
+		List<String> messages = new ArrayList<String>();
+		StringBuilder message = new StringBuilder(header).append('\n');
+		for (String line : lines) {
+			if (message.length() + line.length() > MAX_REPORT_LENGTH && message.length() > 0) {
+				messages.add(message.toString());
+				message.setLength(0);
+			}
+			message.append(line).append('\n');
+		}
+		if (message.length() > 0) {
+			messages.add(message.toString());
+		}
+		return messages;
+	}
+
+	public void sendPluginCall(int fromPluginId, int toPluginId, int count) {
+		EventBuffers.publishPluginCall(fromPluginId, toPluginId, count);
+	}
+
+	@Override
+	public void write(int type, int from, int to, long value, long threadId, long time, Object payload) throws IOException {
+		switch (type) {
+		case Constants.EVENT_TRACE_ENTER:
+			TraceFile.get().enter(from, threadId, to, time, value, (String)payload);
+			getStacks().enter(threadId, to, from, time);
+			return;
+		case Constants.EVENT_TRACE_LEAVE:
+			TraceFile.get().leave(from, threadId, to, time);
+			getStacks().leave(threadId, to, time);
+			return;
+		case Constants.EVENT_FLAME_GRAPH:
+			writeFlameGraph(time);
+			return;
+		}
+		EventEncoder encoder = getEncoder();
+		switch (type) {
+		case Constants.EVENT_PLUGIN_TO_PLUGIN_CALL:
+			if (!encoder.isPluginDefined(from)) encoder.writePluginName(from, Plugins.getName(from));
+			if (!encoder.isPluginDefined(to)) encoder.writePluginName(to, Plugins.getName(to));
+			encoder.writePluginCall(from, to, (int)threadId, time);
+			break;
+		case Constants.EVENT_PLUGIN_TO_PLUGIN_CALLS:
+			writePluginCalls(from, to, value, time);
+			break;
+		default:
+			encoder.writeMessage(type, (String)payload, time);
+		}
+	}
+
+	@Override
+	public void writePluginCalls(int from, int to, long count, long time) throws IOException {
+		EventEncoder encoder = getEncoder();
+		if (!encoder.isPluginDefined(from)) encoder.writePluginName(from, Plugins.getName(from));
+		if (!encoder.isPluginDefined(to)) encoder.writePluginName(to, Plugins.getName(to));
+		encoder.writePluginCalls(from, to, count, time);
+	}
+
+	@Override
+	public void flush() throws IOException {
+		getEncoder().flush();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,60 @@
+package cacophonia.runtime;
+
+/**
+ * Measures how the throughput of the enter/leave path scales with the number of threads.
+ * <p>
+ * Each thread runs a call from one plugin into another. The "locked" run puts every enter/leave behind
+ * one global monitor, which is what the runtime used to do, and the "lock-free" run uses the runtime as is.
+ * No UI is connected. Events are published into the event buffers and drained by a flusher that discards them.
+ */
+public class RuntimeBenchmark {
+	static final int CALLS_PER_THREAD = 2_000_000;
+	static final Object globalLock = new Object();
+	static int outer = Cacophonia.register("benchmark.a.Outer.call()");
+	static int inner = Cacophonia.register("benchmark.b.Inner.call()");
+
+	public static void main(String[] args) throws InterruptedException {
+		EventFlusher.start(new EventSink() {
+			public void write(int type, int from, int to, long value, long threadId, long time, Object payload) { }
+			public void writePluginCalls(int from, int to, long count, long time) { }
+			public void flush() { }
+		});
+		run(false, 1); // warm up
+		for (int threads = 1; threads <= 16; threads *= 2) {
+			double locked = run(true, threads);
+			double lockFree = run(false, threads);
+			System.out.println(String.format("threads=%2d  locked=%,12.0f calls/s  lock-free=%,12.0f calls/s  speedup=%.1fx",
+					threads, locked, lockFree, lockFree / locked));
+		}
+		System.out.println(String.format("events: published=%,d flushed=%,d dropped=%,d",
+				EventBuffers.published(), EventBuffers.flushed(), EventBuffers.dropped()));
+	}
+
+	static double run(boolean locked, int threadCount) throws InterruptedException {
+		Thread threads[] = new Thread[threadCount];
+		for (int n=0; n<threadCount; n++) {
+			threads[n] = new Thread(new Runnable() {
+				public void run() {
+					for (int k=0; k<CALLS_PER_THREAD; k++) {
+						if (locked) {
+							synchronized (globalLock) { Cacophonia.enter(outer, null); }
+							synchronized (globalLock) { Cacophonia.enter(inner, null); }
+							synchronized (globalLock) { Cacophonia.leave(inner, null); }
+							synchronized (globalLock) { Cacophonia.leave(outer, null); }
+						} else {
+							Cacophonia.enter(outer, null);
+							Cacophonia.enter(inner, null);
+							Cacophonia.leave(inner, null);
+							Cacophonia.leave(outer, null);
+						}
+					}
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread thread : threads) thread.start();
+		for (Thread thread : threads) thread.join();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return 2.0 * CALLS_PER_THREAD * threadCount / seconds;
+	}
+}
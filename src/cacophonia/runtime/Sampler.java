@@ -0,0 +1,108 @@
+package cacophonia.runtime;
+
+/**
+ * Decides which calls get full bookkeeping, so the runtime can record the statistical shape of the 
+ * cross-plugin traffic at a fraction of the cost. The modes are:
+ * <ul>
+ * <li> <tt>none</tt>: every call is recorded.
+ * <li> <tt>counter:N</tt>: every Nth call on each thread is recorded.
+ * <li> <tt>time:W:P</tt>: calls are recorded during the first W milliseconds of every period of P milliseconds.
+ * </ul>
+ * A recorded call stands for all the calls that were skipped, so it is counted with a weight of N, or P/W.
+ * When W does not divide P, the weight is kept in fixed point, and each thread carries the fraction over to its
+ * next recorded call, so the weights of the recorded calls add up to P/W per call on average.
+ * The shadow stack is kept for every call, so the caller of a recorded call is always known.
+ * <p>
+ * The mode is set with the <tt>sampling</tt> agent argument and can be changed from the UI.
+ */
+class Sampler {
+	static final int NONE = 0, COUNTER = 1, TIME = 2;
+	static final int FRACTION_BITS = 16;
+	private static volatile int mode = NONE;
+	private static volatile int weight = 1;
+	private static volatile long timeWeight = 1 << FRACTION_BITS;	// P/W in fixed point
+	private static volatile boolean inWindow = true;
+	private static volatile long window, period;
+	private static Thread windowThread;
+
+	/**
+	 * Returns the weight of the current call, or 0 when it is not recorded.
+	 */
+	static int sample(ThreadState state) {
+		switch (mode) {
+		case COUNTER:
+			if (--state.sampleCountdown > 0) return 0;
+			state.sampleCountdown = weight;
+			return weight;
+		case TIME:
+			if (!inWindow) return 0;
+			long fixedWeight = state.sampleFraction + timeWeight;
+			state.sampleFraction = fixedWeight & ((1 << FRACTION_BITS) - 1);
+			return (int)(fixedWeight >> FRACTION_BITS);
+		default:
+			return 1;
+		}
+	}
+
+	static synchronized void configure(String spec) {
+		String parts[] = spec.trim().toLowerCase().split(":");
+		try {
+			switch (parts[0]) {
+			case "counter":
+				weight = Math.max(1, Integer.parseInt(parts[1]));
+				mode = COUNTER;
+				break;
+			case "time":
+				window = Math.max(1, Long.parseLong(parts[1]));
+				period = Math.max(window, Long.parseLong(parts[2]));
+				timeWeight = Math.round((double)(period << FRACTION_BITS) / window);
+				mode = TIME;
+				startWindowThread();
+				break;
+			default:
+				mode = NONE;
+				weight = 1;
+				inWindow = true;
+			}
+			System.out.println("Cacophonia: sampling " + describe());
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			System.out.println("Cacophonia: ignoring sampling " + spec);
+		}
+	}
+
+	static String describe() {
+		switch (mode) {
+		case COUNTER:
+			return String.format("1 in %d calls", weight);
+		case TIME:
+			return String.format("%dms of every %dms", window, period);
+		default:
+			return "all calls";
+		}
+	}
+
+	private static void startWindowThread() {
+		if (windowThread != null) return;
+		windowThread = new Thread(new Runnable() {
+			public void run() {
+				while (true) {
+					try {
+						if (mode != TIME) {
+							inWindow = true;
+							Thread.sleep(100);
+							continue;
+						}
+						inWindow = true;
+						Thread.sleep(window);
+						inWindow = false;
+						Thread.sleep(period - window);
+					} catch (InterruptedException e) {
+						// ignore
+					}
+				}
+			}
+		}, "Cacophonia Sampler");
+		windowThread.setDaemon(true);
+		windowThread.start();
+	}
+}
@@ -0,0 +1,56 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+
+class SamplerTest {
+
+	@Test
+	void test_no_sampling_records_every_call() {
+		Sampler.configure("none");
+		ThreadState state = new ThreadState();
+		for (int n=0; n<10; n++) {
+			assertEquals(1, Sampler.sample(state));
+		}
+	}
+
+	@Test
+	void test_counter_sampling_keeps_total_weight() {
+		Sampler.configure("counter:4");
+		ThreadState state = new ThreadState();
+		int recorded = 0, total = 0;
+		for (int n=0; n<100; n++) {
+			int weight = Sampler.sample(state);
+			if (weight > 0) recorded++;
+			total += weight;
+		}
+		assertEquals(25, recorded);
+		assertEquals(100, total);
+		Sampler.configure("none");
+	}
+
+	@Test
+	void test_time_sampling_keeps_fractional_weight() {
+		Sampler.configure("time:3:10");
+		ThreadState state = new ThreadState();
+		int recorded = 0, total = 0;
+		while (recorded < 3000) {
+			int weight = Sampler.sample(state);
+			if (weight > 0) recorded++;
+			total += weight;
+		}
+		assertTrue(Math.abs(total - 10000) <= 1, String.valueOf(total));
+		Sampler.configure("none");
+	}
+
+	@Test
+	void test_invalid_spec_is_ignored() {
+		Sampler.configure("counter:4");
+		Sampler.configure("counter:many");
+		assertEquals("1 in 4 calls", Sampler.describe());
+		Sampler.configure("none");
+		assertEquals("all calls", Sampler.describe());
+	}
+}
@@ -0,0 +1,182 @@
+package cacophonia.runtime;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.IntFunction;
+
+/**
+ * Adds up the call paths of inspected plugins into a trie of method IDs, to show them as a flame graph.
+ * <p>
+ * Each node is one call path, from the first inspected call on a thread down to a method, with the number of
+ * calls and the inclusive time of that path. Nodes live in primitive arrays, and the children of all nodes are
+ * found in one open-addressing table keyed by (parent, method ID). The trie is built as the trace records come
+ * in, so it is bounded by the number of distinct paths, at most the capacity given, and not by the number of
+ * calls. When it is full, calls on new paths are counted on their deepest known ancestor instead, and so are
+ * all calls they make, until they return.
+ * <p>
+ * Enter and leave records carry the depth of the call, so a record that was dropped does not corrupt the
+ * paths that follow. Used by one thread at a time: the {@link EventFlusher}, or the {@link TraceReader}.
+ */
+class StackTrie {
+	static final int ROOT = 0;
+	static final int MAX_DEPTH = 256;
+	static final long EMPTY = -1;
+
+	int capacity;
+	int size = 1;
+	int parents[];
+	int methodIds[];
+	long counts[];
+	long nanos[];
+	long children[];	// (parent << 32 | method ID), or EMPTY
+	int childNodes[];
+	long droppedCount;	// calls counted on an ancestor since the trie was full
+	HashMap<Long,Path> paths = new HashMap<Long,Path>();
+
+	interface Consumer {
+		void accept(CharSequence stack, long value);
+	}
+
+	/**
+	 * The calls a thread is in, as trie nodes, with the time each one was entered.
+	 */
+	static class Path {
+		int nodes[] = new int[16];
+		long enterTimes[] = new long[16];
+		boolean collapsed[] = new boolean[16];	// counted on an ancestor, and so are the calls it makes
+		int depth;
+	}
+
+	StackTrie(int capacity) {
+		this.capacity = Math.max(2, capacity);
+		int length = 16;
+		parents = new int[length];
+		methodIds = new int[length];
+		counts = new long[length];
+		nanos = new long[length];
+		int tableLength = Integer.highestOneBit(this.capacity - 1) << 2;
+		children = new long[tableLength];
+		childNodes = new int[tableLength];
+		Arrays.fill(children, EMPTY);
+	}
+
+	void enter(long threadId, int depth, int methodId, long time) {
+		if (depth >= MAX_DEPTH) return;
+		Path path = paths.computeIfAbsent(threadId, id -> new Path());
+		path.depth = Math.min(path.depth, depth);	// calls whose leave was dropped are left
+		if (path.depth < depth) return;	// the enter of the caller was dropped, the path is unknown
+		int parent = depth == 0 ? ROOT : path.nodes[depth - 1];
+		boolean collapsed = depth > 0 && path.collapsed[depth - 1];
+		int node = collapsed ? -1 : getChild(parent, methodId);
+		if (node == -1) {	// under a collapsed call, a known child would be a path that did not happen
+			node = parent;
+			collapsed = true;
+			droppedCount++;
+		}
+		counts[node]++;
+		if (depth == path.nodes.length) {
+			path.nodes = Arrays.copyOf(path.nodes, 2 * depth);
+			path.enterTimes = Arrays.copyOf(path.enterTimes, 2 * depth);
+			path.collapsed = Arrays.copyOf(path.collapsed, 2 * depth);
+		}
+		path.nodes[depth] = node;
+		path.enterTimes[depth] = time;
+		path.collapsed[depth] = collapsed;
+		path.depth = depth + 1;
+	}
+
+	void leave(long threadId, int depth, long time) {
+		Path path = paths.get(threadId);
+		if (path == null || depth >= path.depth) return;	// its enter was dropped
+		int node = path.nodes[depth];
+		if (!path.collapsed[depth]) {	// a collapsed call is already timed by its ancestor
+			nanos[node] += Math.max(0, time - path.enterTimes[depth]);
+		}
+		path.depth = depth;
+		if (depth == 0) {
+			paths.remove(threadId);
+		}
+	}
+
+	/**
+	 * Returns the node for a call of the method from the parent, adding it when it is new, or -1 when the trie is full.
+	 */
+	int getChild(int parent, int methodId) {
+		long key = ((long)parent << 32) | (methodId & 0xFFFFFFFFL);
+		int mask = children.length - 1;
+		int slot = CallMatrix.hash(key) & mask;
+		while (children[slot] != EMPTY) {
+			if (children[slot] == key) return childNodes[slot];
+			slot = (slot + 1) & mask;
+		}
+		if (size == capacity) return -1;
+		if (size == parents.length) {
+			int length = Math.min(capacity, 2 * size);
+			parents = Arrays.copyOf(parents, length);
+			methodIds = Arrays.copyOf(methodIds, length);
+			counts = Arrays.copyOf(counts, length);
+			nanos = Arrays.copyOf(nanos, length);
+		}
+		int node = size++;
+		parents[node] = parent;
+		methodIds[node] = methodId;
+		children[slot] = key;
+		childNodes[slot] = node;
+		return node;
+	}
+
+	/**
+	 * Returns the inclusive time of all paths, in nanoseconds.
+	 */
+	long total() {
+		long total = 0;
+		for (int node=1; node<size; node++) {
+			if (parents[node] == ROOT) total += nanos[node];
+		}
+		return total;
+	}
+
+	/**
+	 * Passes each path to the consumer in the folded-stack format of flame graph tools: the method names from
+	 * the outermost call, separated by semicolons, and the self time of the path in microseconds. Paths with
+	 * less than minNanos inclusive time are added to the self time of their parent, to keep the output small.
+	 * <p>
+	 * The paths are walked depth first, appending a name to one builder on the way down and cutting it off
+	 * on the way up, so only the paths passed on are turned into strings. The consumer must not keep the stack.
+	 */
+	void fold(IntFunction<String> methodNames, long minNanos, Consumer consumer) {
+		long self[] = Arrays.copyOf(nanos, size);
+		boolean shown[] = new boolean[size];
+		for (int node=1; node<size; node++) {	// parents come before their children
+			shown[node] = (parents[node] == ROOT || shown[parents[node]]) && nanos[node] >= minNanos;
+			if (shown[node] && parents[node] != ROOT) self[parents[node]] -= nanos[node];
+		}
+		int firstChildren[] = new int[size];	// 0 for none, the root is nobody's child
+		int nextSiblings[] = new int[size];
+		for (int node=size - 1; node>0; node--) {
+			if (!shown[node]) continue;
+			nextSiblings[node] = firstChildren[parents[node]];
+			firstChildren[parents[node]] = node;
+		}
+		StringBuilder stack = new StringBuilder();
+		int path[] = new int[MAX_DEPTH];
+		int lengths[] = new int[MAX_DEPTH];
+		int depth = 0;
+		int node = firstChildren[ROOT];
+		while (node != 0 || depth > 0) {
+			if (node == 0) {	// all children were walked, go up
+				depth--;
+				stack.setLength(lengths[depth]);
+				node = nextSiblings[path[depth]];
+				continue;
+			}
+			lengths[depth] = stack.length();
+			if (depth > 0) stack.append(';');
+			stack.append(methodNames.apply(methodIds[node]).replace(';', ',').replace(' ', '_'));
+			long micros = Math.max(0, self[node]) / 1000;
+			if (micros > 0) consumer.accept(stack, micros);
+			path[depth++] = node;
+			node = firstChildren[node];
+		}
+	}
+}
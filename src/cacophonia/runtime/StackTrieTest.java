@@ -0,0 +1,99 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+
+class StackTrieTest {
+	static final int MAIN = 1, PARSE = 2, READ = 3, INDEX = 4;
+	static final long MICROS = 1000;
+	static final String NAMES[] = { "???", "main", "parse", "read", "index" };
+
+	List<String> fold(StackTrie stacks, long minNanos) {
+		List<String> lines = new ArrayList<String>();
+		stacks.fold(methodId -> NAMES[methodId], minNanos, (stack, micros) -> lines.add(stack + " " + micros));
+		return lines;
+	}
+
+	@Test
+	void test_paths_are_added_up_with_self_time() {
+		StackTrie stacks = new StackTrie(16);
+		for (int n=0; n<3; n++) {
+			long start = n * 100 * MICROS;
+			stacks.enter(7, 0, MAIN, start);
+			stacks.enter(7, 1, PARSE, start + 10 * MICROS);
+			stacks.enter(7, 2, READ, start + 20 * MICROS);
+			stacks.leave(7, 2, start + 50 * MICROS);
+			stacks.leave(7, 1, start + 60 * MICROS);
+			stacks.enter(7, 1, READ, start + 60 * MICROS);
+			stacks.leave(7, 1, start + 70 * MICROS);
+			stacks.leave(7, 0, start + 80 * MICROS);
+		}
+		assertEquals(List.of("main 60", "main;parse 60", "main;parse;read 90", "main;read 30"), fold(stacks, 0));
+		assertEquals(5, stacks.size);
+		assertEquals(3, stacks.counts[1]);
+		assertEquals(240 * MICROS, stacks.total());
+		assertTrue(stacks.paths.isEmpty());
+	}
+
+	@Test
+	void test_narrow_paths_are_folded_into_their_parent() {
+		StackTrie stacks = new StackTrie(16);
+		stacks.enter(1, 0, MAIN, 0);
+		stacks.enter(1, 1, PARSE, 0);
+		stacks.leave(1, 1, 90 * MICROS);
+		stacks.enter(1, 1, INDEX, 90 * MICROS);
+		stacks.leave(1, 1, 91 * MICROS);
+		stacks.leave(1, 0, 100 * MICROS);
+		assertEquals(List.of("main 10", "main;parse 90"), fold(stacks, 5 * MICROS));
+	}
+
+	@Test
+	void test_new_paths_are_counted_on_their_ancestor_when_full() {
+		StackTrie stacks = new StackTrie(3);
+		stacks.enter(1, 0, MAIN, 0);
+		stacks.enter(1, 1, PARSE, 0);
+		stacks.enter(1, 2, READ, 0);
+		stacks.leave(1, 2, 10 * MICROS);
+		stacks.leave(1, 1, 20 * MICROS);
+		stacks.leave(1, 0, 30 * MICROS);
+		assertEquals(3, stacks.size);
+		assertEquals(1, stacks.droppedCount);
+		assertEquals(List.of("main 10", "main;parse 20"), fold(stacks, 0));
+	}
+
+	@Test
+	void test_calls_under_a_collapsed_call_stay_on_its_ancestor() {
+		StackTrie stacks = new StackTrie(4);
+		stacks.enter(1, 0, MAIN, 0);
+		stacks.enter(1, 1, PARSE, 0);
+		stacks.enter(1, 2, READ, 0);	// main;parse;read exists, the trie is full
+		stacks.leave(1, 2, 10 * MICROS);
+		stacks.enter(1, 2, INDEX, 10 * MICROS);	// collapsed onto main;parse
+		stacks.enter(1, 3, READ, 10 * MICROS);	// not main;parse;read, that path did not happen
+		stacks.leave(1, 3, 30 * MICROS);
+		stacks.leave(1, 2, 40 * MICROS);
+		stacks.leave(1, 1, 50 * MICROS);
+		stacks.leave(1, 0, 50 * MICROS);
+		assertEquals(2, stacks.droppedCount);
+		assertEquals(1, stacks.counts[3]);
+		assertEquals(List.of("main;parse 40", "main;parse;read 10"), fold(stacks, 0));
+	}
+
+	@Test
+	void test_dropped_records_do_not_corrupt_later_paths() {
+		StackTrie stacks = new StackTrie(16);
+		stacks.enter(1, 0, MAIN, 0);
+		stacks.enter(1, 1, PARSE, 0);
+		// the leave of parse and main were dropped
+		stacks.enter(1, 0, INDEX, 0);
+		stacks.leave(1, 0, 10 * MICROS);
+		stacks.enter(2, 1, READ, 0);	// its caller was dropped
+		stacks.leave(2, 1, 10 * MICROS);
+		assertEquals(List.of("index 10"), fold(stacks, 0));
+	}
+}
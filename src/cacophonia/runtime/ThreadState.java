@@ -0,0 +1,105 @@
+package cacophonia.runtime;
+
+import java.util.Arrays;
+
+/**
+ * The per-thread bookkeeping of the runtime. Each thread only ever touches its own state, so 
+ * {@link Method#enter(Object)} and {@link Method#leave(Object)} do not need a shared lock.
+ * <p>
+ * The shadow stack holds the method ID and plugin ID of every active instrumented call in two primitive
+ * arrays. They only grow when the thread's stack is deeper than ever before, so pushing and popping does
+ * not allocate. When {@link Latencies} are measured, each frame also holds the time its call started, or 0
+ * when the call is not timed. For {@link Allocations}, each frame holds the plugin that entered the frame's 
+ * plugin, which is the caller of the nearest frame below it that crossed a plugin boundary.
+ */
+class ThreadState {
+	private static ThreadLocal<ThreadState> states = ThreadLocal.withInitial(() -> new ThreadState());
+
+	int methodIds[] = new int[64];
+	int pluginIds[] = new int[64];
+	int entryPluginIds[] = new int[64];
+	long startTimes[] = new long[64];
+	long jobStartTimes[] = new long[64];	// only set for the frames of Job.run
+	int depth;
+	int callDepth;
+	int traceGeneration;
+	int sampleCountdown;
+	long sampleFraction;	// the part of the time sampling weight not counted yet, see Sampler
+	// see Allocations: the allocated bytes of the thread when the current plugin started running
+	long segmentBytes;
+	// see PluginTimes: when the current plugin started running, and per plugin, how often and since when it is active
+	long segmentWall, segmentCpu;
+	int activeCounts[] = {};
+	long totalWallStarts[] = {};
+	long totalCpuStarts[] = {};
+
+	static ThreadState get() {
+		return states.get();
+	}
+
+	/**
+	 * Returns the plugin that is currently running on this thread.
+	 */
+	int currentPlugin() {
+		return depth == 0 ? Plugins.ROOT : pluginIds[depth - 1];
+	}
+
+	/**
+	 * Returns the plugin that called into the currently running plugin.
+	 */
+	int currentEntryPlugin() {
+		return depth == 0 ? Plugins.ROOT : entryPluginIds[depth - 1];
+	}
+
+	void push(int methodId, int pluginId) {
+		if (depth == methodIds.length) {
+			grow();
+		}
+		int callerPluginId = currentPlugin();
+		entryPluginIds[depth] = callerPluginId == pluginId ? currentEntryPlugin() : callerPluginId;
+		methodIds[depth] = methodId;
+		pluginIds[depth] = pluginId;
+		startTimes[depth] = 0;
+		depth++;
+	}
+
+	/**
+	 * Pops the frame for the given method. When an exception skipped the leave of deeper frames, they are 
+	 * popped as well. A leave without a matching enter leaves the stack alone.
+	 * Returns the index of the popped frame, or -1 when there was no matching frame.
+	 */
+	int pop(int methodId) {
+		for (int n=depth - 1; n>=0; n--) {
+			if (methodIds[n] == methodId) {
+				depth = n;
+				return n;
+			}
+		}
+		return -1;
+	}
+
+	void growPluginTimes(int pluginId) {
+		int length = Math.max(64, Integer.highestOneBit(pluginId) << 1);
+		activeCounts = Arrays.copyOf(activeCounts, length);
+		totalWallStarts = Arrays.copyOf(totalWallStarts, length);
+		totalCpuStarts = Arrays.copyOf(totalCpuStarts, length);
+	}
+
+	private void grow() {
+		int grownMethodIds[] = new int[2 * methodIds.length];
+		int grownPluginIds[] = new int[2 * pluginIds.length];
+		int grownEntryPluginIds[] = new int[2 * entryPluginIds.length];
+		long grownStartTimes[] = new long[2 * startTimes.length];
+		long grownJobStartTimes[] = new long[2 * jobStartTimes.length];
+		System.arraycopy(methodIds, 0, grownMethodIds, 0, depth);
+		System.arraycopy(pluginIds, 0, grownPluginIds, 0, depth);
+		System.arraycopy(entryPluginIds, 0, grownEntryPluginIds, 0, depth);
+		System.arraycopy(startTimes, 0, grownStartTimes, 0, depth);
+		System.arraycopy(jobStartTimes, 0, grownJobStartTimes, 0, depth);
+		methodIds = grownMethodIds;
+		pluginIds = grownPluginIds;
+		entryPluginIds = grownEntryPluginIds;
+		startTimes = grownStartTimes;
+		jobStartTimes = grownJobStartTimes;
+	}
+}
@@ -0,0 +1,73 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+
+class ThreadStateTest {
+
+	@Test
+	void test_empty_stack_runs_in_root() {
+		ThreadState state = new ThreadState();
+		assertEquals(Plugins.ROOT, state.currentPlugin());
+	}
+
+	@Test
+	void test_push_and_pop() {
+		ThreadState state = new ThreadState();
+		state.push(10, 1);
+		state.push(11, 2);
+		assertEquals(2, state.currentPlugin());
+		state.pop(11);
+		assertEquals(1, state.currentPlugin());
+		state.pop(10);
+		assertEquals(0, state.depth);
+	}
+
+	@Test
+	void test_pop_unwinds_frames_skipped_by_exception() {
+		ThreadState state = new ThreadState();
+		state.push(10, 1);
+		state.push(11, 2);
+		state.push(12, 3);
+		state.pop(10);
+		assertEquals(0, state.depth);
+		assertEquals(Plugins.ROOT, state.currentPlugin());
+	}
+
+	@Test
+	void test_unmatched_pop_is_ignored() {
+		ThreadState state = new ThreadState();
+		state.push(10, 1);
+		state.pop(99);
+		assertEquals(1, state.depth);
+	}
+
+	@Test
+	void test_stack_grows() {
+		ThreadState state = new ThreadState();
+		for (int n=0; n<1000; n++) {
+			state.push(n, n % 7);
+		}
+		assertEquals(1000, state.depth);
+		assertEquals(999 % 7, state.currentPlugin());
+		state.pop(500);
+		assertEquals(500, state.depth);
+	}
+
+	@Test
+	void test_entry_plugin_is_the_caller_across_the_boundary() {
+		ThreadState state = new ThreadState();
+		state.push(10, 1);
+		state.push(11, 1);
+		assertEquals(Plugins.ROOT, state.currentEntryPlugin());
+		state.push(20, 2);
+		state.push(21, 2);
+		assertEquals(1, state.currentEntryPlugin());
+		state.push(12, 1);
+		assertEquals(2, state.currentEntryPlugin());
+		state.pop(12);
+		assertEquals(1, state.currentEntryPlugin());
+	}
+}
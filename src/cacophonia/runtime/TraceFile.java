@@ -0,0 +1,132 @@
+package cacophonia.runtime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.BitSet;
+import java.util.Date;
+
+import cacophonia.protocol.Protocol;
+
+/**
+ * Writes the calls made in inspected plugins to a trace file, so the calling thread does not print them.
+ * <p>
+ * Instrumented threads publish trace records into their {@link EventRing}, like all other events, and the
+ * {@link EventFlusher} writes them here. A trace is a directory per session, holding segment files named 
+ * <tt>trace-000.bin</tt>, <tt>trace-001.bin</tt>, and so on. Each segment is a memory-mapped file of
+ * {@link Options#traceSegmentSize} bytes, so writing a record is a copy into memory and the operating 
+ * system writes the pages out. A segment starts with a header, holding the magic number, the version, and
+ * the start time in epoch millis and in nanos, followed by records that start with a one byte kind:
+ * <ul>
+ * <li> <tt>METHOD</tt>: an int method ID and its name, written once per segment before its first use.
+ * <li> <tt>ENTER</tt>: an int method ID, a long thread ID, a short depth, a long nano time, a long call count, 
+ *      and the captured fields as one string with one <tt>name=value</tt> per line.
+ * <li> <tt>LEAVE</tt>: an int method ID, a long thread ID, a short depth, and a long nano time.
+ * <li> <tt>END</tt>: the rest of the segment is unused. The zeros of an unused part read as <tt>END</tt> as well.
+ * </ul>
+ * Strings are a short length followed by UTF-8 bytes. See {@link TraceReader} for turning a trace into text.
+ */
+class TraceFile {
+	static final int MAGIC = 0x43545243; // "CTRC"
+	static final short VERSION = 1;
+	static final int HEADER_SIZE = 4 + 2 + 8 + 8;
+	static final byte END = 0, METHOD = 1, ENTER = 2, LEAVE = 3;
+	static final int ENTER_SIZE = 1 + 4 + 8 + 2 + 8 + 8 + 2;
+	static final int LEAVE_SIZE = 1 + 4 + 8 + 2 + 8;
+	static final long START_MILLIS = System.currentTimeMillis();
+	static final long START_NANOS = System.nanoTime();
+	private static TraceFile trace;
+
+	File directory;
+	int segmentIndex;
+	MappedByteBuffer segment;
+	BitSet definedMethods = new BitSet();
+
+	TraceFile(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Returns the trace of this session. Only used by the flusher.
+	 */
+	static TraceFile get() {
+		if (trace == null) {
+			trace = new TraceFile(getDirectory());
+		}
+		return trace;
+	}
+
+	static File getDirectory() {
+		return new File(Options.traceDirectory, new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(START_MILLIS)));
+	}
+
+	void enter(int methodId, long threadId, int depth, long time, long callCount, String fields) throws IOException {
+		byte bytes[] = Protocol.encode(fields);
+		reserve(ENTER_SIZE + bytes.length + getMethodSize(methodId));
+		defineMethod(methodId);
+		segment.put(ENTER);
+		segment.putInt(methodId);
+		segment.putLong(threadId);
+		segment.putShort((short)depth);
+		segment.putLong(time);
+		segment.putLong(callCount);
+		segment.putShort((short)bytes.length);
+		segment.put(bytes);
+	}
+
+	void leave(int methodId, long threadId, int depth, long time) throws IOException {
+		reserve(LEAVE_SIZE);
+		segment.put(LEAVE);
+		segment.putInt(methodId);
+		segment.putLong(threadId);
+		segment.putShort((short)depth);
+		segment.putLong(time);
+	}
+
+	int getMethodSize(int methodId) {
+		return definedMethods.get(methodId) ? 0 : 1 + 4 + 2 + getMethodName(methodId).length;
+	}
+
+	byte[] getMethodName(int methodId) {
+		Method method = Method.getMethod(methodId);
+		return Protocol.encode(method == null ? "???" : method.name);
+	}
+
+	/**
+	 * Writes the name of the method, unless the current segment already has it. A new segment always has 
+	 * room for it, since its first record is reserved with room for the name.
+	 */
+	void defineMethod(int methodId) {
+		if (definedMethods.get(methodId)) return;
+		byte bytes[] = getMethodName(methodId);
+		segment.put(METHOD);
+		segment.putInt(methodId);
+		segment.putShort((short)bytes.length);
+		segment.put(bytes);
+		definedMethods.set(methodId);
+	}
+
+	/**
+	 * Makes sure the next record fits in the current segment, and moves to a new segment if it does not.
+	 * There is always room left for an END record.
+	 */
+	void reserve(int size) throws IOException {
+		if (segment != null && segment.remaining() > size) return;
+		if (segment != null) {
+			segment.put(END);
+		}
+		directory.mkdirs();
+		File file = new File(directory, String.format("trace-%03d.bin", segmentIndex++));
+		try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+			segment = output.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(Options.traceSegmentSize, HEADER_SIZE + size + 1));
+		}
+		segment.putInt(MAGIC);
+		segment.putShort(VERSION);
+		segment.putLong(START_MILLIS);
+		segment.putLong(START_NANOS);
+		definedMethods.clear();
+	}
+}
@@ -0,0 +1,95 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+
+class TraceFileTest {
+
+	String read(File directory, long threadFilter) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new TraceReader(new PrintStream(bytes), threadFilter).read(directory);
+		return bytes.toString().replaceAll("(?m)^ *[0-9]+ [A-Z][a-z][a-z] [A-Z][a-z][a-z] .*\n", "DATE\n");
+	}
+
+	@Test
+	void test_trace_reads_back_as_indented_text() throws Exception {
+		int outer = Method.register("org.example.Outer$Inner.run()");
+		int inner = Method.register("org.example.Helper.help(int)");
+		Method.enter(outer, null);
+		Method.enter(inner, null);
+		File directory = Files.createTempDirectory("trace").toFile();
+		TraceFile trace = new TraceFile(directory);
+		trace.enter(outer, 7, 0, TraceFile.START_NANOS, 1, "");
+		trace.enter(inner, 7, 1, TraceFile.START_NANOS, 2, "count=3\nname=x");
+		trace.leave(inner, 7, 1, TraceFile.START_NANOS);
+		trace.leave(outer, 7, 0, TraceFile.START_NANOS);
+		trace.enter(inner, 8, 0, TraceFile.START_NANOS, 3, "");
+		assertEquals(
+			"DATE\n" +
+			"     7 at org.example.Outer$Inner.run()(Outer.java:1) - 1 calls {\n" +
+			"     7     at org.example.Helper.help(int)(Helper.java:1) - 2 calls {\n" +
+			"     7         count=3\n" +
+			"     7         name=x\n" +
+			"     7     }\n" +
+			"     7 }\n" +
+			"DATE\n" +
+			"     8 at org.example.Helper.help(int)(Helper.java:1) - 3 calls {\n",
+			read(directory, -1));
+		assertEquals(
+			"DATE\n" +
+			"     8 at org.example.Helper.help(int)(Helper.java:1) - 3 calls {\n",
+			read(directory, 8));
+	}
+
+	@Test
+	void test_trace_rolls_over_to_new_segments() throws Exception {
+		int method = Method.register("org.example.Rolling.roll()");
+		Method.enter(method, null);
+		File directory = Files.createTempDirectory("trace").toFile();
+		int segmentSize = Options.traceSegmentSize;
+		Options.traceSegmentSize = 1024;
+		try {
+			TraceFile trace = new TraceFile(directory);
+			for (int n=0; n<100; n++) {
+				trace.enter(method, 1, 0, TraceFile.START_NANOS, n, "");
+				trace.leave(method, 1, 0, TraceFile.START_NANOS);
+			}
+		} finally {
+			Options.traceSegmentSize = segmentSize;
+		}
+		assertTrue(directory.list().length > 1);
+		String text = read(directory, -1);
+		assertTrue(text.contains("org.example.Rolling.roll()(Rolling.java:1) - 0 calls {"));
+		assertTrue(text.contains("org.example.Rolling.roll()(Rolling.java:1) - 99 calls {"));
+		assertEquals(300, text.split("\n").length);
+	}
+
+	@Test
+	void test_trace_folds_into_call_paths() throws Exception {
+		int outer = Method.register("org.example.Folded.outer()");
+		int inner = Method.register("org.example.Folded.inner(int)");
+		Method.enter(outer, null);
+		Method.enter(inner, null);
+		File directory = Files.createTempDirectory("trace").toFile();
+		TraceFile trace = new TraceFile(directory);
+		for (long thread=1; thread<=2; thread++) {
+			trace.enter(outer, thread, 0, TraceFile.START_NANOS, 1, "");
+			trace.enter(inner, thread, 1, TraceFile.START_NANOS + 1000000, 2, "");
+			trace.leave(inner, thread, 1, TraceFile.START_NANOS + 4000000);
+			trace.leave(outer, thread, 0, TraceFile.START_NANOS + 5000000);
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new TraceReader(new PrintStream(bytes), new StackTrie(16)).fold(directory);
+		assertEquals(
+			"org.example.Folded.outer() 4000\n" +
+			"org.example.Folded.outer();org.example.Folded.inner(int) 6000\n",
+			bytes.toString());
+	}
+}
@@ -0,0 +1,146 @@
+package cacophonia.runtime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+
+import cacophonia.protocol.Protocol;
+
+/**
+ * Turns a trace written by {@link TraceFile} back into the indented text view of the traced calls:
+ * <pre>
+ * java -cp cacophonia.jar cacophonia.runtime.TraceReader ~/.cacophonia/traces/20201018-101500 [threadId | folded]
+ * </pre>
+ * Each line starts with the ID of the thread that made the call. When a thread ID is given, only the calls
+ * of that thread are shown. With <tt>folded</tt>, the call paths are added up in a {@link StackTrie} and
+ * written in the folded-stack format of flame graph tools instead.
+ */
+public class TraceReader {
+	static final int FOLDED_CAPACITY = 1024 * 1024;
+	HashMap<Integer,String> methodNames = new HashMap<Integer,String>();
+	PrintStream out;
+	long threadFilter;
+	long startMillis, startNanos;
+	StackTrie stacks;	// set when the trace is folded
+
+	TraceReader(PrintStream out, long threadFilter) {
+		this.out = out;
+		this.threadFilter = threadFilter;
+	}
+
+	TraceReader(PrintStream out, StackTrie stacks) {
+		this(out, -1);
+		this.stacks = stacks;
+	}
+
+	public static void main(String args[]) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: TraceReader traceDirectory [threadId | folded]");
+			System.exit(1);
+		}
+		if (args.length > 1 && args[1].equals("folded")) {
+			new TraceReader(System.out, new StackTrie(FOLDED_CAPACITY)).fold(new File(args[0]));
+			return;
+		}
+		long threadFilter = args.length > 1 ? Long.parseLong(args[1]) : -1;
+		new TraceReader(System.out, threadFilter).read(new File(args[0]));
+	}
+
+	void fold(File directory) throws IOException {
+		read(directory);
+		stacks.fold(methodId -> methodNames.getOrDefault(methodId, "???"), 0, (stack, micros) -> out.println(stack + " " + micros));
+	}
+
+	void read(File directory) throws IOException {
+		File segments[] = directory.listFiles((dir, name) -> name.startsWith("trace-") && name.endsWith(".bin"));
+		if (segments == null) throw new IOException("No trace in " + directory);
+		Arrays.sort(segments);
+		for (File segment : segments) {
+			try (RandomAccessFile input = new RandomAccessFile(segment, "r")) {
+				readSegment(input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length()));
+			}
+		}
+	}
+
+	void readSegment(ByteBuffer buffer) throws IOException {
+		if (buffer.getInt() != TraceFile.MAGIC) throw new IOException("Not a Cacophonia trace");
+		short version = buffer.getShort();
+		if (version != TraceFile.VERSION) throw new IOException("Unsupported Cacophonia trace version " + version);
+		startMillis = buffer.getLong();
+		startNanos = buffer.getLong();
+		while (buffer.hasRemaining()) {
+			byte kind = buffer.get();
+			switch (kind) {
+			case TraceFile.METHOD:
+				int methodId = buffer.getInt();
+				methodNames.put(methodId, getString(buffer));
+				break;
+			case TraceFile.ENTER:
+				enter(buffer.getInt(), buffer.getLong(), buffer.getShort(), buffer.getLong(), buffer.getLong(), getString(buffer));
+				break;
+			case TraceFile.LEAVE:
+				leave(buffer.getInt(), buffer.getLong(), buffer.getShort(), buffer.getLong());
+				break;
+			case TraceFile.END:
+				return;
+			default:
+				throw new IOException("Unknown trace record " + kind);
+			}
+		}
+	}
+
+	void enter(int methodId, long threadId, int depth, long time, long callCount, String fields) {
+		if (stacks != null) {
+			stacks.enter(threadId, depth, methodId, time);
+			return;
+		}
+		if (threadFilter != -1 && threadId != threadFilter) return;
+		if (depth == 0) {
+			print(threadId, 0, new Date(startMillis + (time - startNanos) / 1000000).toString());
+		}
+		String name = methodNames.getOrDefault(methodId, "???");
+		print(threadId, depth, String.format("at %s(%s:1) - %d calls {", name, getFileName(name), callCount));
+		if (fields.isEmpty()) return;
+		for (String field : fields.split("\n")) {
+			print(threadId, depth + 1, field);
+		}
+	}
+
+	void leave(int methodId, long threadId, int depth, long time) {
+		if (stacks != null) {
+			stacks.leave(threadId, depth, time);
+			return;
+		}
+		if (threadFilter != -1 && threadId != threadFilter) return;
+		print(threadId, depth, "}");
+	}
+
+	void print(long threadId, int depth, String text) {
+		StringBuilder line = new StringBuilder(String.format("%6d ", threadId));
+		for (int n=0; n<depth; n++) line.append("    ");
+		out.println(line.append(text));
+	}
+
+	/**
+	 * Returns the source file of a method named like <tt>org.eclipse.Outer$Inner.run(int)</tt>, 
+	 * assuming the usual one top-level class per file.
+	 */
+	static String getFileName(String methodName) {
+		int parameters = methodName.indexOf('(');
+		String className = methodName.substring(0, Math.max(0, methodName.lastIndexOf('.', parameters == -1 ? methodName.length() : parameters)));
+		String simpleName = className.substring(className.lastIndexOf('.') + 1).split("\\$")[0];
+		return simpleName + ".java";
+	}
+
+	static String getString(ByteBuffer buffer) {
+		byte bytes[] = new byte[buffer.getShort() & 0xFFFF];
+		buffer.get(bytes);
+		return Protocol.decode(bytes);
+	}
+}
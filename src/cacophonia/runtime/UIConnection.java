@@ -0,0 +1,205 @@
+package cacophonia.runtime;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayDeque;
+
+import cacophonia.protocol.Protocol;
+
+/**
+ * The connection of the agent to the UI, a non-blocking {@link SocketChannel} that survives the UI going away.
+ * <p>
+ * The connection thread connects to the UI, backing off up to {@link Options#reconnectInterval} milliseconds
+ * between attempts, and then reads the UI's commands until the UI goes away. After that it starts over, so
+ * a restarted UI is picked up again. Nothing in the agent ever exits the process or waits for the UI.
+ * <p>
+ * The {@link EventFlusher} writes the encoded events to this channel. What the socket does not take right
+ * away is kept in a backlog of at most {@link Options#backlogSize} bytes, which is sent with one gathering
+ * write on the next occasion. When the backlog is full, the new bytes are dropped as a whole, so the stream
+ * stays at record boundaries. {@link RemoteUI} then resyncs its encoder.
+ * <p>
+ * Each time the UI goes away, the backlog is cleared and the generation is incremented. {@link RemoteUI}
+ * then starts a new stream, with a header and a fresh plugin dictionary, which is kept in the backlog
+ * until the next UI attaches.
+ */
+class UIConnection extends Thread implements WritableByteChannel {
+	static final int PORT = 6666;
+	static final long MIN_BACKOFF = 100;
+
+	RemoteUI remoteUI;
+	volatile SocketChannel channel;	// null while no UI is attached
+	ArrayDeque<ByteBuffer> backlog = new ArrayDeque<ByteBuffer>();
+	long backlogBytes;
+	long droppedBytes;
+	boolean overflowed;
+	volatile int generation;
+
+	UIConnection(RemoteUI remoteUI) {
+		super("Cacophonia UI Connection");
+		this.remoteUI = remoteUI;
+		setDaemon(true);
+	}
+
+	@Override
+	public void run() {
+		long backoff = MIN_BACKOFF;
+		while (true) {
+			SocketChannel channel = connect();
+			if (channel == null) {
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException e) {
+					return;
+				}
+				backoff = Math.min(2 * backoff, Math.max(MIN_BACKOFF, Options.reconnectInterval));
+				continue;
+			}
+			backoff = MIN_BACKOFF;
+			System.out.println("Cacophonia: UI attached");
+			try {
+				attach(channel);
+				readCommands(channel);
+			} catch (IOException e) {
+				// the UI went away
+			}
+			detach(channel);
+			System.out.println("Cacophonia: UI went away, reconnecting");
+		}
+	}
+
+	SocketChannel connect() {
+		try {
+			SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", PORT));
+			channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+			channel.configureBlocking(false);
+			return channel;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the commands of the UI until it closes the connection. Each command is an int followed by a string
+	 * as written by {@link java.io.DataOutputStream#writeUTF(String)}.
+	 */
+	void readCommands(SocketChannel channel) throws IOException {
+		ByteBuffer input = ByteBuffer.allocate(Protocol.BUFFER_SIZE);
+		try (Selector selector = Selector.open()) {
+			channel.register(selector, SelectionKey.OP_READ);
+			while (channel.isOpen()) {
+				selector.select(1000);
+				selector.selectedKeys().clear();
+				if (channel.read(input) == -1) return;
+				input.flip();
+				while (input.remaining() >= 4 + 2) {
+					int length = input.getShort(input.position() + 4) & 0xFFFF;
+					if (input.remaining() < 4 + 2 + length) break;
+					DataInputStream command = new DataInputStream(new ByteArrayInputStream(input.array(), input.position(), 4 + 2 + length));
+					remoteUI.handleCommand(command.readInt(), command.readUTF());
+					input.position(input.position() + 4 + 2 + length);
+				}
+				input.compact();
+			}
+		}
+	}
+
+	synchronized void attach(SocketChannel channel) throws IOException {
+		this.channel = channel;
+		sendBacklog(null);
+	}
+
+	synchronized void detach(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		if (this.channel != channel) return;
+		this.channel = null;
+		backlog.clear();
+		backlogBytes = 0;
+		overflowed = false;
+		generation++;
+	}
+
+	boolean isAttached() {
+		return channel != null;
+	}
+
+	/**
+	 * Returns whether bytes were dropped since the previous call.
+	 */
+	synchronized boolean takeOverflow() {
+		boolean result = overflowed;
+		overflowed = false;
+		return result;
+	}
+
+	synchronized long getBacklogBytes() {
+		return backlogBytes;
+	}
+
+	synchronized long getDroppedBytes() {
+		return droppedBytes;
+	}
+
+	/**
+	 * Called by the flusher only. Never blocks.
+	 */
+	@Override
+	public synchronized int write(ByteBuffer source) {
+		int count = source.remaining();
+		if (channel != null) {
+			try {
+				sendBacklog(source);
+			} catch (IOException e) {
+				detach(channel);
+				source.position(source.limit());	// part of a stream the UI will never see
+				return count;
+			}
+		}
+		if (!source.hasRemaining()) return count;
+		if (source.remaining() == count && backlogBytes + count > Math.max(Options.backlogSize, Protocol.BUFFER_SIZE)) {
+			droppedBytes += count;
+			overflowed = true;
+		} else {
+			// a partly sent buffer is always kept, otherwise the UI would see half a record
+			ByteBuffer copy = ByteBuffer.allocate(source.remaining());
+			copy.put(source).flip();
+			backlog.add(copy);
+			backlogBytes += copy.capacity();
+		}
+		source.position(source.limit());
+		return count;
+	}
+
+	/**
+	 * Writes the backlog, followed by the given buffer when there is one, in a single gathering write.
+	 */
+	void sendBacklog(ByteBuffer source) throws IOException {
+		if (backlog.isEmpty() && source == null) return;
+		ByteBuffer buffers[] = backlog.toArray(new ByteBuffer[backlog.size() + (source == null ? 0 : 1)]);
+		if (source != null) buffers[buffers.length - 1] = source;
+		channel.write(buffers);
+		while (!backlog.isEmpty() && !backlog.peek().hasRemaining()) {
+			backlogBytes -= backlog.poll().capacity();
+		}
+	}
+
+	@Override
+	public boolean isOpen() {
+		return true;
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,110 @@
+package cacophonia.runtime;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import cacophonia.Constants;
+
+
+class UIConnectionTest {
+	UIConnection connection = new UIConnection(new RemoteUI());
+
+	ByteBuffer bytes(int count, int value) {
+		ByteBuffer buffer = ByteBuffer.allocate(count);
+		while (buffer.hasRemaining()) buffer.put((byte)value);
+		buffer.flip();
+		return buffer;
+	}
+
+	SocketChannel[] connect() throws Exception {
+		try (ServerSocketChannel server = ServerSocketChannel.open()) {
+			server.bind(new InetSocketAddress("localhost", 0));
+			SocketChannel agent = SocketChannel.open(server.getLocalAddress());
+			agent.configureBlocking(false);
+			return new SocketChannel[] { agent, server.accept() };
+		}
+	}
+
+	ByteBuffer read(SocketChannel channel, int count) throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(count);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) == -1) break;
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	@Test
+	void test_bytes_written_while_away_are_sent_when_the_ui_attaches() throws Exception {
+		assertFalse(connection.isAttached());
+		connection.write(bytes(100, 1));
+		connection.write(bytes(50, 2));
+		assertEquals(150, connection.getBacklogBytes());
+		SocketChannel channels[] = connect();
+		connection.attach(channels[0]);
+		connection.write(bytes(10, 3));
+		assertEquals(0, connection.getBacklogBytes());
+		ByteBuffer received = read(channels[1], 160);
+		assertEquals(1, received.get(99));
+		assertEquals(2, received.get(149));
+		assertEquals(3, received.get(159));
+	}
+
+	@Test
+	void test_a_full_backlog_drops_whole_buffers() throws Exception {
+		int size = Options.backlogSize;
+		connection.write(bytes(size - 10, 1));
+		assertFalse(connection.takeOverflow());
+		connection.write(bytes(100, 2));
+		assertEquals(size - 10, connection.getBacklogBytes());
+		assertEquals(100, connection.getDroppedBytes());
+		assertTrue(connection.takeOverflow());
+		assertFalse(connection.takeOverflow());
+	}
+
+	@Test
+	void test_detach_starts_a_new_generation() throws Exception {
+		SocketChannel channels[] = connect();
+		connection.attach(channels[0]);
+		int generation = connection.generation;
+		channels[1].close();
+		connection.detach(channels[0]);
+		assertFalse(connection.isAttached());
+		assertEquals(generation + 1, connection.generation);
+		connection.write(bytes(10, 1));
+		assertEquals(10, connection.getBacklogBytes());
+	}
+
+	@Test
+	void test_commands_are_read_until_the_ui_closes() throws Exception {
+		List<String> commands = new ArrayList<String>();
+		connection = new UIConnection(new RemoteUI() {
+			void handleCommand(int command, String details) {
+				commands.add(command + " " + details);
+			}
+		});
+		SocketChannel channels[] = connect();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(bytes);
+		output.writeInt(Constants.EVENT_INSPECT_PLUGIN);
+		output.writeUTF("org.eclipse.ui");
+		output.writeInt(Constants.EVENT_SAMPLING);
+		output.writeUTF("none");
+		channels[1].write(ByteBuffer.wrap(bytes.toByteArray(), 0, 7));
+		channels[1].write(ByteBuffer.wrap(bytes.toByteArray(), 7, bytes.size() - 7));
+		channels[1].close();
+		connection.readCommands(channels[0]);
+		assertEquals(Arrays.asList(Constants.EVENT_INSPECT_PLUGIN + " org.eclipse.ui", Constants.EVENT_SAMPLING + " none"), commands);
+	}
+}
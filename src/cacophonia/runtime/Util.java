@@ -8,4 +8,11 @@ public class Util {
 	    return String.format("%.0f%sB", (double)v / (1L << (z*10)), " KMGTPE".charAt(z));
 	}
 
+	public static String formatNanos(long nanos) {
+		if (nanos < 1000) return nanos + "ns";
+		if (nanos < 1000000) return String.format("%.1fus", nanos / 1000.0);
+		if (nanos < 1000000000) return String.format("%.1fms", nanos / 1000000.0);
+		return String.format("%.1fs", nanos / 1000000000.0);
+	}
+
 }
@@ -0,0 +1,3 @@
+package cacophonia.runtime;
+
+public enum WaitStrategy { SLEEP, YIELD, SPIN }
@@ -0,0 +1,126 @@
+package cacophonia.ui;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import cacophonia.protocol.EventDecoder;
+import cacophonia.protocol.MappedRing;
+import cacophonia.protocol.Protocol;
+
+/**
+ * One Eclipse JVM connected to the UI, see {@link AgentServer}.
+ * <p>
+ * Each agent has its own {@link EventReceiver} and decoders, so it has its own plugin dictionary. When the
+ * agents are shown side by side, the names of their plugins are labeled with the agent ID, as in
+ * <tt>#2 org.eclipse.ui</tt>, so each agent gets nodes of its own. Otherwise the plugins of all agents are merged.
+ * The decoders pass the events through a {@link Recorder}, which appends them to the session recording.
+ */
+class Agent {
+	static List<Agent> agents = new CopyOnWriteArrayList<Agent>();
+	static volatile boolean split;
+
+	int id;
+	SocketChannel channel;
+	boolean ended;	// only used by the AgentServer thread
+	EventReceiver receiver = new EventReceiver(this);
+	EventDecoder decoder = new Recorder(this, receiver).decoder;
+	ByteBuffer pending = ByteBuffer.allocate(2 * Protocol.BUFFER_SIZE);
+	ArrayDeque<ByteBuffer> commands = new ArrayDeque<ByteBuffer>();
+	// set when the agent uses the shm transport, see cacophonia.protocol.MappedRing
+	volatile MappedRing ring;
+	EventDecoder ringDecoder;
+	ByteBuffer ringPending = ByteBuffer.allocate(2 * Protocol.BUFFER_SIZE);
+
+	Agent(int id, SocketChannel channel) {
+		this.id = id;
+		this.channel = channel;
+	}
+
+	/**
+	 * Decodes the bytes read from the agent's socket or ring. Called by the {@link AgentServer}'s ingest thread only.
+	 */
+	void ingest(ByteBuffer bytes, boolean fromRing) throws IOException {
+		ByteBuffer buffer = fromRing ? ringPending : pending;
+		buffer.put(bytes);
+		buffer.flip();
+		(fromRing ? ringDecoder : decoder).decode(buffer);
+		buffer.compact();
+	}
+
+	/**
+	 * Called when the agent announces the shm transport. From then on, the {@link AgentServer} polls the ring.
+	 */
+	void openRing(String path) throws IOException {
+		ringDecoder = new Recorder(this, receiver).decoder;
+		ring = MappedRing.open(new File(path));
+		AgentServer.wakeup();
+		System.out.println(String.format("Agent #%d sends its events through %s", id, path));
+	}
+
+	/**
+	 * Queues a command for the agent. The {@link AgentServer} writes it without blocking the caller.
+	 */
+	void send(int command, String details) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(bytes);
+			output.writeInt(command);
+			output.writeUTF(details);
+			synchronized (commands) {
+				commands.add(ByteBuffer.wrap(bytes.toByteArray()));
+			}
+			AgentServer.wakeup();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Sends a command to the given agent, or to all agents for ID 0.
+	 */
+	static void send(int agentId, int command, String details) {
+		for (Agent agent : agents) {
+			if (agentId == 0 || agent.id == agentId) {
+				agent.send(command, details);
+			}
+		}
+	}
+
+	/**
+	 * Returns the name under which the plugin of the given agent is shown.
+	 */
+	String label(String name) {
+		return split ? label(id, name) : name;
+	}
+
+	static String label(int agentId, String name) {
+		return agentId == 0 ? name : "#" + agentId + " " + name;
+	}
+
+	/**
+	 * Returns the agent of a labeled plugin name, or 0 when the name is not labeled.
+	 */
+	static int getId(String name) {
+		if (!name.startsWith("#")) return 0;
+		int space = name.indexOf(' ');
+		try {
+			return space == -1 ? 0 : Integer.parseInt(name.substring(1, space));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Returns the plugin name without its agent label.
+	 */
+	static String strip(String name) {
+		return getId(name) == 0 ? name : name.substring(name.indexOf(' ') + 1);
+	}
+}
@@ -0,0 +1,224 @@
+package cacophonia.ui;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import cacophonia.protocol.MappedRing;
+import cacophonia.protocol.Protocol;
+
+/**
+ * Accepts any number of agents, one per Eclipse JVM, and reads their events with a single {@link Selector}.
+ * <p>
+ * The server thread only moves bytes. It reads from the sockets, polls the rings of agents that use the shm
+ * transport, and writes queued commands. The bytes go into one shared, bounded ingest queue. A single ingest
+ * thread decodes them with the decoder of their {@link Agent} and updates the graph, so the UI uses two
+ * threads no matter how many agents connect. When the ingest thread falls behind, the queue fills up and the
+ * server stops reading, which pushes back on the agents through TCP.
+ */
+class AgentServer extends Thread {
+	static final int PORT = 6666;
+	static final int QUEUE_SIZE = 256;
+	static final long RING_POLL_INTERVAL = 1;	// in milliseconds
+	static volatile Selector selector;
+
+	BlockingQueue<Chunk> ingestQueue = new ArrayBlockingQueue<Chunk>(QUEUE_SIZE);
+	int nextAgentId = 1;
+
+	/**
+	 * Bytes read from an agent. A chunk without bytes tells that the agent went away.
+	 */
+	static class Chunk {
+		Agent agent;
+		ByteBuffer bytes;
+		boolean fromRing;
+
+		Chunk(Agent agent, ByteBuffer bytes, boolean fromRing) {
+			this.agent = agent;
+			this.bytes = bytes;
+			this.fromRing = fromRing;
+		}
+	}
+
+	class Ingester extends Thread {
+		Ingester() {
+			super("Cacophonia Ingest");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				Chunk chunk;
+				try {
+					chunk = ingestQueue.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+				Agent agent = chunk.agent;
+				if (chunk.bytes == null) {
+					removed(agent);
+					continue;
+				}
+				try {
+					agent.ingest(chunk.bytes, chunk.fromRing);
+				} catch (Exception e) {
+					e.printStackTrace();
+					close(agent);
+				}
+			}
+		}
+	}
+
+	AgentServer() {
+		super("Cacophonia Agent Server");
+		setDaemon(true);
+	}
+
+	static void startServer() {
+		AgentServer server = new AgentServer();
+		server.new Ingester().start();
+		server.start();
+	}
+
+	static void wakeup() {
+		Selector current = selector;
+		if (current != null) current.wakeup();
+	}
+
+	@Override
+	public void run() {
+		try (ServerSocketChannel server = ServerSocketChannel.open(); Selector selector = Selector.open()) {
+			server.bind(new InetSocketAddress("localhost", PORT));
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+			AgentServer.selector = selector;
+			while (true) {
+				selector.select(hasRings() ? RING_POLL_INTERVAL : 0);
+				for (SelectionKey key : selector.selectedKeys()) {
+					if (!key.isValid()) continue;
+					if (key.isAcceptable()) {
+						accept(server.accept(), selector);
+						continue;
+					}
+					Agent agent = (Agent)key.attachment();
+					if (key.isReadable()) read(agent);
+				}
+				selector.selectedKeys().clear();
+				for (Agent agent : Agent.agents) {
+					if (!agent.channel.isOpen()) {
+						pollRing(agent);
+						ended(agent);
+						continue;
+					}
+					writeCommands(agent, selector);
+					pollRing(agent);
+				}
+			}
+		} catch (IOException | InterruptedException e) {
+			e.printStackTrace();
+			System.err.println("Cacophonia UI cannot accept agents on port " + PORT);
+		}
+	}
+
+	void accept(SocketChannel channel, Selector selector) throws IOException {
+		if (channel == null) return;
+		channel.configureBlocking(false);
+		Agent agent = new Agent(nextAgentId++, channel);
+		channel.register(selector, SelectionKey.OP_READ, agent);
+		Agent.agents.add(agent);
+		UI.metrics.clear();	// the metrics are labeled with their agent when there is more than one
+		System.out.println(String.format("Agent #%d connected from %s", agent.id, channel.getRemoteAddress()));
+	}
+
+	void read(Agent agent) throws InterruptedException {
+		ByteBuffer bytes = ByteBuffer.allocate(Protocol.BUFFER_SIZE);
+		int count;
+		try {
+			count = agent.channel.read(bytes);
+		} catch (IOException e) {
+			count = -1;
+		}
+		if (count == -1) {
+			close(agent);
+			return;
+		}
+		if (count == 0) return;
+		bytes.flip();
+		ingestQueue.put(new Chunk(agent, bytes, false));
+	}
+
+	void pollRing(Agent agent) throws InterruptedException {
+		MappedRing ring = agent.ring;
+		if (ring == null) return;
+		try {
+			ByteBuffer bytes = ByteBuffer.allocate(Protocol.BUFFER_SIZE);
+			if (ring.read(bytes) == 0) return;
+			bytes.flip();
+			ingestQueue.put(new Chunk(agent, bytes, true));
+		} catch (IOException e) {
+			e.printStackTrace();
+			agent.ring = null;
+		}
+	}
+
+	void writeCommands(Agent agent, Selector selector) {
+		SelectionKey key = agent.channel.keyFor(selector);
+		if (key == null || !key.isValid()) return;
+		synchronized (agent.commands) {
+			try {
+				while (!agent.commands.isEmpty()) {
+					ByteBuffer command = agent.commands.peek();
+					agent.channel.write(command);
+					if (command.hasRemaining()) break;
+					agent.commands.poll();
+				}
+			} catch (IOException e) {
+				agent.commands.clear();
+			}
+			key.interestOps(agent.commands.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+	}
+
+	/**
+	 * Tells the ingest thread that the agent went away, after the bytes that were read before.
+	 */
+	void ended(Agent agent) throws InterruptedException {
+		if (agent.ended) return;
+		agent.ended = true;
+		ingestQueue.put(new Chunk(agent, null, false));
+	}
+
+	boolean hasRings() {
+		for (Agent agent : Agent.agents) {
+			if (agent.ring != null) return true;
+		}
+		return false;
+	}
+
+	static void close(Agent agent) {
+		try {
+			agent.channel.close();
+		} catch (IOException e) {
+			// ignore
+		}
+		wakeup();
+	}
+
+	/**
+	 * Called by the ingest thread after the last bytes of the agent were decoded.
+	 */
+	static void removed(Agent agent) {
+		Agent.agents.remove(agent);
+		UI.metrics.clear();
+		agent.ring = null;
+		agent.receiver.clearReports();
+		System.out.println(String.format("Agent #%d went away", agent.id));
+	}
+}
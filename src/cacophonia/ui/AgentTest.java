@@ -0,0 +1,56 @@
+package cacophonia.ui;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+
+class AgentTest {
+
+	@Test
+	void test_names_are_labeled_with_their_agent() {
+		assertEquals("org.eclipse.ui", Agent.label(0, "org.eclipse.ui"));
+		assertEquals("#12 org.eclipse.ui", Agent.label(12, "org.eclipse.ui"));
+		assertEquals(12, Agent.getId("#12 org.eclipse.ui"));
+		assertEquals("org.eclipse.ui", Agent.strip("#12 org.eclipse.ui"));
+	}
+
+	@Test
+	void test_unlabeled_names_are_left_alone() {
+		assertEquals(0, Agent.getId("org.eclipse.ui"));
+		assertEquals(0, Agent.getId("#x org.eclipse.ui"));
+		assertEquals("#x org.eclipse.ui", Agent.strip("#x org.eclipse.ui"));
+		assertEquals("#nospace", Agent.strip("#nospace"));
+	}
+
+	@Test
+	void test_agent_labels_only_when_split() {
+		Agent agent = new Agent(3, null);
+		try {
+			Agent.split = false;
+			assertEquals("org.eclipse.ui", agent.label("org.eclipse.ui"));
+			Agent.split = true;
+			assertEquals("#3 org.eclipse.ui", agent.label("org.eclipse.ui"));
+		} finally {
+			Agent.split = false;
+		}
+	}
+
+	@Test
+	void test_commands_are_queued_for_the_addressed_agent() {
+		Agent first = new Agent(1, null);
+		Agent second = new Agent(2, null);
+		Agent.agents.add(first);
+		Agent.agents.add(second);
+		try {
+			Agent.send(2, 13, "none");
+			assertEquals(0, first.commands.size());
+			assertEquals(4 + 2 + 4, second.commands.peek().remaining());
+			Agent.send(0, 13, "none");
+			assertEquals(1, first.commands.size());
+			assertEquals(2, second.commands.size());
+		} finally {
+			Agent.agents.clear();
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package cacophonia.ui;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import cacophonia.Constants;
+import cacophonia.DetailLevel;
+import cacophonia.protocol.EventHandler;
+import cacophonia.runtime.Util;
+
+/**
+ * Handles the events sent by the agent and updates the graph.
+ * <p>
+ * Plugin names arrive once, as dictionary entries. Calls only carry plugin IDs, which are mapped to the names
+ * shown for the current {@link DetailLevel}. That mapping is cached per ID and dropped when the level changes.
+ * <p>
+ * Each {@link Agent} has its own receiver. The reports of all agents are merged into the ones the UI shows.
+ * While a recording is replayed, the agents' events are not shown.
+ */
+public class EventReceiver implements EventHandler {
+	Agent agent;
+	String pluginNames[] = new String[256];
+	String shownNames[] = new String[256];
+	DetailLevel shownLevel = Plugin.detailLevel;
+	boolean shownSplit = Agent.split;
+	HashMap<String,String> latencies = new HashMap<String,String>();
+	String slowestEdge = "";
+	HashMap<String,long[]> pluginTimes = new HashMap<String,long[]>();
+	HashMap<String,Long> pluginAllocations = new HashMap<String,Long>();
+	HashMap<String,Long> edgeAllocations = new HashMap<String,Long>();
+	LinkedHashMap<String,String> handOffs = new LinkedHashMap<String,String>();
+	MethodCallsWindow methodCalls;
+	IcicleView flameGraph;
+
+	public EventReceiver() {
+	}
+
+	EventReceiver(Agent agent) {
+		this.agent = agent;
+	}
+
+	@Override
+	public void pluginName(int pluginId, String name) {
+		if (pluginId >= pluginNames.length) {
+			pluginNames = grow(pluginNames, pluginId);
+		}
+		pluginNames[pluginId] = name;
+		if (pluginId < shownNames.length) {
+			shownNames[pluginId] = null;
+		}
+	}
+
+	@Override
+	public void methodName(int methodId, String name) {
+		// not handled
+	}
+
+	@Override
+	public void pluginCall(int fromPluginId, int toPluginId, int threadId, long time) {
+		if (agent != null && !UI.live) return;	// a recording is replayed, see Replay
+		synchronized (UI.callLock) {
+			String from = getShownName(fromPluginId);
+			String to = getShownName(toPluginId);
+			if (from == null || to == null) return;
+			Plugin.called(from, to, UI.graph);
+		}
+	}
+
+	@Override
+	public void pluginCalls(int fromPluginId, int toPluginId, int count, long time) {
+		pluginCall(fromPluginId, toPluginId, 0, time);
+	}
+
+	@Override
+	public void message(int type, String message, long time) {
+		if (agent != null && !UI.live && type != Constants.EVENT_TRANSPORT) return;
+		switch (type) {
+		case Constants.EVENT_METRICS:
+			UI.metrics.update(message, agent != null && Agent.agents.size() > 1 ? Agent.label(agent.id, "") : "");
+			break;
+		case Constants.EVENT_TRANSPORT:
+			try {
+				if (agent != null) agent.openRing(message);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			break;
+		case Constants.EVENT_JOB:
+			UI.handleJob(message);
+			break;
+		case Constants.EVENT_GOVERNOR:
+			UI.governor = message;
+			break;
+		case Constants.EVENT_LATENCY:
+			handleLatency(message);
+			break;
+		case Constants.EVENT_PLUGIN_TIMES:
+			handlePluginTimes(message);
+			break;
+		case Constants.EVENT_ALLOCATIONS:
+			handleAllocations(message);
+			break;
+		case Constants.EVENT_HAND_OFFS:
+			handleHandOffs(message);
+			break;
+		case Constants.EVENT_FLAME_GRAPH:
+			if (agent != null) {	// only shown when asked for, not when replayed
+				flameGraph = IcicleView.show(flameGraph, Agent.agents.size() > 1 ? Agent.label(agent.id, "") : "", message);
+			}
+			break;
+		case Constants.EVENT_METHOD_CALLS:
+			if (agent != null) {	// only shown when asked for, not when replayed
+				methodCalls = MethodCallsWindow.show(methodCalls, Agent.agents.size() > 1 ? Agent.label(agent.id, "") : "", message);
+			}
+			break;
+		case Constants.EVENT_PLUGIN_DETAILS:
+			// not handled
+			break;
+		}
+	}
+
+	/**
+	 * Keeps the latency of the slowest plugins, shown in their popup menu, and of the slowest plugin boundary,
+	 * shown with the statistics. See cacophonia.runtime.Latencies for the format.
+	 */
+	void handleLatency(String report) {
+		latencies.clear();
+		slowestEdge = "";
+		for (String line : report.split("\n")) {
+			String fields[] = line.split("\t");
+			if (fields.length != 8) continue;
+			String summary = String.format("n=%s total=%s p50=%s p90=%s p99=%s max=%s",
+					fields[2],
+					Util.formatNanos(Long.parseLong(fields[3])),
+					Util.formatNanos(Long.parseLong(fields[4])),
+					Util.formatNanos(Long.parseLong(fields[5])),
+					Util.formatNanos(Long.parseLong(fields[6])),
+					Util.formatNanos(Long.parseLong(fields[7])));
+			if (fields[0].equals("plugin")) {
+				latencies.putIfAbsent(label(PluginRegistry.mapToDetailLevel(fields[1], Plugin.detailLevel)), summary);
+			} else if (fields[0].equals("edge") && slowestEdge.isEmpty()) {
+				slowestEdge = label(fields[1]) + "  " + summary;
+			}
+		}
+		mergeReports();
+	}
+
+	/**
+	 * Adds up the self and total times of the plugins shown for the current detail level. A report can
+	 * span several messages, so a copy is shown after each one. See cacophonia.runtime.PluginTimes for the format.
+	 */
+	void handlePluginTimes(String report) {
+		for (String line : report.split("\n")) {
+			String fields[] = line.split("\t");
+			if (fields[0].equals("report") && fields.length == 2) {
+				pluginTimes.clear();
+				UI.pluginTimeInterval = Long.parseLong(fields[1]);
+				continue;
+			}
+			if (fields.length != 5) continue;
+			String name = label(PluginRegistry.mapToDetailLevel(fields[0], Plugin.detailLevel));
+			long times[] = pluginTimes.computeIfAbsent(name, key -> new long[4]);
+			for (int n=0; n<times.length; n++) {
+				times[n] += Long.parseLong(fields[n + 1]);
+			}
+		}
+		mergeReports();
+	}
+
+	/**
+	 * Adds up the allocated bytes of the plugins and edges shown for the current detail level. 
+	 * See cacophonia.runtime.Allocations for the format.
+	 */
+	void handleAllocations(String report) {
+		for (String line : report.split("\n")) {
+			String fields[] = line.split("\t");
+			if (fields[0].equals("report") && fields.length == 2) {
+				pluginAllocations.clear();
+				edgeAllocations.clear();
+				UI.allocationInterval = Long.parseLong(fields[1]);
+			} else if (fields[0].equals("plugin") && fields.length == 3) {
+				pluginAllocations.merge(label(PluginRegistry.mapToDetailLevel(fields[1], Plugin.detailLevel)), Long.parseLong(fields[2]), Long::sum);
+			} else if (fields[0].equals("edge") && fields.length == 4) {
+				String from = label(PluginRegistry.mapToDetailLevel(fields[1], Plugin.detailLevel));
+				String to = label(PluginRegistry.mapToDetailLevel(fields[2], Plugin.detailLevel));
+				edgeAllocations.merge(from + " -> " + to, Long.parseLong(fields[3]), Long::sum);
+			}
+		}
+		mergeReports();
+	}
+
+	/**
+	 * Keeps how long the work handed off by one plugin to another waited, longest total wait first, shown in the
+	 * popup menu of the plugin that ran it. See cacophonia.runtime.HandOffs for the format.
+	 */
+	void handleHandOffs(String report) {
+		handOffs.clear();
+		for (String line : report.split("\n")) {
+			String fields[] = line.split("\t");
+			if (fields.length != 9) continue;
+			String from = label(PluginRegistry.mapToDetailLevel(fields[1], Plugin.detailLevel));
+			String to = label(PluginRegistry.mapToDetailLevel(fields[2], Plugin.detailLevel));
+			String summary = String.format("%s n=%s total=%s p50=%s p99=%s max=%s",
+					fields[0],
+					fields[3],
+					Util.formatNanos(Long.parseLong(fields[4])),
+					Util.formatNanos(Long.parseLong(fields[5])),
+					Util.formatNanos(Long.parseLong(fields[7])),
+					Util.formatNanos(Long.parseLong(fields[8])));
+			handOffs.putIfAbsent(from + " -> " + to, summary);
+		}
+		mergeReports();
+	}
+
+	/**
+	 * Drops the reports of an agent that went away.
+	 */
+	void clearReports() {
+		latencies.clear();
+		slowestEdge = "";
+		pluginTimes.clear();
+		pluginAllocations.clear();
+		edgeAllocations.clear();
+		handOffs.clear();
+		mergeReports();
+	}
+
+	/**
+	 * Shows the reports of all agents. Called on the ingest thread only.
+	 */
+	void mergeReports() {
+		List<EventReceiver> receivers = agent == null ? Collections.singletonList(this) :
+			Agent.agents.stream().map(agent -> agent.receiver).collect(Collectors.toList());
+		HashMap<String,String> latencies = new HashMap<String,String>();
+		String slowestEdge = "";
+		HashMap<String,long[]> pluginTimes = new HashMap<String,long[]>();
+		HashMap<String,Long> pluginAllocations = new HashMap<String,Long>();
+		HashMap<String,Long> edgeAllocations = new HashMap<String,Long>();
+		LinkedHashMap<String,String> handOffs = new LinkedHashMap<String,String>();
+		for (EventReceiver receiver : receivers) {
+			receiver.latencies.forEach(latencies::putIfAbsent);
+			if (slowestEdge.isEmpty()) slowestEdge = receiver.slowestEdge;
+			receiver.pluginTimes.forEach((name, times) -> {
+				long merged[] = pluginTimes.computeIfAbsent(name, key -> new long[times.length]);
+				for (int n=0; n<times.length; n++) merged[n] += times[n];
+			});
+			receiver.pluginAllocations.forEach((name, bytes) -> pluginAllocations.merge(name, bytes, Long::sum));
+			receiver.edgeAllocations.forEach((name, bytes) -> edgeAllocations.merge(name, bytes, Long::sum));
+			receiver.handOffs.forEach(handOffs::putIfAbsent);
+		}
+		UI.latencies = latencies;
+		UI.slowestEdge = slowestEdge;
+		UI.pluginTimes = pluginTimes;
+		UI.allocationTotal = Math.max(1, pluginAllocations.values().stream().mapToLong(Long::longValue).sum());
+		UI.pluginAllocations = pluginAllocations;
+		UI.edgeAllocations = edgeAllocations;
+		UI.handOffs = handOffs;
+		Map.Entry<String,String> longest = handOffs.isEmpty() ? null : handOffs.entrySet().iterator().next();
+		UI.longestHandOff = longest == null ? "" : longest.getKey() + "  " + longest.getValue();
+	}
+
+	/**
+	 * Returns the name under which a plugin of this receiver's agent is shown.
+	 */
+	String label(String name) {
+		return agent == null ? name : agent.label(name);
+	}
+
+	String getPluginName(int pluginId) {
+		return pluginId < pluginNames.length ? pluginNames[pluginId] : null;
+	}
+
+	String getShownName(int pluginId) {
+		if (shownLevel != Plugin.detailLevel || shownSplit != Agent.split) {
+			shownNames = new String[shownNames.length];
+			shownLevel = Plugin.detailLevel;
+			shownSplit = Agent.split;
+		}
+		if (pluginId >= shownNames.length) {
+			shownNames = grow(shownNames, pluginId);
+		}
+		String name = shownNames[pluginId];
+		if (name == null) {
+			name = getPluginName(pluginId);
+			if (name == null) return null;
+			name = label(PluginRegistry.mapToDetailLevel(name, shownLevel));
+			shownNames[pluginId] = name;
+		}
+		return name;
+	}
+
+	static String[] grow(String names[], int id) {
+		String grown[] = new String[Math.max(2 * names.length, id + 1)];
+		System.arraycopy(names, 0, grown, 0, names.length);
+		return grown;
+	}
+}
@@ -0,0 +1,195 @@
+package cacophonia.ui;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.Graphics;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+import javax.swing.JComponent;
+import javax.swing.JFrame;
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+
+import cacophonia.Constants;
+import cacophonia.runtime.Util;
+
+/**
+ * Shows the call paths of the inspected plugins as an icicle graph: the outermost calls at the top, and the
+ * calls they make below them, each as wide as its share of the time. Clicking a frame zooms in on it,
+ * clicking the top frame zooms out again. The paths come as a report from the agent, in the folded-stack
+ * format, see cacophonia.runtime.RemoteUI#writeFlameGraph.
+ * <p>
+ * A report can span several messages. The first one starts with the header and opens a new window, the
+ * others are added to the last window opened.
+ */
+class IcicleView extends JComponent {
+	static final int ROW_HEIGHT = 18;
+
+	Frame root = new Frame(null, "all");
+	Frame zoomed = root;
+
+	/**
+	 * One call path, with its inclusive time in microseconds.
+	 */
+	static class Frame {
+		Frame parent;
+		String name;
+		long micros;
+		LinkedHashMap<String,Frame> children = new LinkedHashMap<String,Frame>();
+
+		Frame(Frame parent, String name) {
+			this.parent = parent;
+			this.name = name;
+		}
+
+		int getDepth() {
+			return children.values().stream().mapToInt(child -> child.getDepth() + 1).max().orElse(1);
+		}
+	}
+
+	IcicleView() {
+		setToolTipText("");
+		setFont(new Font(Font.SANS_SERIF, Font.PLAIN, Constants.FONT_SIZE_SMALL + 2));
+		addMouseListener(new MouseAdapter() {
+			@Override
+			public void mouseClicked(MouseEvent e) {
+				Frame frame = getFrame(e.getX(), e.getY());
+				if (frame == null) return;
+				zoomed = frame == zoomed && frame.parent != null ? frame.parent : frame;
+				repaint();
+			}
+		});
+	}
+
+	static void request(Plugin plugin) {
+		Agent.send(plugin.agentId, Constants.EVENT_FLAME_GRAPH, "");
+	}
+
+	/**
+	 * Returns the view that shows the report, a new one when the report starts with a header.
+	 */
+	static IcicleView show(IcicleView view, String agentLabel, String report) {
+		String lines[] = report.split("\n");
+		int first = 0;
+		if (lines[0].startsWith("flame\t")) {
+			String header[] = lines[0].split("\t", 5);
+			if (header.length < 5) return view;
+			view = new IcicleView();
+			view.open(String.format("%sFlame graph of inspected plugins, %s paths, written to %s", agentLabel, header[2], header[4]));
+			first = 1;
+		}
+		if (view == null) return null;	// the start of the report was not received
+		IcicleView shown = view;
+		String paths[] = Arrays.copyOfRange(lines, first, lines.length);
+		SwingUtilities.invokeLater(() -> {
+			for (String path : paths) shown.add(path);
+			shown.revalidate();
+			shown.repaint();
+		});
+		return view;
+	}
+
+	/**
+	 * Adds a line <tt>a;b;c micros</tt>, where micros is the self time of the path.
+	 */
+	void add(String path) {
+		int space = path.lastIndexOf(' ');
+		if (space == -1) return;
+		long micros;
+		try {
+			micros = Long.parseLong(path.substring(space + 1));
+		} catch (NumberFormatException e) {
+			return;
+		}
+		Frame frame = root;
+		frame.micros += micros;
+		for (String name : path.substring(0, space).split(";")) {
+			Frame parent = frame;
+			frame = parent.children.computeIfAbsent(name, key -> new Frame(parent, key));
+			frame.micros += micros;
+		}
+	}
+
+	void open(String title) {
+		IcicleView view = this;
+		SwingUtilities.invokeLater(() -> {
+			JFrame frame = new JFrame(title);
+			frame.add(new JScrollPane(view));
+			frame.setSize(Constants.WIDTH, Constants.HEIGHT / 2);
+			frame.setLocationRelativeTo(null);
+			frame.setVisible(true);
+		});
+	}
+
+	@Override
+	public Dimension getPreferredSize() {
+		return new Dimension(Constants.WIDTH - 2 * Constants.MARGIN, zoomed.getDepth() * ROW_HEIGHT);
+	}
+
+	@Override
+	protected void paintComponent(Graphics g) {
+		g.setColor(Color.WHITE);
+		g.fillRect(0, 0, getWidth(), getHeight());
+		paintFrame(g, zoomed, 0, getWidth(), 0);
+	}
+
+	void paintFrame(Graphics g, Frame frame, double x, double width, int y) {
+		if (width < 1) return;
+		g.setColor(getColor(frame.name));
+		g.fillRect((int)x, y, Math.max(1, (int)width - 1), ROW_HEIGHT - 1);
+		if (width > 30) {
+			Graphics label = g.create((int)x, y, (int)width - 1, ROW_HEIGHT);
+			label.setColor(Color.BLACK);
+			label.drawString(frame.name, 3, ROW_HEIGHT - 5);
+			label.dispose();
+		}
+		double childX = x;
+		for (Frame child : frame.children.values()) {
+			double childWidth = frame.micros == 0 ? 0 : width * child.micros / frame.micros;
+			paintFrame(g, child, childX, childWidth, y + ROW_HEIGHT);
+			childX += childWidth;
+		}
+	}
+
+	/**
+	 * Returns the frame drawn at the given point, or null.
+	 */
+	Frame getFrame(int pointX, int pointY) {
+		Frame frame = zoomed;
+		double x = 0, width = getWidth();
+		for (int y = ROW_HEIGHT; y <= pointY; y += ROW_HEIGHT) {
+			Frame found = null;
+			for (Frame child : frame.children.values()) {
+				double childWidth = frame.micros == 0 ? 0 : width * child.micros / frame.micros;
+				if (pointX >= x && pointX < x + childWidth) {
+					found = child;
+					width = childWidth;
+					break;
+				}
+				x += childWidth;
+			}
+			if (found == null) return null;
+			frame = found;
+		}
+		return pointX >= 0 && pointX < getWidth() ? frame : null;
+	}
+
+	@Override
+	public String getToolTipText(MouseEvent e) {
+		Frame frame = getFrame(e.getX(), e.getY());
+		if (frame == null) return null;
+		return String.format("%s  %s  %.1f%%", frame.name, Util.formatNanos(frame.micros * 1000), 100.0 * frame.micros / Math.max(1, root.micros));
+	}
+
+	/**
+	 * Returns a warm color that stays the same for a method across views.
+	 */
+	static Color getColor(String name) {
+		int hash = name.hashCode() & 0xFFFF;
+		return new Color(205 + hash % 50, 80 + (hash >> 4) % 150, 40 + (hash >> 8) % 40);
+	}
+}
@@ -5,15 +5,26 @@ import java.awt.Color;
 import java.awt.Composite;
 import java.awt.Font;
 import java.awt.Graphics2D;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.ConcurrentModificationException;
+import java.util.Date;
 import java.util.List;
 
 import cacophonia.Constants;
+import cacophonia.runtime.Util;
 import cacophonia.ui.graph.Graph;
 import cacophonia.ui.graph.PaintListener;
 
+/**
+ * Shows the last jobs that ran in Eclipse, with the statistics of each job's earlier runs.
+ * <p>
+ * The agent sends one record per finished job run, see cacophonia.runtime.JobStatistics for its fields.
+ * A run that took longer than the 99th percentile of the runs before it, when there were at least {@link #MIN_RUN_COUNT}
+ * of them, is shown in red, as a possible regression.
+ */
 public class JobManager {
+	static final int MIN_RUN_COUNT = 10;
 	static Composite transparancies[] = {
 			AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.1f),
 			AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.2f),
@@ -28,10 +39,15 @@ public class JobManager {
 	};
 
 	List<String> jobs = new ArrayList<String>();
+	List<Boolean> slowJobs = new ArrayList<Boolean>();
+	int jobCount;
 	boolean enabled;
 
 	public JobManager(Graph graph) {
-		for (int n=0; n<Constants.JOBS_SHOWN_COUNT; n++) jobs.add("");
+		for (int n=0; n<Constants.JOBS_SHOWN_COUNT; n++) {
+			jobs.add("");
+			slowJobs.add(false);
+		}
 		graph.addPaintListener(new PaintListener() {
 			
 			@Override
@@ -52,11 +68,11 @@ public class JobManager {
 				int fontSize = (int)(UI.currentScale * Constants.FONT_SIZE);
 				Font font = new Font("Courier New", Font.PLAIN, fontSize);
 				g.setFont(font);
-				g.setColor(Color.GRAY);
 				g.setComposite(Plugin.opaque);
 				int n=0;
 				for (String jobDetails: jobs) {
-					int y = Constants.HEIGHT - 100 - jobs.size() * fontSize + fontSize * n++;
+					g.setColor(slowJobs.get(n) ? Color.RED : Color.GRAY);
+					int y = Constants.HEIGHT - 130 - jobs.size() * fontSize + fontSize * n++;
 					if (y > 60) {
 						int transparancyIndex = n / (jobs.size() / (transparancies.length) + 1);
 						Composite transparancy = transparancies[transparancyIndex];
@@ -68,10 +84,42 @@ public class JobManager {
 		});
 	}
 
-	public void addJob(String jobDetails) {
+	public void addJob(String record) {
+		String fields[] = record.split("\t");
+		if (fields.length != 10) {
+			addJob(record, false);
+			return;
+		}
+		long duration = Long.parseLong(fields[3]);
+		long count = Long.parseLong(fields[4]);
+		long p99 = Long.parseLong(fields[9]);
+		String jobDetails = String.format("%05d %s, %s \"%s\"    (%s)    n=%d avg=%s p50=%s p99=%s max=%s",
+				jobCount++,
+				new SimpleDateFormat("HH:mm:ss").format(new Date(Long.parseLong(fields[2]))),
+				Util.formatNanos(duration),
+				fields[0],
+				fields[1],
+				count,
+				Util.formatNanos(Long.parseLong(fields[5]) / count),
+				Util.formatNanos(Long.parseLong(fields[7])),
+				Util.formatNanos(p99),
+				Util.formatNanos(Long.parseLong(fields[6])));
+		addJob(jobDetails, count > MIN_RUN_COUNT && duration > p99);
+	}
+
+	void addJob(String jobDetails, boolean slow) {
 		jobs.add(jobDetails);
+		slowJobs.add(slow);
 		if (jobs.size() > Constants.JOBS_SHOWN_COUNT) {
 			jobs.remove(0);
+			slowJobs.remove(0);
+		}
+	}
+
+	public void clear() {
+		for (int n=0; n<jobs.size(); n++) {
+			jobs.set(n, "");
+			slowJobs.set(n, false);
 		}
 	}
 
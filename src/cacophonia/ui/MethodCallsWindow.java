@@ -0,0 +1,70 @@
+package cacophonia.ui;
+
+import java.awt.Font;
+
+import javax.swing.JFrame;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+
+import cacophonia.Constants;
+
+/**
+ * Shows the methods that call across the plugin boundaries of one plugin, or between two plugins, as answered
+ * by the agent to a request from the popup menu. See cacophonia.runtime.MethodCalls for the format.
+ * <p>
+ * An answer can span several messages. The first one starts with the header and opens a new window, the
+ * others are added to the last window opened.
+ */
+class MethodCallsWindow {
+	JTextArea text = new JTextArea();
+
+	static void request(Plugin plugin, Plugin other) {
+		String request = String.join(" ", PluginRegistry.getAllFragments(Agent.strip(plugin.fullName), Plugin.detailLevel));
+		if (other != null) {
+			request += "\t" + String.join(" ", PluginRegistry.getAllFragments(Agent.strip(other.fullName), Plugin.detailLevel));
+		}
+		Agent.send(plugin.agentId, Constants.EVENT_METHOD_CALLS, request);
+	}
+
+	/**
+	 * Returns the window that shows the report, a new one when the report starts with a header.
+	 */
+	static MethodCallsWindow show(MethodCallsWindow window, String agentLabel, String report) {
+		String lines[] = report.split("\n");
+		int first = 0;
+		if (lines[0].startsWith("methods\t")) {
+			String header[] = lines[0].split("\t", 4);
+			if (header.length < 4) return window;
+			window = new MethodCallsWindow();
+			String plugins[] = header[3].split("\t");
+			String title = plugins.length == 1 ? "Method calls of " + plugins[0] : "Method calls between " + plugins[0] + " and " + plugins[1];
+			String summary = String.format("%s method pairs%s\n\n", header[1], header[2].equals("0") ? "" : ", " + header[2] + " calls not counted");
+			window.open(agentLabel + title, summary);
+			first = 1;
+		}
+		if (window == null) return null;	// the start of the report was not received
+		StringBuilder rows = new StringBuilder();
+		for (int n=first; n<lines.length; n++) {
+			String fields[] = lines[n].split("\t");
+			if (fields.length != 3) continue;
+			rows.append(String.format("%,12d  %s -> %s\n", Long.parseLong(fields[2]), fields[0], fields[1]));
+		}
+		JTextArea text = window.text;
+		SwingUtilities.invokeLater(() -> text.append(rows.toString()));
+		return window;
+	}
+
+	void open(String title, String summary) {
+		SwingUtilities.invokeLater(() -> {
+			JFrame frame = new JFrame(title);
+			text.setEditable(false);
+			text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, Constants.FONT_SIZE - 2));
+			text.setText(summary);
+			frame.add(new JScrollPane(text));
+			frame.setSize(Constants.WIDTH * 3 / 4, Constants.HEIGHT / 2);
+			frame.setLocationRelativeTo(null);
+			frame.setVisible(true);
+		});
+	}
+}
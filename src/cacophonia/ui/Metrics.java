@@ -0,0 +1,126 @@
+package cacophonia.ui;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.util.LinkedHashMap;
+
+import cacophonia.runtime.Util;
+
+/**
+ * The metrics sent by the agent every second or so, see cacophonia.runtime.MetricsReporter for the record. 
+ * Keeps the last {@link #HISTORY_SIZE} values of each metric, and draws each metric as its latest value
+ * followed by a sparkline of its history.
+ */
+class Metrics {
+	static final int HISTORY_SIZE = 60;
+	static final int COLUMNS = 5;
+	static final int CELL_WIDTH = 240;
+	static final int SPARKLINE_WIDTH = 50;
+	static final int SPARKLINE_HEIGHT = 10;
+	static final int ROW_HEIGHT = SPARKLINE_HEIGHT + 5;
+
+	static class Metric {
+		String unit;
+		String text = "";
+		long values[] = new long[HISTORY_SIZE];
+		int count;
+
+		void add(long value) {
+			values[count++ % HISTORY_SIZE] = value;
+		}
+
+		long last() {
+			return count == 0 ? 0 : values[(count - 1) % HISTORY_SIZE];
+		}
+	}
+
+	LinkedHashMap<String,Metric> metrics = new LinkedHashMap<String,Metric>();
+
+	void update(String record) {
+		update(record, "");
+	}
+
+	/**
+	 * Updates the metrics in the record, with the prefix added to their names to tell agents apart.
+	 */
+	synchronized void update(String record, String prefix) {
+		for (String line : record.split("\\n")) {
+			String fields[] = line.split("\\t", -1);
+			if (fields.length != 3) continue;
+			Metric metric = metrics.computeIfAbsent(prefix + fields[0], name -> new Metric());
+			metric.unit = fields[2];
+			if (metric.unit.equals("text")) {
+				metric.text = fields[1];
+			} else {
+				metric.add(Long.parseLong(fields[1]));
+			}
+		}
+	}
+
+	synchronized void clear() {
+		metrics.clear();
+	}
+
+	/**
+	 * Draws the metrics in rows of {@link #COLUMNS}, growing upwards, with the baseline of the last row at
+	 * bottomY, so the block grows with the number of metrics without covering the lines below it.
+	 */
+	synchronized void draw(Graphics2D g, int x, int bottomY) {
+		int y = bottomY - (metrics.size() - 1) / COLUMNS * ROW_HEIGHT;
+		int n = 0;
+		for (String name : metrics.keySet()) {
+			Metric metric = metrics.get(name);
+			int cellX = x + (n % COLUMNS) * CELL_WIDTH;
+			int cellY = y + (n / COLUMNS) * ROW_HEIGHT;
+			g.setColor(Color.YELLOW);
+			String text = String.format("%s %s", name, format(metric));
+			g.drawString(text, cellX, cellY);
+			if (!metric.unit.equals("text")) {
+				drawSparkline(g, metric, cellX + g.getFontMetrics().stringWidth(text) + 5, cellY - SPARKLINE_HEIGHT);
+			}
+			n++;
+		}
+	}
+
+	void drawSparkline(Graphics2D g, Metric metric, int x, int y) {
+		int count = Math.min(metric.count, HISTORY_SIZE);
+		if (count < 2) return;
+		long max = 1;
+		for (int n=0; n<count; n++) max = Math.max(max, metric.values[n]);
+		g.setColor(Color.GRAY);
+		int first = metric.count - count;
+		int lastX = 0, lastY = 0;
+		for (int n=0; n<count; n++) {
+			long value = metric.values[(first + n) % HISTORY_SIZE];
+			int pointX = x + n * SPARKLINE_WIDTH / (HISTORY_SIZE - 1);
+			int pointY = y + SPARKLINE_HEIGHT - (int)(value * SPARKLINE_HEIGHT / max);
+			if (n > 0) g.drawLine(lastX, lastY, pointX, pointY);
+			lastX = pointX;
+			lastY = pointY;
+		}
+	}
+
+	static String format(Metric metric) {
+		long value = metric.last();
+		switch (metric.unit) {
+		case "text":
+			return metric.text;
+		case "B":
+			return Util.formatSize(value);
+		case "ms/s":
+			return value + "ms/s";
+		case "%":
+			return value + "%";
+		case "/s":
+			return formatCount(value) + "/s";
+		default:
+			return formatCount(value);
+		}
+	}
+
+	static String formatCount(long value) {
+		if (value < 10000) return String.valueOf(value);
+		if (value < 10000000) return String.format("%.1fK", value / 1e3);
+		return String.format("%.1fM", value / 1e6);
+	}
+}
@@ -8,8 +8,10 @@ import java.awt.Composite;
 import java.awt.Font;
 import java.awt.Graphics2D;
 import java.awt.Rectangle;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -48,6 +50,7 @@ public class Plugin extends Component {
 			new Color(210, 145, 188)  // violet
 	};
 	static Font statisticsFont = new Font("Courier New", Font.PLAIN, Constants.FONT_SIZE);
+	static final int STATISTICS_LINE_HEIGHT = 15;
 	static Map<String,Color> filterColors = new HashMap<>();
 	static DetailLevel detailLevel = DetailLevel.FEATURE;
 	static Plugin selectedPlugin;
@@ -58,6 +61,7 @@ public class Plugin extends Component {
 	Set<String> relatedPluginNames = new HashSet<String>();
 	String[] names;
 	String fullName, name;
+	int agentId;	// set when the agents are shown side by side, see Agent
 	int instrument, note;
 	boolean beingInspected;
 	Color focusColor;
@@ -68,7 +72,8 @@ public class Plugin extends Component {
 	
 	public Plugin(String name, Graph graph) {
 		this.fullName = name;
-		this.name = name.replace("_feature", "").replace("_plugin", "");
+		this.agentId = Agent.getId(name);
+		this.name = Agent.strip(name).replace("_feature", "").replace("_plugin", "");
 		node = graph.addNode(this);
 		names = this.name
 				.replace("com.", "")
@@ -76,8 +81,9 @@ public class Plugin extends Component {
 				.replace("eclipse.", "")
 				.replace(".feature", "")
 				.split("\\.");
+		names[0] = Agent.label(agentId, names[0]);
 		if (UI.currentSoundTheme != null) {
-			instrument = UI.currentSoundTheme.getInstrument(name);
+			instrument = UI.currentSoundTheme.getInstrument(this.name);
 			chooseNote();
 		}
 		setSize(Constants.PLUGIN_SIZE, Constants.PLUGIN_SIZE);
@@ -125,8 +131,8 @@ public class Plugin extends Component {
 			relatedPluginNames = PluginRegistry.getFamilyForPlugin(name);
 		}
 		for (String name: relatedPluginNames) {
-			if (!plugins.containsKey(name)) continue;
-			Plugin relatedPlugin = plugins.get(name);
+			Plugin relatedPlugin = plugins.get(Agent.label(agentId, name));
+			if (relatedPlugin == null) continue;
 			graph.addEdge(this.node, relatedPlugin.node,
 				graph.settings.relatedEdgeWeight,
 				graph.settings.relatedEdgeDecay, 
@@ -225,8 +231,17 @@ public class Plugin extends Component {
 		g.setFont(statisticsFont);
 		g.setColor(Color.YELLOW);
 		g.setComposite(Plugin.opaque);
-		g.drawString("Eclipse:    " + UI.statistics, 10, Constants.HEIGHT - 85);
-		g.drawString(myMemory, 10, Constants.HEIGHT - 70);
+		List<String> lines = new ArrayList<String>();	// from the bottom of the window up
+		if (!UI.longestHandOff.isEmpty()) lines.add("Queued:     " + UI.longestHandOff);
+		if (!UI.slowestEdge.isEmpty()) lines.add("Slowest:    " + UI.slowestEdge);
+		if (!UI.governor.isEmpty()) lines.add("Governor:   " + UI.governor);
+		lines.add(myMemory);
+		int y = Constants.HEIGHT - 25;
+		for (String line : lines) {
+			g.drawString(line, 10, y);
+			y -= STATISTICS_LINE_HEIGHT;
+		}
+		UI.metrics.draw(g, 10, y);
 	}
 	
 	double getAge() {
@@ -293,6 +308,11 @@ public class Plugin extends Component {
 			g.drawString(names[n], x + xOffset, y + yOffset + (n+1) * fontHeight);
 		}
 		g.setClip(null);
+		double share = getProfileShare();
+		if (share > 0) {
+			setNumberColor(g);
+			g.drawString(String.format("%.1f%%", 100 * share), x + size / 3, y + size + 12);
+		}
 		if (instrument != -1) {
 			setNumberColor(g);
 			g.drawString(String.format("%d", instrument), x, y);
@@ -333,8 +353,29 @@ public class Plugin extends Component {
 	}
 	
 	void setBackgroundColor(Graphics2D g) {
+		if (focusColor == null && UI.profile != 0) {
+			float heat = (float)Math.min(1, 4 * getProfileShare());
+			g.setColor(new Color(0.25f + 0.75f * heat, 0.25f * (1 - heat), 0.25f * (1 - heat)));
+			return;
+		}
 		g.setColor(focusColor != null ? focusColor : Color.DARK_GRAY);
 	}
+
+	/**
+	 * Returns the self time of this plugin in the last reported interval, as a fraction of that interval.
+	 * When several threads run the plugin at once, it can be more than 1. For allocations, returns the
+	 * fraction of all bytes allocated in the interval.
+	 */
+	double getProfileShare() {
+		if (UI.profile == 0) return 0;
+		if (UI.profile == 3) {
+			Long allocated = UI.pluginAllocations.get(fullName);
+			return allocated == null ? 0 : (double)allocated / UI.allocationTotal;
+		}
+		long times[] = UI.pluginTimes.get(fullName);
+		if (times == null) return 0;
+		return (double)times[UI.profile - 1] / UI.pluginTimeInterval;
+	}
 	
 	void setInspectColor(Graphics2D g) {
 		g.setColor(focusColor != null ? Color.RED : Color.YELLOW);
@@ -378,9 +419,9 @@ public class Plugin extends Component {
 	public void setInspect(boolean inspect) {
 		if (beingInspected == inspect) return;
 		beingInspected = inspect;
-		Set<String> fragments = PluginRegistry.getAllFragments(fullName, detailLevel);
+		Set<String> fragments = PluginRegistry.getAllFragments(Agent.strip(fullName), detailLevel);
 		String names = String.join(" ", fragments);
-		UI.sendEvent(beingInspected ? Constants.EVENT_INSPECT_PLUGIN : Constants.EVENT_UN_INSPECT_PLUGIN, names);
+		Agent.send(agentId, beingInspected ? Constants.EVENT_INSPECT_PLUGIN : Constants.EVENT_UN_INSPECT_PLUGIN, names);
 	}
 
 	public static void called(String fromName, String toName, Graph graph) {
@@ -167,6 +167,21 @@ public class PluginRegistry {
 		return value;
 	}
 
+	public static String mapToDetailLevel(String name, DetailLevel detailLevel) {
+		switch (detailLevel) {
+		case FEATURE:
+			// map fragments to plugins, and plugins to features
+			return getFeatureForPlugin(getPluginForFragment(name));
+		case PLUGIN:
+			// map fragments to plugins
+			return getPluginForFragment(name);
+		case FRAGMENT:
+		default:
+			// show all the detail possible
+			return name;
+		}
+	}
+
 	public static Set<String> getFamilyForFragment(String fragmentName) {
 		String pluginName = PluginRegistry.getPluginForFragment(fragmentName);
 		return PluginRegistry.getFragmentsForPlugin(pluginName);
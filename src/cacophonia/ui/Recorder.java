@@ -0,0 +1,172 @@
+package cacophonia.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+import cacophonia.Constants;
+import cacophonia.protocol.EventDecoder;
+import cacophonia.protocol.EventHandler;
+import cacophonia.protocol.RecordingWriter;
+
+/**
+ * Sits between the decoder of an {@link Agent} and its {@link EventReceiver}, and appends every event to the
+ * session recording before passing it on.
+ * <p>
+ * The recording uses one plugin dictionary for all agents. Plugin names are recorded with their agent label,
+ * so a replay can show the agents merged or side by side. Times are converted to epoch microseconds, using
+ * the start time in the header of the agent's stream.
+ */
+class Recorder implements EventHandler {
+	static final long SEGMENT_SIZE = 64 * 1024 * 1024;
+	static final long MAX_SIZE = 1024 * 1024 * 1024;
+	static final long MAX_TOTAL_SIZE = 4L * MAX_SIZE;	// of all sessions, including the new one
+	static String directory = System.getProperty("user.home") + "/.cacophonia/recordings";
+	static volatile RecordingWriter writer;
+
+	Agent agent;
+	EventHandler handler;
+	EventDecoder decoder = new EventDecoder(this);
+	String pluginNames[] = new String[256];
+	int pluginIds[] = new int[256];	// the recording's ID for each plugin ID of the agent, or -1 when not known yet
+	RecordingWriter mappedWriter;	// the recording that pluginIds refers to
+
+	Recorder(Agent agent, EventHandler handler) {
+		this.agent = agent;
+		this.handler = handler;
+	}
+
+	/**
+	 * Starts a new recording in a directory named after the current time. Older sessions are deleted first,
+	 * oldest first, to make room for a full new one.
+	 */
+	static synchronized void start() {
+		if (writer != null) return;
+		deleteOldSessions(new File(directory), MAX_TOTAL_SIZE - MAX_SIZE);
+		File file = new File(directory, new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()));
+		writer = new RecordingWriter(file, SEGMENT_SIZE, MAX_SIZE);
+		writer.start();
+		System.out.println("Recording to " + file);
+	}
+
+	static synchronized void stop() {
+		if (writer == null) return;
+		try {
+			writer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		writer = null;
+	}
+
+	/**
+	 * Deletes the oldest session directories until the sessions take at most maxSize bytes. The names of the
+	 * sessions are their start times, so they sort from old to new.
+	 */
+	static void deleteOldSessions(File directory, long maxSize) {
+		File sessions[] = directory.listFiles(File::isDirectory);
+		if (sessions == null) return;
+		Arrays.sort(sessions);
+		long sizes[] = new long[sessions.length];
+		long total = 0;
+		for (int n=0; n<sessions.length; n++) {
+			sizes[n] = getSize(sessions[n]);
+			total += sizes[n];
+		}
+		for (int n=0; n<sessions.length && total > maxSize; n++) {
+			File files[] = sessions[n].listFiles();
+			if (files != null) {
+				for (File file : files) file.delete();
+			}
+			sessions[n].delete();
+			total -= sizes[n];
+			System.out.println("Deleted old recording " + sessions[n]);
+		}
+	}
+
+	static long getSize(File session) {
+		long size = 0;
+		File files[] = session.listFiles();
+		if (files != null) {
+			for (File file : files) size += file.length();
+		}
+		return size;
+	}
+
+	long toMicros(long time) {
+		return decoder.getStartMillis() * 1000 + time;
+	}
+
+	/**
+	 * Returns the ID of the agent's plugin in the given recording. A recording started later gets its own IDs.
+	 */
+	int getPluginId(RecordingWriter writer, int pluginId) {
+		if (writer != mappedWriter) {
+			Arrays.fill(pluginIds, -1);
+			mappedWriter = writer;
+		}
+		if (pluginIds[pluginId] == -1) {
+			pluginIds[pluginId] = writer.getPluginId(Agent.label(agent.id, pluginNames[pluginId]));
+		}
+		return pluginIds[pluginId];
+	}
+
+	@Override
+	public void pluginName(int pluginId, String name) {
+		if (pluginId >= pluginNames.length) {
+			int length = Math.max(2 * pluginNames.length, pluginId + 1);
+			pluginNames = Arrays.copyOf(pluginNames, length);
+			pluginIds = new int[length];
+			mappedWriter = null;
+		}
+		pluginNames[pluginId] = name;
+		pluginIds[pluginId] = -1;
+		handler.pluginName(pluginId, name);
+	}
+
+	@Override
+	public void methodName(int methodId, String name) {
+		handler.methodName(methodId, name);
+	}
+
+	@Override
+	public void pluginCall(int fromPluginId, int toPluginId, int threadId, long time) {
+		RecordingWriter writer = Recorder.writer;
+		if (writer != null) {
+			try {
+				writer.pluginCall(getPluginId(writer, fromPluginId), getPluginId(writer, toPluginId), threadId, toMicros(time));
+			} catch (IOException e) {
+				// the recording was stopped
+			}
+		}
+		handler.pluginCall(fromPluginId, toPluginId, threadId, time);
+	}
+
+	@Override
+	public void pluginCalls(int fromPluginId, int toPluginId, int count, long time) {
+		RecordingWriter writer = Recorder.writer;
+		if (writer != null) {
+			try {
+				writer.pluginCalls(getPluginId(writer, fromPluginId), getPluginId(writer, toPluginId), count, toMicros(time));
+			} catch (IOException e) {
+				// the recording was stopped
+			}
+		}
+		handler.pluginCalls(fromPluginId, toPluginId, count, time);
+	}
+
+	@Override
+	public void message(int type, String message, long time) {
+		RecordingWriter writer = Recorder.writer;
+		if (writer != null && type != Constants.EVENT_TRANSPORT) {
+			try {
+				writer.message(type, message, toMicros(time));
+			} catch (IOException e) {
+				// the recording was stopped
+			}
+		}
+		handler.message(type, message, time);
+	}
+}
@@ -0,0 +1,34 @@
+package cacophonia.ui;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+
+class RecorderTest {
+
+	File newSession(File directory, String name, int size) throws Exception {
+		File session = new File(directory, name);
+		session.mkdirs();
+		Files.write(new File(session, "000000.bin").toPath(), new byte[size]);
+		Files.write(new File(session, "000000.idx").toPath(), new byte[20]);
+		return session;
+	}
+
+	@Test
+	void test_oldest_sessions_are_deleted_first() throws Exception {
+		File directory = Files.createTempDirectory("recordings").toFile();
+		File oldest = newSession(directory, "20260101-090000", 1000);
+		File older = newSession(directory, "20260102-090000", 1000);
+		File newest = newSession(directory, "20260103-090000", 1000);
+		Recorder.deleteOldSessions(directory, 2500);
+		assertFalse(oldest.exists());
+		assertTrue(older.exists());
+		assertTrue(newest.exists());
+		Recorder.deleteOldSessions(directory, 0);
+		assertEquals(0, directory.listFiles().length);
+	}
+}
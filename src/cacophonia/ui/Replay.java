@@ -0,0 +1,260 @@
+package cacophonia.ui;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cacophonia.protocol.EventHandler;
+import cacophonia.protocol.RecordingReader;
+import cacophonia.protocol.RecordingWriter;
+import cacophonia.ui.graph.Settings;
+
+/**
+ * Replays a recording made by the {@link Recorder} into the graph, at 1x, 10x or 100x speed, or as fast as possible.
+ * <p>
+ * While replaying, {@link UI#live} is false. The events of the agents are still recorded, but not shown.
+ * {@link UI#historyFrozen} is the replayed time, and {@link UI#historyIndex} is the number of seconds since the
+ * start of the recording.
+ * <p>
+ * Seeking does not replay the recording from its start. Every {@link #CHECKPOINT_INTERVAL} of recording time,
+ * a copy of the {@link ReplayState} is kept. A seek starts at the last checkpoint before the target, applies the
+ * events up to the target to the state without drawing them, and then rebuilds the graph from the state. The
+ * checkpoints past the furthest point replayed so far are made on the way.
+ */
+class Replay extends Thread {
+	static final long CHECKPOINT_INTERVAL = 10000000;	// in microseconds
+	static final long SLICE = 100000;	// the recording time shown per step at 1x, in microseconds
+	static final long IDLE_DELAY = 20;	// in milliseconds
+	static volatile Replay current;
+
+	File directory;
+	RecordingReader reader;
+	long start;
+	TreeMap<Long,ReplayState> checkpoints = new TreeMap<Long,ReplayState>();
+	ReplayState state = new ReplayState();
+	Player player = new Player();
+	volatile long position;
+	volatile int speed = 1;	// 0 for as fast as possible
+	volatile boolean paused;
+	volatile boolean stepping;
+	volatile long seekTarget = -1;
+	volatile boolean stopped;
+
+	/**
+	 * Applies the recorded events to the state, and when drawing, to the graph.
+	 */
+	class Player implements EventHandler {
+		String pluginNames[] = new String[256];
+		EventReceiver receiver = new EventReceiver();
+		boolean drawing;
+
+		public void pluginName(int pluginId, String name) {
+			if (pluginId >= pluginNames.length) {
+				pluginNames = EventReceiver.grow(pluginNames, pluginId);
+			}
+			pluginNames[pluginId] = name;
+		}
+
+		public void methodName(int methodId, String name) {
+		}
+
+		public void pluginCall(int fromPluginId, int toPluginId, int threadId, long time) {
+			String from = pluginNames[fromPluginId];
+			String to = pluginNames[toPluginId];
+			state.called(from, to, time);
+			if (!drawing) return;
+			synchronized (UI.callLock) {
+				Plugin.called(getShownName(from), getShownName(to), UI.graph);
+			}
+		}
+
+		public void pluginCalls(int fromPluginId, int toPluginId, int count, long time) {
+			pluginCall(fromPluginId, toPluginId, 0, time);
+		}
+
+		public void message(int type, String message, long time) {
+			state.message(type, message, time);
+			if (drawing) receiver.message(type, message, time);
+		}
+	}
+
+	Replay(File directory) throws IOException {
+		super("Cacophonia Replay");
+		this.directory = directory;
+		reader = new RecordingReader(directory);
+		start = position = reader.getStartTime();
+		checkpoints.put(start, state.copy());
+		setDaemon(true);
+	}
+
+	/**
+	 * Stops showing the agents and shows the recording in the given directory instead.
+	 */
+	static synchronized void startReplay(File directory) {
+		stopReplay();
+		try {
+			Replay replay = new Replay(directory);
+			if (replay.start == -1) {
+				System.out.println("Nothing recorded in " + directory);
+				return;
+			}
+			UI.live = false;
+			clearGraph();
+			current = replay;
+			replay.start();
+			System.out.println("Replaying " + directory);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Goes back to showing the agents.
+	 */
+	static synchronized void stopReplay() {
+		Replay replay = current;
+		if (replay == null) return;
+		current = null;
+		replay.stopped = true;
+		replay.interrupt();
+		try {
+			replay.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		clearGraph();
+		UI.live = true;
+	}
+
+	static void clearGraph() {
+		synchronized (UI.callLock) {
+			Plugin.clear();
+			UI.graph.clear();
+			UI.jobManager.clear();
+		}
+	}
+
+	/**
+	 * Returns the name under which a recorded plugin is shown, for the current detail level.
+	 */
+	static String getShownName(String name) {
+		String shown = PluginRegistry.mapToDetailLevel(Agent.strip(name), Plugin.detailLevel);
+		return Agent.label(Agent.split ? Agent.getId(name) : 0, shown);
+	}
+
+	/**
+	 * Returns the time up to which the recording is complete. The chunk that is being recorded is not.
+	 */
+	long getEnd() throws IOException {
+		long last = reader.getLastChunkTime();
+		RecordingWriter writer = Recorder.writer;
+		boolean recording = writer != null && writer.getDirectory().equals(directory);
+		return recording ? last : last + RecordingWriter.CHUNK_INTERVAL;
+	}
+
+	void seek(long micros) {
+		seekTarget = Math.max(start, micros);
+	}
+
+	void setSpeed(int speed) {
+		this.speed = speed;
+	}
+
+	void setPaused(boolean paused) {
+		this.paused = paused;
+	}
+
+	void step() {
+		stepping = true;
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!stopped) {
+				long target = seekTarget;
+				if (target != -1) {
+					seekTarget = -1;
+					seekTo(target);
+					continue;
+				}
+				long end = getEnd();
+				if (paused && !stepping || position >= end) {
+					Thread.sleep(IDLE_DELAY);
+					continue;
+				}
+				stepping = false;
+				long started = System.nanoTime();
+				long slice = speed == 1 ? SLICE : RecordingWriter.CHUNK_INTERVAL;
+				play(Math.min(position + slice, end), true);
+				if (speed > 0) {
+					long delay = slice / speed / 1000 - (System.nanoTime() - started) / 1000000;
+					if (delay > 0) Thread.sleep(delay);
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Replays the events up to the given time, making checkpoints on the way.
+	 */
+	void play(long to, boolean drawing) throws IOException {
+		player.drawing = drawing;
+		while (position < to) {
+			long next = Math.min(to, start + ((position - start) / CHECKPOINT_INTERVAL + 1) * CHECKPOINT_INTERVAL);
+			reader.read(position, next, player);
+			position = next;
+			if ((position - start) % CHECKPOINT_INTERVAL == 0) {
+				checkpoints.putIfAbsent(position, state.copy());
+			}
+		}
+		UI.historyFrozen = new Date(position / 1000);
+		UI.historyIndex = (int)((position - start) / 1000000);
+	}
+
+	void seekTo(long target) throws IOException {
+		target = Math.min(target, getEnd());
+		Map.Entry<Long,ReplayState> checkpoint = checkpoints.floorEntry(target);
+		state = checkpoint.getValue().copy();
+		position = checkpoint.getKey();
+		play(target, false);
+		show();
+	}
+
+	/**
+	 * Rebuilds the graph from the state. Node ages and edge weights follow from the time since their last call.
+	 */
+	void show() {
+		Settings settings = UI.graphSettings;
+		HashMap<String,Long> plugins = new HashMap<String,Long>();
+		state.plugins.forEach((name, last) -> plugins.merge(getShownName(name), last, Math::max));
+		HashMap<String,Long> edges = new HashMap<String,Long>();
+		for (Map.Entry<String,Long> edge : state.edges.entrySet()) {
+			String from = getShownName(ReplayState.getFrom(edge));
+			String to = getShownName(ReplayState.getTo(edge));
+			edges.merge(from + "\t" + to, edge.getValue(), Math::max);
+		}
+		synchronized (UI.callLock) {
+			clearGraph();
+			plugins.forEach((name, last) -> UI.graph.updateAge(Plugin.get(name, UI.graph), ReplayState.getAge(last, position, settings)));
+			for (Map.Entry<String,Long> edge : edges.entrySet()) {
+				Plugin from = Plugin.get(ReplayState.getFrom(edge), UI.graph);
+				Plugin to = Plugin.get(ReplayState.getTo(edge), UI.graph);
+				UI.graph.addCallEdge(from, to,
+						ReplayState.getWeight(settings.historyEdgeWeight, settings.historyEdgeDecay, edge.getValue(), position, settings),
+						ReplayState.getWeight(settings.callEdgeWeight, settings.callEdgeDecay, edge.getValue(), position, settings));
+			}
+		}
+		for (String job : state.jobs) {
+			UI.handleJob(job);
+		}
+		state.reports.forEach((type, report) -> player.receiver.message(type, report, position));
+	}
+}
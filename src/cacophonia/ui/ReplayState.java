@@ -0,0 +1,84 @@
+package cacophonia.ui;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+import cacophonia.Constants;
+import cacophonia.ui.graph.Settings;
+
+/**
+ * What the graph shows at a point of a replayed recording, see {@link Replay}.
+ * <p>
+ * The age of a node and the weight of an edge only depend on how long ago the plugin or the call was last
+ * seen, so the state keeps the time of the last call per plugin and per edge, with the plugin names as recorded.
+ * It also keeps the last jobs and the last report of each type. A copy of the state is a checkpoint.
+ */
+class ReplayState {
+	HashMap<String,Long> plugins = new HashMap<String,Long>();	// last call in epoch microseconds
+	HashMap<String,Long> edges = new HashMap<String,Long>();	// keyed by "from\tto"
+	ArrayDeque<String> jobs = new ArrayDeque<String>();
+	HashMap<Integer,String> reports = new HashMap<Integer,String>();
+	long time;	// in epoch microseconds
+
+	void called(String from, String to, long micros) {
+		plugins.put(from, micros);
+		plugins.put(to, micros);
+		edges.put(from + "\t" + to, micros);
+		time = Math.max(time, micros);
+	}
+
+	void message(int type, String message, long micros) {
+		switch (type) {
+		case Constants.EVENT_JOB:
+			jobs.add(message);
+			if (jobs.size() > Constants.JOBS_SHOWN_COUNT) jobs.poll();
+			break;
+		case Constants.EVENT_METRICS:
+		case Constants.EVENT_GOVERNOR:
+		case Constants.EVENT_LATENCY:
+		case Constants.EVENT_PLUGIN_TIMES:
+		case Constants.EVENT_ALLOCATIONS:
+		case Constants.EVENT_HAND_OFFS:
+			reports.put(type, message);
+			break;
+		}
+		time = Math.max(time, micros);
+	}
+
+	ReplayState copy() {
+		ReplayState copy = new ReplayState();
+		copy.plugins.putAll(plugins);
+		copy.edges.putAll(edges);
+		copy.jobs.addAll(jobs);
+		copy.reports.putAll(reports);
+		copy.time = time;
+		return copy;
+	}
+
+	/**
+	 * Returns the age the graph gives a node that was last called at the given time. The graph decays
+	 * the age of all nodes once per layout.
+	 */
+	static double getAge(long lastMicros, long nowMicros, Settings settings) {
+		double layouts = (double)(nowMicros - lastMicros) / (1000 * settings.layoutDelay);
+		return Math.min(Constants.MAX_AGE, Constants.MAX_AGE - layouts * settings.ageDecay);
+	}
+
+	/**
+	 * Returns the weight the graph gives an edge that was last called at the given time. The graph decays
+	 * the weight of all edges once per redraw.
+	 */
+	static double getWeight(double weight, double decay, long lastMicros, long nowMicros, Settings settings) {
+		double redraws = (double)(nowMicros - lastMicros) / (1000 * settings.redrawDelay);
+		return Math.max(0, Math.min(weight, weight - redraws * decay));
+	}
+
+	static String getFrom(Map.Entry<String,Long> edge) {
+		return edge.getKey().substring(0, edge.getKey().indexOf('\t'));
+	}
+
+	static String getTo(Map.Entry<String,Long> edge) {
+		return edge.getKey().substring(edge.getKey().indexOf('\t') + 1);
+	}
+}
@@ -0,0 +1,60 @@
+package cacophonia.ui;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import cacophonia.Constants;
+import cacophonia.ui.graph.Settings;
+
+
+class ReplayStateTest {
+
+	@Test
+	void test_state_keeps_the_last_call_of_plugins_and_edges() {
+		ReplayState state = new ReplayState();
+		state.called("#1 org.eclipse.ui", "#1 org.eclipse.jdt.core", 1000);
+		state.called("#1 org.eclipse.jdt.core", "#2 org.eclipse.core.resources", 2000);
+		assertEquals(2000, state.plugins.get("#1 org.eclipse.jdt.core"));
+		assertEquals(1000, state.plugins.get("#1 org.eclipse.ui"));
+		assertEquals(2, state.edges.size());
+		assertEquals(1000, state.edges.get("#1 org.eclipse.ui\t#1 org.eclipse.jdt.core"));
+		assertEquals(2000, state.time);
+	}
+
+	@Test
+	void test_checkpoint_is_not_changed_by_later_events() {
+		ReplayState state = new ReplayState();
+		state.called("a", "b", 1000);
+		state.message(Constants.EVENT_GOVERNOR, "first", 1000);
+		ReplayState checkpoint = state.copy();
+		state.called("a", "c", 5000);
+		state.message(Constants.EVENT_GOVERNOR, "second", 5000);
+		assertEquals(1000, checkpoint.plugins.get("a"));
+		assertNull(checkpoint.plugins.get("c"));
+		assertEquals("first", checkpoint.reports.get(Constants.EVENT_GOVERNOR));
+		assertEquals("second", state.reports.get(Constants.EVENT_GOVERNOR));
+	}
+
+	@Test
+	void test_only_the_jobs_shown_are_kept() {
+		ReplayState state = new ReplayState();
+		for (int n=0; n<Constants.JOBS_SHOWN_COUNT + 10; n++) {
+			state.message(Constants.EVENT_JOB, "job " + n, n);
+		}
+		assertEquals(Constants.JOBS_SHOWN_COUNT, state.jobs.size());
+		assertEquals("job 10", state.jobs.peek());
+	}
+
+	@Test
+	void test_ages_and_weights_decay_as_in_the_graph() {
+		Settings settings = new Settings();
+		assertEquals(Constants.MAX_AGE, ReplayState.getAge(1000000, 1000000, settings), 0.001);
+		// one layout per 100ms, decaying the age by 0.1
+		assertEquals(Constants.MAX_AGE - 1, ReplayState.getAge(1000000, 2000000, settings), 0.001);
+		// one redraw per 50ms, decaying the weight of a call edge by 0.5
+		assertEquals(settings.callEdgeWeight - 5, ReplayState.getWeight(settings.callEdgeWeight, settings.callEdgeDecay, 0, 500000, settings), 0.001);
+		assertEquals(0, ReplayState.getWeight(settings.callEdgeWeight, settings.callEdgeDecay, 0, 10000000, settings));
+		assertEquals(settings.historyEdgeWeight, ReplayState.getWeight(settings.historyEdgeWeight, settings.historyEdgeDecay, 0, 0, settings));
+	}
+}
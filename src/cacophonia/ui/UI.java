@@ -21,28 +21,29 @@ import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.TextEvent;
 import java.awt.event.TextListener;
-import java.io.BufferedInputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.prefs.Preferences;
 
 import javax.sound.midi.Instrument;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
+import javax.swing.JSlider;
+import javax.swing.Timer;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
 import cacophonia.Constants;
 import cacophonia.DetailLevel;
+import cacophonia.runtime.Util;
 import cacophonia.ui.graph.Graph;
 import cacophonia.ui.graph.Node;
 import cacophonia.ui.graph.PopupMenuListener;
@@ -60,20 +61,31 @@ import cacophonia.ui.graph.Settings;
  */
 public class UI {
 	static Orchestra orchestra = new Orchestra();
-	static HashMap<String, Boolean> called = new HashMap<>();
+	static Object callLock = new Object();
 	static HashMap<String, Integer> scores = new HashMap<>();
 	static JComboBox<Object> instrumentSelector;
 	static JLabel time;
-	static DataOutputStream eventStream;
 	static String pluginFilter = "";
-	static boolean live = true;
-	static int historyIndex;
+	static volatile boolean live = true;	// false while a recording is replayed, see Replay
+	static int historyIndex;	// the replayed second of the recording
 	static boolean muted = true;
-	static Date historyFrozen = new Date();
+	static Date historyFrozen = new Date();	// the replayed time
 	static SoundTheme currentSoundTheme;
 	static Preferences preferences = Preferences.userNodeForPackage(UI.class);
 	static enum DrawType { EDGES, PLUGIN, CALLS };
-	static String statistics = "";
+	static Metrics metrics = new Metrics();
+	static String governor = "";
+	static HashMap<String,String> latencies = new HashMap<>();
+	static String slowestEdge = "";
+	static HashMap<String,long[]> pluginTimes = new HashMap<>();	// self wall, self cpu, total wall, total cpu
+	static long pluginTimeInterval = 1;
+	static HashMap<String,Long> pluginAllocations = new HashMap<>();
+	static HashMap<String,Long> edgeAllocations = new HashMap<>();	// keyed by "from -> to"
+	static long allocationInterval = 1;
+	static long allocationTotal = 1;
+	static LinkedHashMap<String,String> handOffs = new LinkedHashMap<>();	// keyed by "from -> to", longest total wait first
+	static String longestHandOff = "";
+	static int profile;	// what nodes are colored by: 0 for none, 1 for self wall time, 2 for self CPU time, 3 for allocations
 	static Graph graph;
 	static Settings graphSettings = new Settings();
 	static JobManager jobManager;
@@ -89,88 +101,26 @@ public class UI {
 		}
 	}
 
+	/**
+	 * Accepts agents, see {@link AgentServer}. The UI keeps running when agents come and go.
+	 * Unless turned off, the events of all agents are recorded, see {@link Recorder}.
+	 */
 	static void setupListener() {
-		new Thread(new Runnable() {
-			public void run() {
-				try{  
-					ServerSocket serverSocket = new ServerSocket(6666);  
-					Socket socket = serverSocket.accept();   
-					DataInputStream dis=new DataInputStream(new BufferedInputStream(socket.getInputStream()));  
-					eventStream = new DataOutputStream(socket.getOutputStream());
-					while (true) {
-						try {
-							int command = dis.readInt();
-							switch (command) {
-							case Constants.EVENT_STATISTICS:
-								statistics = (String)dis.readUTF();
-								break;
-							case Constants.EVENT_PLUGIN_DETAILS:
-								// not handled
-								break;
-							case Constants.EVENT_JOB:
-								handleJob((String)dis.readUTF());
-								break;
-							case Constants.EVENT_PLUGIN_TO_PLUGIN_CALL:
-								String pluginToPlugin = (String)dis.readUTF();
-								synchronized (called) {
-									if (pluginToPlugin.indexOf(" ") != -1) {
-										String[] pluginNames = pluginToPlugin.split(" ");
-										String from = pluginNames[0];
-										String to = pluginNames[1];
-										switch (Plugin.detailLevel) {
-										case FEATURE:
-											// map fragments to plugins
-											from = PluginRegistry.getPluginForFragment(from);
-											to = PluginRegistry.getPluginForFragment(to);
-											// map plugins to features
-											from = PluginRegistry.getFeatureForPlugin(from);
-											to = PluginRegistry.getFeatureForPlugin(to);
-											break;
-										case PLUGIN:
-											// map fragments to plugins
-											from = PluginRegistry.getPluginForFragment(from);
-											to = PluginRegistry.getPluginForFragment(to);
-											break;
-										case FRAGMENT:
-											// show all the detail possible
-											break;
-										default:
-											break;
-										}
-										Plugin.called(from, to, graph);
-										called.put(pluginToPlugin, true);
-									}
-								}
-								break;
-							}
-						} catch (Exception e) {
-							serverSocket.close();
-							System.out.println("Exit UI");
-							System.out.flush();
-							e.printStackTrace();
-							System.err.flush();
-							System.exit(0);
-						}
-					}
-				} catch(Exception e) {
-					e.printStackTrace();
-					System.err.flush();
-				}  
-			}
-		}).start();
+		if (UI.preferences.getBoolean("record", true)) {
+			Recorder.start();
+		}
+		AgentServer.startServer();
 	}
 
 	static void handleJob(String jobDetails) {
 		jobManager.addJob(jobDetails);
 	}
 
+	/**
+	 * Sends a command to all agents.
+	 */
 	static void sendEvent(int command, String details) {
-		try {
-			eventStream.writeInt(command);
-			eventStream.writeUTF(details);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		Agent.send(0, command, details);
 	}
 	
 	static void createUI() {
@@ -184,6 +134,8 @@ public class UI {
 		header.add(createInstrumentSelector());
 		header.add(new Label("|"));
 		header.add(createFilterUI());
+		header.add(new Label("|"));
+		header.add(createReplayUI());
 		mainContainer.add(header, BorderLayout.NORTH);
 
     	// fluxController.repaint();
@@ -226,6 +178,57 @@ public class UI {
 				graph.remove(menu);
 			}
 		});
+		if (plugin.beingInspected) {
+			MenuItem flameGraph = new MenuItem("Show flame graph of inspected plugins");
+			menu.add(flameGraph);
+			flameGraph.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					IcicleView.request(plugin);
+					graph.remove(menu);
+				}
+			});
+		}
+		String latency = latencies.get(name);
+		if (latency != null) {
+			MenuItem latencyItem = new MenuItem("Latency: " + latency);
+			latencyItem.setEnabled(false);
+			menu.add(latencyItem);
+		}
+		Long allocated = pluginAllocations.get(name);
+		if (allocated != null) {
+			addAllocationItems(menu, name, allocated);
+		}
+		handOffs.entrySet().stream()
+			.filter(handOff -> handOff.getKey().endsWith(" -> " + name))
+			.limit(3)
+			.forEach(handOff -> {
+				String from = handOff.getKey().substring(0, handOff.getKey().length() - name.length() - 4);
+				MenuItem item = new MenuItem(String.format("Queued by %s: %s", from, handOff.getValue()));
+				item.setEnabled(false);
+				menu.add(item);
+			});
+		MenuItem methodCalls = new MenuItem("Show method calls of " + name);
+		menu.add(methodCalls);
+		methodCalls.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				MethodCallsWindow.request(plugin, null);
+				graph.remove(menu);
+			}
+		});
+		Plugin selected = Plugin.selectedPlugin;
+		if (selected != null && selected != plugin && selected.agentId == plugin.agentId) {
+			MenuItem edgeCalls = new MenuItem("Show method calls between " + selected.fullName + " and " + name);
+			menu.add(edgeCalls);
+			edgeCalls.addActionListener(new ActionListener() {
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					MethodCallsWindow.request(selected, plugin);
+					graph.remove(menu);
+				}
+			});
+		}
 		MenuItem source = new MenuItem("Import this plugin as source");
 		menu.add(source);
 		source.addActionListener(new ActionListener() {
@@ -247,6 +250,26 @@ public class UI {
 		return menu;
 	}
 
+	/**
+	 * Shows the allocation rate of the plugin, and of the three edges into it that allocate the most.
+	 */
+	static void addAllocationItems(PopupMenu menu, String name, long allocated) {
+		double seconds = allocationInterval / 1e9;
+		MenuItem total = new MenuItem(String.format("Allocates %s/s", Util.formatSize((long)(allocated / seconds))));
+		total.setEnabled(false);
+		menu.add(total);
+		edgeAllocations.entrySet().stream()
+			.filter(edge -> edge.getKey().endsWith(" -> " + name))
+			.sorted((edge1, edge2) -> Long.compare(edge2.getValue(), edge1.getValue()))
+			.limit(3)
+			.forEach(edge -> {
+				String from = edge.getKey().substring(0, edge.getKey().length() - name.length() - 4);
+				MenuItem item = new MenuItem(String.format("    %s/s when called by %s", Util.formatSize((long)(edge.getValue() / seconds)), from));
+				item.setEnabled(false);
+				menu.add(item);
+			});
+	}
+
 	static Component createFilterUI() {
 		Container container = new Container();
 		container.setLayout(new FlowLayout(FlowLayout.LEFT, 1, 1));
@@ -292,6 +315,149 @@ public class UI {
 			}
 		});
 		container.add(levelSelector);
+
+		JCheckBox split = new JCheckBox("split agents", false);
+		split.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				if (Agent.split == split.isSelected()) return;
+				Agent.split = split.isSelected();
+				Plugin.clear();
+				graph.clear();
+			}
+		});
+		container.add(split);
+
+		JCheckBox record = new JCheckBox("record", UI.preferences.getBoolean("record", true));
+		record.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				if ((Recorder.writer != null) == record.isSelected()) return;
+				UI.preferences.putBoolean("record", record.isSelected());
+				if (record.isSelected()) {
+					Recorder.start();
+				} else {
+					Recorder.stop();
+				}
+			}
+		});
+		container.add(record);
+
+		JComboBox<String> profileSelector = new JComboBox<String>(new String[] { "No profile", "Self time", "Self CPU", "Allocations" });
+		profileSelector.addActionListener(new ActionListener() {	
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				UI.profile = profileSelector.getSelectedIndex();
+			}
+		});
+		container.add(profileSelector);
+
+		String samplingNames[] = { "All calls", "1 in 10", "1 in 100", "1 in 1000", "10ms per 100ms", "10ms per second" };
+		String samplingSpecs[] = { "none", "counter:10", "counter:100", "counter:1000", "time:10:100", "time:10:1000" };
+		JComboBox<String> samplingSelector = new JComboBox<String>(samplingNames);
+		samplingSelector.addActionListener(new ActionListener() {	
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				UI.sendEvent(Constants.EVENT_SAMPLING, samplingSpecs[samplingSelector.getSelectedIndex()]);
+			}
+		});
+		container.add(samplingSelector);
+		return container;
+	}
+
+	/**
+	 * Creates the controls to replay a recording, see {@link Replay}.
+	 */
+	static Component createReplayUI() {
+		Container container = new Container();
+		container.setLayout(new FlowLayout(FlowLayout.LEFT, 1, 1));
+
+		Button replay = new Button("replay...");
+		replay.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				JFileChooser chooser = new JFileChooser(Recorder.directory);
+				chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+				if (chooser.showOpenDialog(replay) == JFileChooser.APPROVE_OPTION) {
+					Replay.startReplay(chooser.getSelectedFile());
+				}
+			}
+		});
+		container.add(replay);
+
+		Button live = new Button("live");
+		live.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				Replay.stopReplay();
+			}
+		});
+		container.add(live);
+
+		JComboBox<String> speedSelector = new JComboBox<String>(new String[] { "1x", "10x", "100x", "max" });
+		int speeds[] = { 1, 10, 100, 0 };
+		speedSelector.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				Replay replay = Replay.current;
+				if (replay != null) replay.setSpeed(speeds[speedSelector.getSelectedIndex()]);
+			}
+		});
+		container.add(speedSelector);
+
+		JCheckBox pause = new JCheckBox("pause", false);
+		pause.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				Replay replay = Replay.current;
+				if (replay != null) replay.setPaused(pause.isSelected());
+			}
+		});
+		container.add(pause);
+
+		Button step = new Button("step");
+		step.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				Replay replay = Replay.current;
+				if (replay != null) replay.step();
+			}
+		});
+		container.add(step);
+
+		JSlider position = new JSlider(0, 1, 0);
+		int shownIndex[] = { 0 };	// the value set by the timer below, which is not a seek
+		position.setPreferredSize(new Dimension(200, 20));
+		position.addChangeListener(new ChangeListener() {
+			public void stateChanged(ChangeEvent e) {
+				Replay replay = Replay.current;
+				if (replay == null || position.getValueIsAdjusting() || position.getValue() == shownIndex[0]) return;
+				replay.seek(replay.start + position.getValue() * 1000000L);
+			}
+		});
+		container.add(position);
+
+		time = new JLabel("live");
+		container.add(time);
+		new Timer(500, new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				Replay replay = Replay.current;
+				if (replay == null) {
+					time.setText("live");
+					return;
+				}
+				replay.setSpeed(speeds[speedSelector.getSelectedIndex()]);
+				replay.setPaused(pause.isSelected());
+				time.setText(new SimpleDateFormat("HH:mm:ss").format(historyFrozen));
+				if (position.getValueIsAdjusting()) return;
+				try {
+					position.setMaximum((int)Math.max(1, (replay.getEnd() - replay.start) / 1000000));
+				} catch (IOException exception) {
+					// the recording is being cleaned up
+				}
+				shownIndex[0] = UI.historyIndex;
+				position.setValue(shownIndex[0]);
+			}
+		}).start();
+
 		return container;
 	}
 
@@ -137,10 +137,17 @@ public class Graph extends JPanel {
 	}
 	
 	public void addCallEdge(Component from, Component to) {
+		addCallEdge(from, to, settings.historyEdgeWeight, settings.callEdgeWeight);
+	}
+
+	/**
+	 * Adds the edges of a call that was made a while ago, and that have partly decayed already.
+	 */
+	public void addCallEdge(Component from, Component to, double historyWeight, double callWeight) {
 		Node fromNode = getNode(from);
 		Node toNode = getNode(to);
 		addEdge(fromNode, toNode,
-				settings.historyEdgeWeight,
+				historyWeight,
 				settings.historyEdgeDecay, 
 				settings.historyEdgeLength,
 				settings.historyEdgeAttractionForce,
@@ -148,7 +155,7 @@ public class Graph extends JPanel {
 				settings.historyEdgeColor
 		);
 		addEdge(fromNode, toNode,
-				settings.callEdgeWeight,
+				callWeight,
 				settings.callEdgeDecay, 
 				settings.callEdgeLength,
 				settings.callEdgeAttractionForce,